@@ -6,13 +6,20 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringReader;
 import java.util.Scanner;
+import java.util.function.Supplier;
 
+import application.controller.BatchRunner;
 import application.controller.ImageController;
+import application.controller.JobRunner;
+import application.controller.ScriptServer;
 import application.controller.ViewController;
+import application.model.CachedImageProcessor;
 import application.model.ImageMap;
 import application.model.ImageProcessor;
+import application.model.ResultCache;
 import application.model.ViewImage;
 import application.model.ViewModel;
+import application.model.utils.ParallelRows;
 import application.view.GraphicalView;
 import application.view.IView;
 
@@ -31,6 +38,20 @@ public class ApplicationRunner {
     String filePath = null;
     boolean textOption = false;
     boolean fileOption = false;
+    long memoryBudget = 0;
+    boolean parallelOption = false;
+    boolean lazyOption = false;
+    boolean streamOption = false;
+    long cacheSize = 0;
+    String cacheDirectory = null;
+    String batchPath = null;
+    String inputDirectory = null;
+    String outputDirectory = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int inFlight = 0;
+    String serverAddress = null;
+    int codecs = 0;
+    long pixelBytes = 0;
 
     for (int i = 0; i < args.length; i++) {
 
@@ -41,6 +62,61 @@ public class ApplicationRunner {
         }
       } else if (args[i].equals("-text")) {
         textOption = true;
+      } else if (args[i].equals("-parallel")) {
+        parallelOption = true;
+      } else if (args[i].equals("-lazy")) {
+        lazyOption = true;
+      } else if (args[i].equals("-stream")) {
+        streamOption = true;
+      } else if (args[i].equals("-threads") && i + 1 < args.length) {
+        try {
+          int value = Integer.parseInt(args[++i]);
+          ParallelRows.setParallelism(value);
+          threads = value;
+        } catch (IllegalArgumentException e) {
+          // Not a number, or fewer than one thread
+          System.out.println("The -threads option expects a number of threads");
+        }
+      } else if (args[i].equals("-memory") && i + 1 < args.length) {
+        try {
+          memoryBudget = Long.parseLong(args[++i]) << 20;
+        } catch (NumberFormatException e) {
+          System.out.println("The -memory option expects a number of megabytes");
+        }
+      } else if (args[i].equals("-cache") && i + 1 < args.length) {
+        try {
+          cacheSize = Long.parseLong(args[++i]) << 20;
+        } catch (NumberFormatException e) {
+          System.out.println("The -cache option expects a number of megabytes");
+        }
+      } else if (args[i].equals("-cache-dir") && i + 1 < args.length) {
+        cacheDirectory = args[++i];
+      } else if (args[i].equals("-batch") && i + 1 < args.length) {
+        batchPath = args[++i];
+      } else if (args[i].equals("-server") && i + 1 < args.length) {
+        serverAddress = args[++i];
+      } else if (args[i].equals("-codecs") && i + 1 < args.length) {
+        try {
+          codecs = Integer.parseInt(args[++i]);
+        } catch (NumberFormatException e) {
+          System.out.println("The -codecs option expects a number of files");
+        }
+      } else if (args[i].equals("-pixels") && i + 1 < args.length) {
+        try {
+          pixelBytes = Long.parseLong(args[++i]) << 20;
+        } catch (NumberFormatException e) {
+          System.out.println("The -pixels option expects a number of megabytes");
+        }
+      } else if (args[i].equals("-in") && i + 1 < args.length) {
+        inputDirectory = args[++i];
+      } else if (args[i].equals("-out") && i + 1 < args.length) {
+        outputDirectory = args[++i];
+      } else if (args[i].equals("-inflight") && i + 1 < args.length) {
+        try {
+          inFlight = Integer.parseInt(args[++i]);
+        } catch (NumberFormatException e) {
+          System.out.println("The -inflight option expects a number of files");
+        }
       } else {
         System.out.println("Arguments should either be -file or -text option");
       }
@@ -49,28 +125,81 @@ public class ApplicationRunner {
     try {
       ImageController controller;
 
-      ImageProcessor model = new ImageMap();
+      long imageMemory = memoryBudget > 0 ? memoryBudget : Runtime.getRuntime().maxMemory() / 2;
+      ResultCache cache = null;
+      if (cacheSize > 0 || cacheDirectory != null) {
+        // Cached results keep their pixels even when the maps spill them, so the cache gets its
+        // share of the budget and the maps keep the rest
+        long cacheBytes = cacheSize > 0 ? cacheSize : imageMemory / 2;
+        if (cacheBytes >= imageMemory) {
+          throw new IllegalArgumentException("The -cache size must be less than the memory budget");
+        }
+        cache = new ResultCache(cacheBytes, cacheDirectory == null ? null
+                : new File(cacheDirectory));
+        imageMemory -= cacheBytes;
+      }
+      ImageMap model = new ImageMap(imageMemory);
+      model.setLazy(lazyOption);
+      ImageProcessor processor = cache == null ? model : new CachedImageProcessor(model, cache);
 
       // -text for CLI
       if (textOption) {
         controller = new ImageController(new InputStreamReader(System.in), System.out);
         System.out.println("Using text option");
-        controller.runApplication(model);
-
+        controller.runApplication(processor);
+
+      } else if (serverAddress != null) {
+        // -server for a headless process taking commands over a local socket
+        // Each session has a map of its own, the sessions at work share the budget
+        long budget = imageMemory / Math.max(1, threads);
+        Supplier<ImageProcessor> sessions = models(budget, lazyOption, cache);
+        JobRunner jobs = jobs(threads, codecs, pixelBytes);
+        ScriptServer server = serverAddress.matches("\\d+")
+                ? new ScriptServer(Integer.parseInt(serverAddress), sessions, jobs)
+                : new ScriptServer(serverAddress, sessions, jobs);
+        System.out.println("Listening on " + server.getAddress());
+        server.serve();
+      } else if (batchPath != null) {
+        // -batch for running a script template on every image of a directory
+        if (inputDirectory == null || outputDirectory == null) {
+          throw new IllegalArgumentException("The -batch option needs -in and -out directories");
+        }
+        String template = readFile(batchPath);
+        int files = inFlight > 0 ? inFlight : threads;
+        // Each file has a map of its own, the files at work share the budget
+        long budget = imageMemory / Math.min(threads, files);
+        try (JobRunner jobs = jobs(threads, codecs, pixelBytes)) {
+          BatchRunner batch = new BatchRunner(template, models(budget, lazyOption, cache), jobs,
+                  files);
+          batch.setStreaming(streamOption);
+          System.out.println("Using batch option");
+          batch.run(new File(inputDirectory), new File(outputDirectory), System.out);
+        }
+        if (cache != null) {
+          System.out.println("\nResult cache: " + cache);
+        }
       } else if (fileOption) {
         // -file for file scripting
         String commands = readFile(filePath);
         System.out.println("Using file option");
         Readable input = new StringReader(commands);
         controller = new ImageController(input, System.out);
-        controller.runApplication(model);
+        controller.setStreaming(streamOption);
+        controller.runScript(processor,
+                parallelOption ? Runtime.getRuntime().availableProcessors() : 1);
+        if (memoryBudget > 0) {
+          System.out.println("\nImage memory: " + model.getStatistics());
+        }
+        if (cache != null) {
+          System.out.println("\nResult cache: " + cache);
+        }
       } else {
         // default graphical view by swing
-        ViewImage image = new ViewModel(model);
+        ViewImage image = new ViewModel(processor);
 
         IView view = new GraphicalView("Image Editing and Manipulation Application ", image);
 
-        new ViewController(model, view);
+        new ViewController(processor, view);
 
       }
     } catch (IllegalArgumentException | IOException e) {
@@ -79,6 +208,21 @@ public class ApplicationRunner {
 
   }
 
+  /* Creates the empty models of batch files and server sessions, sharing the result cache */
+  private static Supplier<ImageProcessor> models(long budget, boolean lazy, ResultCache cache) {
+    return () -> {
+      ImageMap map = new ImageMap(budget);
+      map.setLazy(lazy);
+      return cache == null ? map : new CachedImageProcessor(map, cache);
+    };
+  }
+
+  /* The job runner of batch files and server sessions, half the heap holds their pixels */
+  private static JobRunner jobs(int threads, int codecs, long pixelBytes) {
+    return new JobRunner(threads, codecs > 0 ? codecs : threads,
+            pixelBytes > 0 ? pixelBytes : Runtime.getRuntime().maxMemory() / 2);
+  }
+
   /* Read file method to read a script file */
   private static String readFile(String filepath) throws IOException {
     File file = new File(filepath);
@@ -0,0 +1,177 @@
+package application.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import application.model.ImageProcessor;
+
+/**
+ * Runs a script template on every image of a directory.
+ * The template is an ordinary script in which {in} stands for the path of the input file, {out}
+ * for the path of a file with the same name in the output directory and {name} for the name of
+ * the input file without its extension. Each file runs in its own model, so image names never
+ * clash between files, as a job of a {@link JobRunner}, which limits the filters, file reads and
+ * decoded pixels at work across files. A file whose script has a failing command is reported and
+ * the other files go on. At most a given number of files are in flight at once, the next file is
+ * only submitted when one of them is done, so the directory listing never floods the runner
+ * however many files it has.
+ */
+public class BatchRunner {
+
+  private final String template;
+  private final Supplier<ImageProcessor> models;
+  private final JobRunner jobs;
+  private final int maxInFlight;
+  private boolean streaming;
+
+  /**
+   * Creates a runner for a script template.
+   *
+   * @param template    the script run for each file, with {in}, {out} and {name} placeholders.
+   * @param models      creates the empty model each file runs in.
+   * @param jobs        runs the files, which limits the filters, files and pixels at work.
+   * @param maxInFlight the number of files submitted and not yet done.
+   * @throws IllegalArgumentException if the number of files in flight is not positive.
+   */
+  public BatchRunner(String template, Supplier<ImageProcessor> models, JobRunner jobs,
+                     int maxInFlight) {
+    if (maxInFlight <= 0) {
+      throw new IllegalArgumentException("Files in flight must be greater than 0");
+    }
+    this.template = template;
+    this.models = models;
+    this.jobs = jobs;
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Streams the files whose script can, see {@link ImageController#setStreaming}.
+   *
+   * @param streaming true to stream the scripts which can.
+   */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  /**
+   * Runs the template on every image file of a directory, in the order of their names. A line is
+   * written for each file as it is done and a summary at the end.
+   *
+   * @param inputDirectory  the directory of the images to process.
+   * @param outputDirectory the directory {out} points into, created if missing.
+   * @param out             the output for the progress of the batch.
+   * @return the number of files which failed.
+   * @throws IllegalArgumentException if a directory cannot be used.
+   * @throws IOException              if the output cannot be written.
+   */
+  public int run(File inputDirectory, File outputDirectory, Appendable out) throws IOException {
+    File[] files = inputDirectory.listFiles(BatchRunner::isImage);
+    if (files == null) {
+      throw new IllegalArgumentException("Not a directory: " + inputDirectory);
+    }
+    if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create directory: " + outputDirectory);
+    }
+    Arrays.sort(files);
+
+    long start = System.nanoTime();
+    AtomicInteger failed = new AtomicInteger();
+    Semaphore inFlight = new Semaphore(maxInFlight);
+    List<IOException> outputErrors = new ArrayList<>();
+    List<Future<?>> running = new ArrayList<>();
+    try {
+      for (File file : files) {
+        inFlight.acquire();
+        running.add(jobs.submit(() -> {
+          try {
+            String report = runFile(file, outputDirectory, failed);
+            synchronized (out) {
+              out.append(report);
+            }
+          } catch (IOException e) {
+            synchronized (outputErrors) {
+              outputErrors.add(e);
+            }
+          } finally {
+            inFlight.release();
+          }
+          return null;
+        }));
+      }
+      for (Future<?> file : running) {
+        file.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      for (Future<?> file : running) {
+        file.cancel(true);
+      }
+    } catch (ExecutionException e) {
+      // runFile reports every failure of a file, nothing else is thrown.
+      throw new IllegalStateException(e.getCause());
+    }
+    if (!outputErrors.isEmpty()) {
+      throw outputErrors.get(0);
+    }
+
+    out.append(String.format("Batch done: %d files, %d failed, %d ms%n", files.length,
+            failed.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    return failed.get();
+  }
+
+  /*
+   * Runs the template on one file in a model of its own and returns the line reporting it. Any
+   * error of the file, including running out of memory on a huge image, fails only this file.
+   */
+  private String runFile(File file, File outputDirectory, AtomicInteger failed) {
+    long start = System.nanoTime();
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    String script = template.replace("{in}", file.getPath())
+            .replace("{out}", new File(outputDirectory, name).getPath())
+            .replace("{name}", dot > 0 ? name.substring(0, dot) : name);
+
+    StringBuilder log = new StringBuilder();
+    String error;
+    try (JobRunner.Session session = jobs.open()) {
+      ImageController controller = new ImageController(new StringReader(script), log);
+      controller.setSession(session);
+      controller.setStreaming(streaming);
+      controller.runScript(models.get());
+      error = controller.getFailedCommands() == 0 ? null
+              : controller.getFailedCommands() + " failed commands\n" + log;
+    } catch (Exception | OutOfMemoryError e) {
+      error = e.toString() + "\n";
+    }
+
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    if (error != null) {
+      failed.incrementAndGet();
+      return "Failed: " + name + ": " + error;
+    }
+    return "Done: " + name + " (" + millis + " ms)\n";
+  }
+
+  /* Files with the extension of a known image format */
+  private static boolean isImage(File file) {
+    if (!file.isFile() || file.isHidden()) {
+      return false;
+    }
+    try {
+      CodecRegistry.getDefault().forSaving(file.getName());
+      return true;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+}
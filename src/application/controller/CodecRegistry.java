@@ -0,0 +1,116 @@
+package application.controller;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A registry of the codecs used to load and save images.
+ * Files are loaded by the first codec which recognises their header bytes, whatever their
+ * extension, and saved by the first codec which accepts their extension. Codecs found through
+ * {@link ServiceLoader} come before the built in PPM and ImageIO codecs so that they can take
+ * over a format.
+ */
+public final class CodecRegistry {
+
+  /**
+   * The number of bytes read from the start of a file to detect its format.
+   */
+  public static final int HEADER_LENGTH = 16;
+
+  private static final CodecRegistry DEFAULT = createDefault();
+
+  private final List<ImageCodec> codecs = new CopyOnWriteArrayList<>();
+
+  /**
+   * Creates an empty registry.
+   */
+  public CodecRegistry() {
+    // codecs are added with register.
+  }
+
+  /**
+   * Returns the shared registry with the discovered and built in codecs.
+   *
+   * @return the default registry.
+   */
+  public static CodecRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Adds a codec after the codecs already registered.
+   *
+   * @param codec the codec to add.
+   */
+  public void register(ImageCodec codec) {
+    codecs.add(codec);
+  }
+
+  /**
+   * Returns the registered codecs in the order they are tried.
+   *
+   * @return an unmodifiable list of the codecs.
+   */
+  public List<ImageCodec> getCodecs() {
+    return Collections.unmodifiableList(new ArrayList<>(codecs));
+  }
+
+  /**
+   * Returns the codec which loads the given file, detected from its first bytes. A file which
+   * cannot be read is matched by its extension instead, so that the codec reports the error.
+   *
+   * @param imagePath the path of the file to load.
+   * @return the codec for the file.
+   * @throws IllegalArgumentException if no codec supports the file.
+   */
+  public ImageCodec forLoading(String imagePath) {
+    byte[] header;
+    try (InputStream in = new FileInputStream(imagePath)) {
+      header = in.readNBytes(HEADER_LENGTH);
+    } catch (IOException e) {
+      return forSaving(imagePath);
+    }
+    for (ImageCodec codec : codecs) {
+      if (codec.canDecode(header)) {
+        return codec;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported image format: " + imagePath);
+  }
+
+  /**
+   * Returns the codec which saves files with the name of the given path.
+   *
+   * @param imagePath the path to save to.
+   * @return the codec for the path.
+   * @throws IllegalArgumentException if no codec supports the extension.
+   */
+  public ImageCodec forSaving(String imagePath) {
+    for (ImageCodec codec : codecs) {
+      if (codec.canEncode(imagePath)) {
+        return codec;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported image format: " + imagePath);
+  }
+
+  /* Discovered codecs first, then the built in ones */
+  private static CodecRegistry createDefault() {
+    CodecRegistry registry = new CodecRegistry();
+    for (ImageCodec codec : ServiceLoader.load(ImageCodec.class)) {
+      registry.register(codec);
+    }
+    for (ImageCodec codec : Arrays.asList(new PPMImage(), new IOImage())) {
+      registry.register(codec);
+    }
+    return registry;
+  }
+
+}
@@ -1,18 +1,64 @@
 package application.controller;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import application.model.ExtendedRGB;
 import application.model.Image;
+import application.model.utils.RasterBridge;
 
 /**
  * This class represents the loading and saving images which are supported by ImageIO.
  */
-public class IOImage implements ImageUtil {
+public class IOImage implements ImageCodec {
+
+  // PNG, JPEG, BMP, GIF and little and big endian TIFF
+  private static final byte[][] SIGNATURES = {
+          {(byte) 0x89, 'P', 'N', 'G'},
+          {(byte) 0xff, (byte) 0xd8, (byte) 0xff},
+          {'B', 'M'},
+          {'G', 'I', 'F', '8'},
+          {'I', 'I', '*', 0},
+          {'M', 'M', 0, '*'}
+  };
+
+  @Override
+  public String getName() {
+    return "ImageIO";
+  }
+
+  @Override
+  public boolean canDecode(byte[] header) {
+    for (byte[] signature : SIGNATURES) {
+      if (header.length >= signature.length
+              && Arrays.equals(header, 0, signature.length, signature, 0, signature.length)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean canEncode(String imagePath) {
+    return imagePath.endsWith(".jpg") || imagePath.endsWith(".png")
+            || imagePath.endsWith(".bmp");
+  }
+
+  @Override
+  public Set<Capability> getCapabilities() {
+    return EnumSet.of(Capability.REGION_DECODE, Capability.SUBSAMPLED_DECODE);
+  }
 
 
   /**
@@ -31,29 +77,10 @@ public class IOImage implements ImageUtil {
       int width = bufferedImage.getWidth();
       int height = bufferedImage.getHeight();
 
-      Image rgbImage = new ExtendedRGB(width, height);
-
-      int[][][] image = rgbImage.getChannels();
+      ExtendedRGB rgbImage = new ExtendedRGB(width, height);
 
-      // Loop through the BufferedImage and extract RGB values
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-
-          // Get RGB value in hex 0XAARRGGBB
-          int rgb = bufferedImage.getRGB(j, i);
-
-          // Extract color channels
-          int red = (rgb >> 16) & 0xff;
-          int green = (rgb >> 8) & 0xff;
-          int blue = rgb & 0xff;
-
-          // Store the RGB values in the image array
-          image[0][i][j] = red;
-          image[1][i][j] = green;
-          image[2][i][j] = blue;
-
-        }
-      }
+      // Copy the raster straight into the pixel buffer of the image
+      RasterBridge.read(bufferedImage, rgbImage.getPixelBuffer());
 
       return rgbImage;
 
@@ -65,6 +92,49 @@ public class IOImage implements ImageUtil {
   }
 
 
+  /**
+   * Loads a region of an image scaled down to the given size. The reader decodes only the
+   * region, skipping rows and columns by the largest whole factor which keeps the image at
+   * least as large as the requested size, and the result is then downscaled to the exact size.
+   *
+   * @param imagePath the path of the image path.
+   * @param region    the region of the image to load, null for the whole image.
+   * @param width     the width of the loaded image, 0 to keep the width of the region.
+   * @param height    the height of the loaded image, 0 to keep the height of the region.
+   * @return the loaded image.
+   */
+  @Override
+  public Image load(String imagePath, Rectangle region, int width, int height)
+          throws IOException {
+    try (ImageInputStream input = ImageIO.createImageInputStream(new File(imagePath))) {
+      Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+      if (readers == null || !readers.hasNext()) {
+        throw new IllegalArgumentException("Unsupported image format: " + imagePath);
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        Rectangle area = ImageCodec.checkRegion(region, reader.getWidth(0), reader.getHeight(0));
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(area);
+        if (width > 0 && height > 0) {
+          param.setSourceSubsampling(Math.max(1, area.width / width),
+                  Math.max(1, area.height / height), 0, 0);
+        }
+        BufferedImage bufferedImage = reader.read(0, param);
+
+        ExtendedRGB rgbImage = new ExtendedRGB(bufferedImage.getWidth(),
+                bufferedImage.getHeight());
+        RasterBridge.read(bufferedImage, rgbImage.getPixelBuffer());
+        return ImageCodec.resize(rgbImage, width, height);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+
   /**
    * Saves an image from the image path.
    *
@@ -73,23 +143,7 @@ public class IOImage implements ImageUtil {
   @Override
   public void save(String imagePath, Image ioImage) {
     try {
-      int width = ioImage.getWidth();
-      int height = ioImage.getHeight();
-
-      BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-      int[][][] image = ioImage.getChannels();
-
-      // Loop through the channels and construct the BufferedImage
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          int red = image[0][i][j];
-          int green = image[1][i][j];
-          int blue = image[2][i][j];
-          int rgb = (red << 16) | (green << 8) | blue; // Combine RGB components
-          bufferedImage.setRGB(j, i, rgb);
-        }
-      }
+      BufferedImage bufferedImage = RasterBridge.toBufferedImage(ioImage);
 
       // Save the image to the specified path
       String formatName = imagePath.substring(imagePath.lastIndexOf(".") + 1);
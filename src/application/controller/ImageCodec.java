@@ -0,0 +1,211 @@
+package application.controller;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+
+import application.model.ExtendedRGB;
+import application.model.Image;
+import application.model.PixelBuffer;
+
+/**
+ * An image util which can be registered with the {@link CodecRegistry}.
+ * A codec recognises the files it can load from their first bytes, the files it can save from
+ * their names, and declares the optional decoding features it supports. Codecs from other jars
+ * are discovered through {@link java.util.ServiceLoader} when they are listed in
+ * {@code META-INF/services/application.controller.ImageCodec}.
+ */
+public interface ImageCodec extends ImageUtil {
+
+  /**
+   * Reads an image a band of rows at a time, from the top.
+   */
+  interface ScanlineReader extends Closeable {
+
+    /**
+     * Returns the width of the image.
+     *
+     * @return the width in pixels.
+     */
+    int getWidth();
+
+    /**
+     * Returns the height of the image.
+     *
+     * @return the height in pixels.
+     */
+    int getHeight();
+
+    /**
+     * Reads the next rows of the image, as many as the band has.
+     *
+     * @param band the buffer receiving the rows, as wide as the image with three channels.
+     * @throws IOException if the file cannot be read or ends too early.
+     */
+    void read(PixelBuffer band) throws IOException;
+  }
+
+  /**
+   * Writes an image a band of rows at a time, from the top.
+   */
+  interface ScanlineWriter extends Closeable {
+
+    /**
+     * Writes the next rows of the image, as many as the band has.
+     *
+     * @param band the rows to write, as wide as the image with three channels.
+     * @throws IOException if the file cannot be written.
+     */
+    void write(PixelBuffer band) throws IOException;
+  }
+
+  /**
+   * The optional features a codec can support.
+   */
+  enum Capability {
+    /**
+     * Decodes sequentially through a fixed size buffer rather than reading the whole file first,
+     * and reads and writes images a band of rows at a time.
+     */
+    STREAMING,
+    /**
+     * Decodes only a rectangular region of the image.
+     */
+    REGION_DECODE,
+    /**
+     * Decodes a subsampled image, skipping the pixels in between.
+     */
+    SUBSAMPLED_DECODE
+  }
+
+  /**
+   * Returns the name of the format, used in messages.
+   *
+   * @return the format name.
+   */
+  String getName();
+
+  /**
+   * Returns true if this codec can load a file starting with the given bytes.
+   *
+   * @param header the first bytes of the file, fewer when the file is shorter.
+   * @return true if the file is in a format of this codec.
+   */
+  boolean canDecode(byte[] header);
+
+  /**
+   * Returns true if this codec saves files with the name of the given path.
+   *
+   * @param imagePath the path to save to.
+   * @return true if the extension of the path belongs to this codec.
+   */
+  boolean canEncode(String imagePath);
+
+  /**
+   * Returns the optional features this codec supports.
+   *
+   * @return the capabilities of the codec.
+   */
+  Set<Capability> getCapabilities();
+
+  /**
+   * Opens a file to read its image a band of rows at a time, so that only a band is held in
+   * memory. Only codecs with the streaming capability support this.
+   *
+   * @param imagePath the file path of the image to read.
+   * @return the reader of the image, positioned at its first row.
+   * @throws IOException                   if the file cannot be read.
+   * @throws UnsupportedOperationException if the codec does not stream.
+   */
+  default ScanlineReader openReader(String imagePath) throws IOException {
+    throw new UnsupportedOperationException(getName() + " images cannot be read by rows");
+  }
+
+  /**
+   * Creates a file to write an image of the given size a band of rows at a time. Only codecs with
+   * the streaming capability support this.
+   *
+   * @param imagePath the path to save to.
+   * @param width     the width of the image.
+   * @param height    the height of the image.
+   * @return the writer of the image, expecting its first row.
+   * @throws IOException                   if the file cannot be written.
+   * @throws UnsupportedOperationException if the codec does not stream.
+   */
+  default ScanlineWriter openWriter(String imagePath, int width, int height) throws IOException {
+    throw new UnsupportedOperationException(getName() + " images cannot be written by rows");
+  }
+
+  /**
+   * Loads a region of an image scaled down to the given size. Codecs with the region and
+   * subsampled decode capabilities decode only the pixels needed, this default loads the whole
+   * image, crops it and then downscales it.
+   *
+   * @param imagePath the file path of the image to load.
+   * @param region    the region of the image to load, null for the whole image.
+   * @param width     the width of the loaded image, 0 to keep the width of the region.
+   * @param height    the height of the loaded image, 0 to keep the height of the region.
+   * @return the loaded image, or null if it could not be loaded.
+   * @throws IllegalArgumentException if the region is outside the image or the size is larger
+   *                                  than the region.
+   */
+  default Image load(String imagePath, Rectangle region, int width, int height)
+          throws IOException {
+    Image image = load(imagePath);
+    if (image == null) {
+      return null;
+    }
+    Rectangle area = checkRegion(region, image.getWidth(), image.getHeight());
+
+    ExtendedRGB cropped = new ExtendedRGB(area.width, area.height);
+    int[] row = new int[image.getWidth()];
+    int[] part = new int[area.width];
+    for (int y = 0; y < area.height; y++) {
+      for (int channel = 0; channel < 3; channel++) {
+        image.getRow(channel, area.y + y, row);
+        System.arraycopy(row, area.x, part, 0, area.width);
+        cropped.setRow(channel, y, part);
+      }
+    }
+    return resize(cropped, width, height);
+  }
+
+  /**
+   * Returns the region to load, checking that it lies within an image of the given size.
+   *
+   * @param region the requested region, null for the whole image.
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @return the region to load.
+   * @throws IllegalArgumentException if the region is empty or not inside the image.
+   */
+  static Rectangle checkRegion(Rectangle region, int width, int height) {
+    Rectangle bounds = new Rectangle(width, height);
+    if (region == null) {
+      return bounds;
+    }
+    if (region.isEmpty() || !bounds.contains(region)) {
+      throw new IllegalArgumentException("Region must lie within the " + width + " x " + height
+              + " image");
+    }
+    return region;
+  }
+
+  /**
+   * Downscales an image to the given size unless it already has it.
+   *
+   * @param image  the image to resize.
+   * @param width  the target width, 0 to keep the image as it is.
+   * @param height the target height, 0 to keep the image as it is.
+   * @return the resized image.
+   */
+  static Image resize(ExtendedRGB image, int width, int height) {
+    if (width <= 0 || height <= 0
+            || image.getWidth() == width && image.getHeight() == height) {
+      return image;
+    }
+    return image.downScaling(height, width);
+  }
+
+}
@@ -2,18 +2,29 @@ package application.controller;
 
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 import application.controller.commands.Blur;
 import application.controller.commands.Brighten;
 import application.controller.commands.ChannelComponent;
 import application.controller.commands.ColorCorrect;
 import application.controller.commands.Compress;
+import application.controller.commands.Convolve;
 import application.controller.commands.Dither;
 import application.controller.commands.Downscaling;
 import application.controller.commands.Flip;
@@ -41,6 +52,9 @@ public class ImageController implements ImageControllerInterface {
 
   private final Readable in;
   private final Appendable out;
+  private final AtomicInteger failedCommands = new AtomicInteger();
+  private volatile JobRunner.Session session;
+  private boolean streaming;
 
   private Map<String, Function<String[], ImageCommand>> knownCommands;
 
@@ -73,6 +87,7 @@ public class ImageController implements ImageControllerInterface {
     knownCommands.put("sepia", args -> new Sepia(args));
     knownCommands.put("blur", args -> new Blur(args));
     knownCommands.put("sharpen", args -> new Sharpen(args));
+    knownCommands.put("convolve", args -> new Convolve(args));
     knownCommands.put("compress", args -> new Compress(args));
     knownCommands.put("histogram", args -> new Histogram(args));
     knownCommands.put("color-correct", args -> new ColorCorrect(args));
@@ -89,36 +104,280 @@ public class ImageController implements ImageControllerInterface {
     Scanner scan = new Scanner(this.in);
 
     while (scan.hasNextLine()) {
-      try {
-        ImageCommand command;
-        String input = scan.nextLine();
+      String input = scan.nextLine();
+
+      if (input.equalsIgnoreCase("q") || input.equalsIgnoreCase("quit")) {
+        out.append("Exiting application");
+        return;
+      }
+
+      out.append(runCommand(model, input));
+    }
+
+  }
+
+  /**
+   * Runs a single line of a script and returns its output, which is the same as the output of
+   * {@link #runApplication} for the line.
+   *
+   * @param model the model which runs the command.
+   * @param input the line of the script.
+   * @return the output of the command, or its error message if it failed.
+   */
+  public String runCommand(ImageProcessor model, String input) {
+    ImageCommand command;
+    try {
+      command = parse(input);
+    } catch (Exception e) {
+      failedCommands.incrementAndGet();
+      return e.getMessage();
+    }
+    return execute(model, command, input);
+  }
+
+  /**
+   * Runs the commands of this controller through a session of a {@link JobRunner}, which runs
+   * loads and saves on the calling thread and the other commands on its filter pool. Without a
+   * session every command runs on the calling thread.
+   *
+   * @param session the session of the job the commands belong to, or null for none.
+   */
+  public void setSession(JobRunner.Session session) {
+    this.session = session;
+  }
 
-        if (input.equalsIgnoreCase("q") || input.equalsIgnoreCase("quit")) {
-          out.append("Exiting application");
-          return;
+  /**
+   * Streams scripts run by {@link #runScript} a band of rows at a time when they load one image,
+   * run only point operations on it and save the results, in formats which are read and written
+   * by rows. Only a band of each image is then in memory. Other scripts run as usual.
+   *
+   * @param streaming true to stream the scripts which can.
+   */
+  public void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  /**
+   * Returns the number of commands run by this controller which failed, because they were not
+   * valid commands or because running them raised an error. The error messages are written to
+   * the output as before, the count lets callers tell a failed script from one which succeeded.
+   *
+   * @return the number of failed commands.
+   */
+  public int getFailedCommands() {
+    return failedCommands.get();
+  }
+
+  /**
+   * Runs all the commands of a script read in full before it starts. The output is the same as
+   * for {@link #runApplication}, except that commands whose results are never read or saved by a
+   * later command are skipped, and each image is removed from the model right after the last
+   * command which uses it. The images held by the model are then only those the rest of the
+   * script still needs.
+   *
+   * @param model the model which runs the commands.
+   * @throws IOException if the output cannot be written.
+   */
+  public void runScript(ImageProcessor model) throws IOException {
+    runScript(model, 1);
+  }
+
+  /**
+   * Runs all the commands of a script read in full before it starts, like
+   * {@link #runScript(ImageProcessor)}, running commands which do not depend on each other at the
+   * same time. A command waits for the earlier commands writing the images and files it reads,
+   * and for the earlier commands using the images and files it writes, so the results are the
+   * same as running the script in order. The output of each command, including errors, is
+   * written in the order of the script.
+   *
+   * @param model   the model which runs the commands, which must allow concurrent use.
+   * @param threads the number of commands run at the same time, 1 runs the script in order.
+   * @throws IOException if the output cannot be written.
+   */
+  public void runScript(ImageProcessor model, int threads) throws IOException {
+    Scanner scan = new Scanner(this.in);
+    List<String> inputs = new ArrayList<>();
+    List<ImageCommand> commands = new ArrayList<>();
+    List<String> errors = new ArrayList<>();
+    boolean quit = false;
+
+    while (scan.hasNextLine() && !quit) {
+      String input = scan.nextLine();
+      if (input.equalsIgnoreCase("q") || input.equalsIgnoreCase("quit")) {
+        quit = true;
+      } else {
+        inputs.add(input);
+        try {
+          commands.add(parse(input));
+          errors.add(null);
+        } catch (Exception e) {
+          commands.add(null);
+          errors.add(e.getMessage());
         }
+      }
+    }
 
-        String[] tokens = input.split("\\s+");
+    ScriptLiveness liveness = new ScriptLiveness(commands);
+    ScanlinePipeline pipeline = streaming ? ScanlinePipeline.compile(commands, liveness) : null;
+    if (pipeline != null && pipeline.run()) {
+      for (int line = 0; line < commands.size(); line++) {
+        out.append(liveness.isDead(line) ? skipped(inputs.get(line), null, true)
+                : "Command performed: " + inputs.get(line) + "\n");
+      }
+    } else if (threads > 1) {
+      runParallel(model, inputs, commands, errors, liveness, threads);
+    } else {
+      for (int line = 0; line < commands.size(); line++) {
+        if (ScriptGraph.runs(commands, liveness, line)) {
+          out.append(execute(model, commands.get(line), inputs.get(line)));
+          for (String name : liveness.releasedAfter(line)) {
+            remove(model, name);
+          }
+        } else {
+          out.append(skipped(inputs.get(line), errors.get(line), liveness.isDead(line)));
+        }
+      }
+    }
+    if (quit) {
+      out.append("Exiting application");
+    }
+  }
 
-        String getCommand = tokens[0];
+  /* Runs the commands of a script on a pool of threads, writing their output in script order */
+  private void runParallel(ImageProcessor model, List<String> inputs, List<ImageCommand> commands,
+                           List<String> errors, ScriptLiveness liveness, int threads)
+          throws IOException {
+    ScriptGraph graph = new ScriptGraph(commands, liveness);
+    int lines = commands.size();
+    String[] messages = new String[lines];
+    boolean[] finished = new boolean[lines];
+    AtomicInteger[] waiting = new AtomicInteger[lines];
+    BlockingQueue<Integer> completed = new LinkedBlockingQueue<>();
+    List<Throwable> failures = new CopyOnWriteArrayList<>();
+    AtomicBoolean stopped = new AtomicBoolean();
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
 
-        String[] args = Arrays.copyOfRange(tokens, 1, tokens.length);
+    // Runs a command, frees the images nothing else uses and starts the commands now ready
+    IntConsumer[] task = new IntConsumer[1];
+    task[0] = line -> pool.execute(() -> {
+      try {
+        try {
+          messages[line] = execute(model, commands.get(line), inputs.get(line));
+        } catch (Error e) {
+          failures.add(e);
+          messages[line] = "";
+        }
+        for (ScriptGraph.Release release : graph.getReleases(line)) {
+          String name = release.done();
+          if (name != null) {
+            remove(model, name);
+          }
+        }
+        for (int next : graph.getSuccessors(line)) {
+          if (waiting[next].decrementAndGet() == 0) {
+            task[0].accept(next);
+          }
+        }
+      } catch (RuntimeException | Error e) {
+        // The commands after this one may never start, so the script stops here
+        failures.add(e);
+        stopped.set(true);
+        if (messages[line] == null) {
+          messages[line] = "";
+        }
+      } finally {
+        completed.add(line);
+      }
+    });
 
-        Function<String[], ImageCommand> cmd =
-                knownCommands.getOrDefault(getCommand, null);
+    try {
+      for (int line = 0; line < lines; line++) {
+        waiting[line] = new AtomicInteger(graph.getPredecessors(line));
+      }
+      for (int line = 0; line < lines; line++) {
+        if (ScriptGraph.runs(commands, liveness, line) && graph.getPredecessors(line) == 0) {
+          task[0].accept(line);
+        }
+      }
 
-        if (cmd == null) {
-          throw new IllegalArgumentException("Please provide a valid command.");
+      int next = 0;
+      while (next < lines) {
+        if (!ScriptGraph.runs(commands, liveness, next)) {
+          out.append(skipped(inputs.get(next), errors.get(next), liveness.isDead(next)));
+          next++;
+        } else if (finished[next]) {
+          out.append(messages[next]);
+          next++;
         } else {
-          command = cmd.apply(args);
-          command.execute(model);
-          out.append("Command performed: ").append(input).append("\n");
+          finished[completed.take()] = true;
+          if (stopped.get()) {
+            break;
+          }
         }
-      } catch (Exception e) {
-        out.append(e.getMessage());
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while running the script");
+    } finally {
+      pool.shutdownNow();
     }
+    if (!failures.isEmpty()) {
+      Throwable failure = failures.get(0);
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      throw (RuntimeException) failure;
+    }
+  }
+
+  /* Removes an image nothing uses any more, giving back the pixels its job held for it */
+  private void remove(ImageProcessor model, String name) {
+    model.removeImage(name);
+    JobRunner.Session session = this.session;
+    if (session != null) {
+      session.release(name);
+    }
+  }
+
+  /* Runs a command and returns its output */
+  private String execute(ImageProcessor model, ImageCommand command, String input) {
+    try {
+      JobRunner.Session session = this.session;
+      if (session != null) {
+        session.execute(command, model);
+      } else {
+        command.execute(model);
+      }
+      return "Command performed: " + input + "\n";
+    } catch (Exception e) {
+      failedCommands.incrementAndGet();
+      return e.getMessage();
+    }
+  }
+
+  /* The output of a line which is not run */
+  private String skipped(String input, String error, boolean dead) {
+    if (!dead) {
+      failedCommands.incrementAndGet();
+    }
+    return dead ? "Command skipped, result never used: " + input + "\n" : error;
+  }
+
+  /* Creates the command for a line of input */
+  private ImageCommand parse(String input) {
+    String[] tokens = input.split("\\s+");
 
+    String getCommand = tokens[0];
+
+    String[] args = Arrays.copyOfRange(tokens, 1, tokens.length);
+
+    Function<String[], ImageCommand> cmd =
+            knownCommands.getOrDefault(getCommand, null);
+
+    if (cmd == null) {
+      throw new IllegalArgumentException("Please provide a valid command.");
+    }
+    return cmd.apply(args);
   }
 
 
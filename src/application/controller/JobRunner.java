@@ -0,0 +1,240 @@
+package application.controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import application.controller.commands.ImageCommand;
+import application.model.ImageProcessor;
+
+/**
+ * Runs many scripts at once without running more filters than there are cores.
+ * Each job runs on a thread of its own, which mostly waits: loads and saves run on it, limited
+ * to a number of files decoded or encoded at the same time, and every other command is handed
+ * to a fork join pool of a fixed size and waited for. A job holds the pixels of the images its
+ * commands produce until they are replaced, removed or the job ends, and a new job only starts
+ * while the pixels held by running jobs are below a limit, so the memory used by images stays
+ * bounded however many jobs wait. The job threads are plain
+ * threads of a cached pool, which costs a stack per job, but a job thread blocked on a file or on
+ * the pool takes no CPU.
+ */
+public class JobRunner implements Closeable {
+
+  private final ForkJoinPool filters;
+  private final ExecutorService jobs;
+  private final Semaphore codecs;
+  private final long maxPixelBytes;
+  private long pixelBytes;
+
+  /**
+   * A job in progress, which owns the pixels produced by its commands until it is closed. Passed to
+   * {@link ImageController#setSession}, the commands of the controller run through it. The
+   * pixels are counted by the name of the image holding them, so a session which keeps loading
+   * into the same names, like a long lived connection of a {@link ScriptServer}, holds only the
+   * images it still has.
+   */
+  public final class Session implements Closeable {
+
+    private final Map<String, Long> held = new HashMap<>();
+    private long bytes;
+    private boolean closed;
+
+    private Session() {
+    }
+
+    /**
+     * Runs a command on the stage it belongs to. Loads and saves run on the calling thread once
+     * a file slot is free, other commands run on the filter pool while the calling thread waits.
+     *
+     * @param command the command to run.
+     * @param model   the model the command runs on.
+     * @throws IOException if the command fails to read or write a file, or the wait is
+     *                     interrupted.
+     */
+    void execute(ImageCommand command, ImageProcessor model) throws IOException {
+      if (!isFileStage(command)) {
+        // The failure is returned rather than thrown, the pool would wrap it in a copy
+        rethrow(await(filters.submit(() -> {
+          try {
+            command.execute(model);
+            return null;
+          } catch (IOException | RuntimeException | Error e) {
+            return e;
+          }
+        })));
+        holdOutputs(command, model);
+        return;
+      }
+
+      try {
+        codecs.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to read or write a file");
+      }
+      try {
+        command.execute(model);
+      } finally {
+        codecs.release();
+      }
+      holdOutputs(command, model);
+    }
+
+    /**
+     * Gives back the pixels held by an image the job no longer has, to the jobs waiting to start.
+     * Nothing happens if the image was not produced by the job.
+     *
+     * @param name the name of the image removed from the model.
+     */
+    void release(String name) {
+      hold(name, 0);
+    }
+
+    /**
+     * Ends the job and gives back the pixels it held to the jobs waiting to start.
+     */
+    @Override
+    public void close() {
+      synchronized (JobRunner.this) {
+        if (!closed) {
+          closed = true;
+          pixelBytes -= bytes;
+          bytes = 0;
+          held.clear();
+          JobRunner.this.notifyAll();
+        }
+      }
+    }
+
+    /* Counts the pixels of the images a command produced, in place of those they replaced */
+    private void holdOutputs(ImageCommand command, ImageProcessor model) {
+      for (String name : command.getOutputs()) {
+        hold(name, model.getPixelBytes(name));
+      }
+    }
+
+    /* Counts the pixels of an image stored under a name, giving back those of the one replaced */
+    private void hold(String name, long loaded) {
+      synchronized (JobRunner.this) {
+        if (closed) {
+          return;
+        }
+        Long replaced = loaded > 0 ? held.put(name, loaded) : held.remove(name);
+        long change = loaded - (replaced == null ? 0 : replaced);
+        bytes += change;
+        pixelBytes += change;
+        if (change < 0) {
+          JobRunner.this.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Creates a job runner.
+   *
+   * @param filterThreads the number of filters run at the same time, usually the number of cores.
+   * @param maxCodecs     the number of files loaded or saved at the same time.
+   * @param maxPixelBytes the pixel bytes held by running jobs above which new jobs wait.
+   * @throws IllegalArgumentException if a limit is not positive.
+   */
+  public JobRunner(int filterThreads, int maxCodecs, long maxPixelBytes) {
+    if (filterThreads <= 0 || maxCodecs <= 0 || maxPixelBytes <= 0) {
+      throw new IllegalArgumentException("Job runner limits must be greater than 0");
+    }
+    this.filters = new ForkJoinPool(filterThreads);
+    this.jobs = Executors.newCachedThreadPool();
+    this.codecs = new Semaphore(maxCodecs);
+    this.maxPixelBytes = maxPixelBytes;
+  }
+
+  /**
+   * Runs a job on a thread of its own.
+   *
+   * @param job the job, which usually opens a session for its commands.
+   * @param <T> the type of the result of the job.
+   * @return the future result of the job.
+   */
+  public <T> Future<T> submit(Callable<T> job) {
+    return jobs.submit(job);
+  }
+
+  /**
+   * Starts a job, waiting while the pixels held by running jobs exceed the limit. A job which is
+   * running always goes on, so jobs which already started never wait for each other.
+   *
+   * @return the session of the job, to be closed when the job ends.
+   * @throws InterruptedIOException if the wait is interrupted.
+   */
+  public Session open() throws InterruptedIOException {
+    synchronized (this) {
+      try {
+        while (pixelBytes >= maxPixelBytes) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for memory to start a job");
+      }
+    }
+    return new Session();
+  }
+
+  /**
+   * Returns the pixel bytes currently held by running jobs.
+   *
+   * @return the bytes of the images loaded by open sessions.
+   */
+  public synchronized long getPixelBytes() {
+    return pixelBytes;
+  }
+
+  /**
+   * Stops the threads of the runner once the jobs submitted are done.
+   */
+  @Override
+  public void close() {
+    jobs.shutdown();
+    filters.shutdown();
+  }
+
+  /* Loads, which read no images, and saves, which write files, are the file stages of a job */
+  private static boolean isFileStage(ImageCommand command) {
+    return command.getInputs().isEmpty() || !command.getWrittenFiles().isEmpty();
+  }
+
+  /* Waits for a filter and returns the failure it caught, if any */
+  private static Throwable await(Future<Throwable> filter) throws InterruptedIOException {
+    try {
+      return filter.get();
+    } catch (InterruptedException e) {
+      filter.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a filter");
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+  /* Throws the failure of a filter on the thread of its job, as if it had run there */
+  private static void rethrow(Throwable failure) throws IOException {
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new IllegalStateException(failure);
+    }
+  }
+}
@@ -1,52 +1,82 @@
 package application.controller;
 
-import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Scanner;
+import java.util.EnumSet;
+import java.util.Set;
 
 //import application.model.ExtendedRGB;
 import application.model.Image;
+import application.model.PixelBuffer;
 import application.model.RGBImage;
+import application.model.TiledImage;
 
 /**
  * This class handles te load and save of a PPM image.
+ * ASCII (P3) and binary (P6) RGB files and ASCII (P2) and binary (P5) gray files are loaded with
+ * any maximum value up to 65535, the format is taken from the magic number of the file. Images
+ * are saved with a maximum value of 255 in the format given to the constructor, or else in the
+ * default format for the file extension. Images too large for the heap are loaded into a
+ * {@link TiledImage} one band of tiles at a time. Files can also be read and written a band of rows
+ * at a time, for scripts which stream images through point operations.
  */
-public class PPMImage implements ImageUtil {
+public class PPMImage implements ImageCodec {
+
+  private final String format;
+
+  /**
+   * Constructs a PPM image util which saves .pgm files as binary P5 and other files as ASCII P3.
+   */
+  public PPMImage() {
+    this.format = null;
+  }
+
+  /**
+   * Constructs a PPM image util which saves files in the given format.
+   *
+   * @param format the magic number of the format to save, one of P2, P3, P5 or P6.
+   * @throws IllegalArgumentException if the format is not supported.
+   */
+  public PPMImage(String format) {
+    if (channels(format) == 0) {
+      throw new IllegalArgumentException("Unsupported PPM format: " + format);
+    }
+    this.format = format;
+  }
 
   @Override
-  public Image load(String imagePath) {
-    try {
-      File file = new File(imagePath);
-      Scanner scanner = new Scanner(file);
-
-      // Validate PPM header
-      String header = scanner.nextLine().trim();
-      if (!header.equals("P3")) {
-        throw new IllegalArgumentException("Unsupported PPM format: " + header);
-      }
+  public String getName() {
+    return "PPM";
+  }
 
-      // Read dimensions and max color value
-      int width = scanner.nextInt();
-      int height = scanner.nextInt();
-      int maxColorValue = scanner.nextInt();
-      if (maxColorValue != 255) {
-        throw new IllegalArgumentException("Unsupported max color value: " + maxColorValue);
-      }
+  @Override
+  public boolean canDecode(byte[] header) {
+    return header.length >= 2 && header[0] == 'P' && channels("P" + (char) header[1]) != 0;
+  }
 
-      // Initialize image
-      RGBImage ppmImage = new RGBImage(width, height);
-      int[][][] image = ppmImage.getChannels();
+  @Override
+  public boolean canEncode(String imagePath) {
+    return imagePath.endsWith(".ppm") || imagePath.endsWith(".pgm");
+  }
 
-      // Read and store pixel data
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          image[0][i][j] = scanner.nextInt();
-          image[1][i][j] = scanner.nextInt();
-          image[2][i][j] = scanner.nextInt();
-        }
+  @Override
+  public Set<Capability> getCapabilities() {
+    return EnumSet.of(Capability.STREAMING);
+  }
+
+  @Override
+  public Image load(String imagePath) {
+    try (PPMScanlineReader reader = new PPMScanlineReader(imagePath)) {
+      int width = reader.getWidth();
+      int height = reader.getHeight();
+      if (!TiledImage.fitsInMemory(width, height)) {
+        return loadTiled(reader);
       }
 
+      // Initialize image and read the samples straight into its pixel buffer
+      RGBImage ppmImage = new RGBImage(width, height);
+      reader.read(ppmImage.getPixelBuffer());
       return ppmImage;
     } catch (IOException e) {
       System.err.println("Error loading PPM file: " + e.getMessage());
@@ -58,32 +88,213 @@ public class PPMImage implements ImageUtil {
 
   @Override
   public void save(String imagePath, Image image) {
-    try {
-      FileWriter writer = new FileWriter(imagePath);
+    int width = image.getWidth();
+    int height = image.getHeight();
+    try (PPMScanlineWriter writer = new PPMScanlineWriter(imagePath, width, height)) {
+      int[] red = new int[width];
+      int[] green = new int[width];
+      int[] blue = new int[width];
+      TiledImage tiled = image instanceof TiledImage ? (TiledImage) image : null;
+      PixelBuffer band = null;
+      for (int i = 0; i < height; i++) {
+        if (tiled != null) {
+          // Read tiled images a band of tiles at a time rather than a tile row per pixel row
+          int bandHeight = tiled.getTileSize();
+          if (i % bandHeight == 0) {
+            band = new PixelBuffer(3, width, Math.min(bandHeight, height - i));
+            tiled.readRegion(0, i, band);
+          }
+          band.getRow(0, i % bandHeight, red);
+          band.getRow(1, i % bandHeight, green);
+          band.getRow(2, i % bandHeight, blue);
+        } else {
+          image.getRow(0, i, red);
+          image.getRow(1, i, green);
+          image.getRow(2, i, blue);
+        }
+        writer.writeRow(red, green, blue);
+      }
+    } catch (IOException e) {
+      System.err.println("Error saving PPM file: " + e.getMessage());
+    }
+  }
 
-      int width = image.getWidth();
-      int height = image.getHeight();
+  @Override
+  public ScanlineReader openReader(String imagePath) throws IOException {
+    return new PPMScanlineReader(imagePath);
+  }
 
-      // Write PPM header
-      writer.write("P3\n");
-      writer.write(width + " " + height + "\n");
-      writer.write("255\n");
+  @Override
+  public ScanlineWriter openWriter(String imagePath, int width, int height) throws IOException {
+    return new PPMScanlineWriter(imagePath, width, height);
+  }
 
-      // Write pixel data
-      int[][][] channels = image.getChannels();
-      for (int i = 0; i < height; i++) {
+  /* Reads the samples of an image too large for the heap into a tiled image, band by band */
+  private static Image loadTiled(PPMScanlineReader reader) throws IOException {
+    int width = reader.getWidth();
+    int height = reader.getHeight();
+    TiledImage tiled = new TiledImage(width, height);
+    for (int y = 0; y < height; y += tiled.getTileSize()) {
+      PixelBuffer band = new PixelBuffer(3, width, Math.min(tiled.getTileSize(), height - y));
+      reader.read(band);
+      tiled.writeRegion(0, y, band);
+    }
+    return tiled;
+  }
+
+  /* Reads the header of a file and then its samples, a band of rows at a time */
+  private static final class PPMScanlineReader implements ScanlineReader {
+
+    private final PPMReader reader;
+    private final String header;
+    private final int width;
+    private final int height;
+    private final int maxColorValue;
+
+    PPMScanlineReader(String imagePath) throws IOException {
+      this.reader = new PPMReader(new FileInputStream(imagePath).getChannel());
+      try {
+        // Validate PPM header
+        header = reader.readMagic();
+        if (channels(header) == 0) {
+          throw new IllegalArgumentException("Unsupported PPM format: " + header);
+        }
+
+        // Read dimensions and max color value
+        width = reader.nextInt();
+        height = reader.nextInt();
+        maxColorValue = reader.nextInt();
+        if (maxColorValue == 0 || maxColorValue > 65535) {
+          throw new IllegalArgumentException("Unsupported max color value: " + maxColorValue);
+        }
+      } catch (IOException | RuntimeException e) {
+        reader.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public int getWidth() {
+      return width;
+    }
+
+    @Override
+    public int getHeight() {
+      return height;
+    }
+
+    @Override
+    public void read(PixelBuffer band) throws IOException {
+      if (isBinary(header)) {
+        reader.readBinary(band.getData(), channels(header), maxColorValue);
+      } else {
+        reader.readAscii(band.getData(), channels(header), maxColorValue);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+
+  /* Writes the header of a file and then its samples, a row at a time */
+  private final class PPMScanlineWriter implements ScanlineWriter {
+
+    private final PPMWriter writer;
+    private final String format;
+    private final int width;
+    private final byte[] row;
+
+    PPMScanlineWriter(String imagePath, int width, int height) throws IOException {
+      this.format = PPMImage.this.format != null ? PPMImage.this.format
+              : imagePath.endsWith(".pgm") ? "P5" : "P3";
+      this.width = width;
+      this.row = new byte[width * channels(format)];
+      this.writer = new PPMWriter(new FileOutputStream(imagePath));
+      try {
+        // Write PPM header
+        writer.write(format + "\n");
+        writer.write(width + " " + height + "\n");
+        writer.write("255\n");
+      } catch (IOException e) {
+        writer.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public void write(PixelBuffer band) throws IOException {
+      int[] red = new int[width];
+      int[] green = new int[width];
+      int[] blue = new int[width];
+      for (int y = 0; y < band.getHeight(); y++) {
+        band.getRow(0, y, red);
+        band.getRow(1, y, green);
+        band.getRow(2, y, blue);
+        writeRow(red, green, blue);
+      }
+    }
+
+    /* Writes the pixel data of a row */
+    void writeRow(int[] red, int[] green, int[] blue) throws IOException {
+      boolean gray = channels(format) == 1;
+      if (isBinary(format)) {
+        for (int j = 0, k = 0; j < width; j++) {
+          if (gray) {
+            row[k++] = (byte) gray(red[j], green[j], blue[j]);
+          } else {
+            row[k++] = (byte) red[j];
+            row[k++] = (byte) green[j];
+            row[k++] = (byte) blue[j];
+          }
+        }
+        writer.write(row, 0, row.length);
+      } else if (gray) {
         for (int j = 0; j < width; j++) {
-          writer.write(channels[0][i][j] + " " +
-                  channels[1][i][j] + " " +
-                  channels[2][i][j] + "\n");
+          writer.writeInt(gray(red[j], green[j], blue[j]));
+          writer.write('\n');
+        }
+      } else {
+        for (int j = 0; j < width; j++) {
+          writer.writeInt(red[j]);
+          writer.write(' ');
+          writer.writeInt(green[j]);
+          writer.write(' ');
+          writer.writeInt(blue[j]);
+          writer.write('\n');
         }
       }
+    }
 
+    @Override
+    public void close() throws IOException {
       writer.close();
-    } catch (IOException e) {
-      System.err.println("Error saving PPM file: " + e.getMessage());
     }
   }
 
+  /* Returns the samples per pixel of a format, or 0 if the format is not supported */
+  private static int channels(String format) {
+    switch (format) {
+      case "P2":
+      case "P5":
+        return 1;
+      case "P3":
+      case "P6":
+        return 3;
+      default:
+        return 0;
+    }
+  }
+
+  private static boolean isBinary(String format) {
+    return format.equals("P5") || format.equals("P6");
+  }
+
+  /* The rounded luma of a pixel, which is exact for gray pixels */
+  private static int gray(int red, int green, int blue) {
+    return (int) Math.round(0.2126 * red + 0.7152 * green + 0.0722 * blue);
+  }
+
 
 }
@@ -0,0 +1,231 @@
+package application.controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A reader for the header and samples of PPM and PGM files.
+ * The header and ASCII samples are tokenized byte by byte through a fixed buffer, skipping
+ * whitespace and comments (from a '#' to the end of the line) between tokens as the netpbm
+ * specification allows. Binary samples of large files are decoded from a memory mapping of the
+ * file. Samples are scaled from the maximum value of the file to 0 - 255 and gray samples are
+ * repeated in all three channels.
+ */
+final class PPMReader implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Binary payloads of at least this many bytes are memory mapped rather than read.
+   */
+  static final int MAP_THRESHOLD = 1 << 20;
+
+  private final FileChannel channel;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+  private int position;
+  private int limit;
+  private long consumed;
+
+  /**
+   * Creates a reader over the given file channel.
+   *
+   * @param channel the channel to read from, closed with the reader.
+   */
+  PPMReader(FileChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Reads the two byte magic number at the start of the file, such as "P3".
+   *
+   * @return the magic number.
+   * @throws IOException if the file cannot be read.
+   */
+  String readMagic() throws IOException {
+    int first = read();
+    int second = read();
+    if (first < 0 || second < 0) {
+      throw new IllegalArgumentException("Unsupported PPM format: empty file");
+    }
+    return new String(new char[]{(char) first, (char) second});
+  }
+
+  /**
+   * Reads the next non-negative decimal integer, skipping whitespace and comments before it.
+   * The single whitespace character which ends the number is consumed.
+   *
+   * @return the integer.
+   * @throws IOException if the file cannot be read.
+   */
+  int nextInt() throws IOException {
+    int b = read();
+    while (b == '#' || isWhitespace(b)) {
+      if (b == '#') {
+        skipComment();
+      }
+      b = read();
+    }
+    if (b < '0' || b > '9') {
+      throw new IllegalArgumentException(b < 0 ? "Unexpected end of PPM file"
+              : "Invalid character in PPM file: " + (char) b);
+    }
+
+    int value = 0;
+    while (b >= '0' && b <= '9') {
+      int digit = b - '0';
+      if (value > (Integer.MAX_VALUE - digit) / 10) {
+        throw new IllegalArgumentException("Number too large in PPM file");
+      }
+      value = value * 10 + digit;
+      b = read();
+    }
+    if (b == '#') {
+      skipComment();
+    } else if (b >= 0 && !isWhitespace(b)) {
+      throw new IllegalArgumentException("Invalid character in PPM file: " + (char) b);
+    }
+    return value;
+  }
+
+  /**
+   * Reads ASCII samples into an interleaved RGB array.
+   *
+   * @param samples  the array to fill, three bytes per pixel.
+   * @param channels the number of samples per pixel in the file, 1 for gray or 3 for RGB.
+   * @param maxValue the maximum sample value declared in the header.
+   * @throws IOException if the file cannot be read.
+   */
+  void readAscii(byte[] samples, int channels, int maxValue) throws IOException {
+    byte[] scale = scaleTable(maxValue);
+    for (int i = 0; i < samples.length; i += 3) {
+      for (int c = 0; c < channels; c++) {
+        samples[i + c] = scale[checked(nextInt(), maxValue)];
+      }
+      if (channels == 1) {
+        samples[i + 1] = samples[i];
+        samples[i + 2] = samples[i];
+      }
+    }
+  }
+
+  /**
+   * Reads binary samples into an interleaved RGB array. Samples are one byte, or two bytes
+   * most significant first when the maximum value is above 255. The samples of 8-bit RGB files
+   * are copied straight into the array.
+   *
+   * @param samples  the array to fill, three bytes per pixel.
+   * @param channels the number of samples per pixel in the file, 1 for gray or 3 for RGB.
+   * @param maxValue the maximum sample value declared in the header.
+   * @throws IOException if the file cannot be read.
+   */
+  void readBinary(byte[] samples, int channels, int maxValue) throws IOException {
+    boolean wide = maxValue > 255;
+    ByteBuffer source = payload((long) samples.length / 3 * channels * (wide ? 2 : 1));
+    if (channels == 3 && maxValue == 255) {
+      source.get(samples);
+      return;
+    }
+    byte[] scale = scaleTable(maxValue);
+    for (int i = 0; i < samples.length; i += 3) {
+      for (int c = 0; c < channels; c++) {
+        int value = wide ? source.getShort() & 0xffff : source.get() & 0xff;
+        samples[i + c] = scale[checked(value, maxValue)];
+      }
+      if (channels == 1) {
+        samples[i + 1] = samples[i];
+        samples[i + 2] = samples[i];
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /* Returns the next byte, or -1 at the end of the file */
+  private int read() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position++] & 0xff;
+  }
+
+  /* Refills the buffer, returns false at the end of the file */
+  private boolean fill() throws IOException {
+    wrapped.clear();
+    int count;
+    do {
+      count = channel.read(wrapped);
+    } while (count == 0);
+    position = 0;
+    limit = Math.max(count, 0);
+    consumed += limit;
+    return count > 0;
+  }
+
+  /*
+   * Returns the next length bytes of the file. Large payloads are mapped, smaller ones are read
+   * after the bytes already buffered.
+   */
+  private ByteBuffer payload(long length) throws IOException {
+    long offset = consumed - (limit - position);
+    if (channel.size() - offset < length) {
+      throw new IllegalArgumentException("PPM file is truncated");
+    }
+    if (length >= MAP_THRESHOLD) {
+      // Skip past the mapped bytes so that a following payload starts after them
+      ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+      channel.position(offset + length);
+      consumed = offset + length;
+      position = 0;
+      limit = 0;
+      return mapped;
+    }
+    ByteBuffer bytes = ByteBuffer.allocate((int) length);
+    int buffered = (int) Math.min(length, limit - position);
+    bytes.put(buffer, position, buffered);
+    position += buffered;
+    while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+      // keep reading until the payload is complete.
+    }
+    consumed += length - buffered;
+    return bytes.flip();
+  }
+
+  /* Returns a table mapping samples from 0 - maxValue to 0 - 255 with rounding */
+  private static byte[] scaleTable(int maxValue) {
+    if (maxValue <= 0 || maxValue > 65535) {
+      throw new IllegalArgumentException("Unsupported max color value: " + maxValue);
+    }
+    byte[] table = new byte[maxValue + 1];
+    for (int value = 0; value <= maxValue; value++) {
+      table[value] = (byte) ((value * 255 + maxValue / 2) / maxValue);
+    }
+    return table;
+  }
+
+  /* Checks a sample against the maximum value of the file */
+  private static int checked(int value, int maxValue) {
+    if (value > maxValue) {
+      throw new IllegalArgumentException("Sample " + value + " exceeds max color value");
+    }
+    return value;
+  }
+
+  /* Skips the rest of a comment line */
+  private void skipComment() throws IOException {
+    int b = read();
+    while (b >= 0 && b != '\n' && b != '\r') {
+      b = read();
+    }
+  }
+
+  private static boolean isWhitespace(int b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == 0x0b || b == '\f';
+  }
+
+}
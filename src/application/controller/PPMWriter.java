@@ -0,0 +1,117 @@
+package application.controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffered writer for PPM files which formats integers straight into its byte buffer, so
+ * writing samples allocates no strings.
+ */
+final class PPMWriter implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+
+  /**
+   * Creates a writer over the given stream.
+   *
+   * @param out the stream to write to, closed with the writer.
+   */
+  PPMWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Writes the characters of a string, which must be ASCII.
+   *
+   * @param text the text to write.
+   * @throws IOException if the file cannot be written.
+   */
+  void write(String text) throws IOException {
+    for (int i = 0; i < text.length(); i++) {
+      write(text.charAt(i));
+    }
+  }
+
+  /**
+   * Writes one byte.
+   *
+   * @param b the byte to write.
+   * @throws IOException if the file cannot be written.
+   */
+  void write(int b) throws IOException {
+    if (position == buffer.length) {
+      flush();
+    }
+    buffer[position++] = (byte) b;
+  }
+
+  /**
+   * Writes a range of bytes.
+   *
+   * @param bytes  the bytes to write.
+   * @param offset the offset of the first byte.
+   * @param length the number of bytes.
+   * @throws IOException if the file cannot be written.
+   */
+  void write(byte[] bytes, int offset, int length) throws IOException {
+    if (position + length > buffer.length) {
+      flush();
+      if (length > buffer.length) {
+        out.write(bytes, offset, length);
+        return;
+      }
+    }
+    System.arraycopy(bytes, offset, buffer, position, length);
+    position += length;
+  }
+
+  /**
+   * Writes a non-negative integer of at most five digits in decimal.
+   *
+   * @param value the value to write.
+   * @throws IOException if the file cannot be written.
+   */
+  void writeInt(int value) throws IOException {
+    if (position + 5 > buffer.length) {
+      flush();
+    }
+    if (value >= 10000) {
+      buffer[position++] = (byte) ('0' + value / 10000);
+    }
+    if (value >= 1000) {
+      buffer[position++] = (byte) ('0' + value / 1000 % 10);
+    }
+    if (value >= 100) {
+      buffer[position++] = (byte) ('0' + value / 100 % 10);
+    }
+    if (value >= 10) {
+      buffer[position++] = (byte) ('0' + value / 10 % 10);
+    }
+    buffer[position++] = (byte) ('0' + value % 10);
+  }
+
+  /**
+   * Writes the buffered bytes to the stream.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  void flush() throws IOException {
+    out.write(buffer, 0, position);
+    position = 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+}
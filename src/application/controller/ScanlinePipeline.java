@@ -0,0 +1,212 @@
+package application.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import application.controller.commands.Brighten;
+import application.controller.commands.ChannelComponent;
+import application.controller.commands.ImageCommand;
+import application.controller.commands.Intensity;
+import application.controller.commands.LevelsAdjust;
+import application.controller.commands.Load;
+import application.controller.commands.Luma;
+import application.controller.commands.Save;
+import application.controller.commands.Sepia;
+import application.controller.commands.Value;
+import application.model.AbstractImage;
+import application.model.Image;
+import application.model.ImageMap;
+import application.model.PixelBuffer;
+import application.model.RGBImage;
+
+/**
+ * A script compiled to stream one image from its file through point operations into the saved
+ * files, a band of rows at a time.
+ * A script streams when it loads a single whole image with a streaming codec, runs only point
+ * operations on it, whose every output row depends only on the same input row, and saves its
+ * results with streaming codecs. Each band of rows is read from the decoder, run through the
+ * commands of the script in order on a model of its own and written straight to the encoders,
+ * so only a band of each image is in memory however large the image. Any other script, for
+ * example one with a histogram, a compress or a color correction, which need the whole image,
+ * does not compile and runs on the usual path.
+ */
+final class ScanlinePipeline {
+
+  /**
+   * The number of rows read and written at a time.
+   */
+  static final int BAND_ROWS = 64;
+
+  private final List<ImageCommand> steps;
+  private final Load load;
+  private final String loadPath;
+  private final ImageCodec loadCodec;
+
+  private ScanlinePipeline(List<ImageCommand> steps, Load load, String loadPath,
+                           ImageCodec loadCodec) {
+    this.steps = steps;
+    this.load = load;
+    this.loadPath = loadPath;
+    this.loadCodec = loadCodec;
+  }
+
+  /**
+   * Compiles a script into a pipeline, if every command it runs can stream.
+   *
+   * @param commands the commands of the script in order, with null for lines which are not valid
+   *                 commands.
+   * @param liveness the liveness analysis of the commands, whose skipped commands are left out.
+   * @return the pipeline, or null if the script must run on the usual path.
+   */
+  static ScanlinePipeline compile(List<ImageCommand> commands, ScriptLiveness liveness) {
+    List<ImageCommand> steps = new ArrayList<>();
+    Load load = null;
+    Set<String> produced = new HashSet<>();
+    Set<String> files = new HashSet<>();
+    for (int line = 0; line < commands.size(); line++) {
+      ImageCommand command = commands.get(line);
+      if (command == null) {
+        // Invalid lines report their error on the usual path
+        return null;
+      }
+      if (liveness.isDead(line)) {
+        continue;
+      }
+
+      if (load == null) {
+        if (!(command instanceof Load) || !((Load) command).isWholeImage()) {
+          return null;
+        }
+        load = (Load) command;
+        files.add(canonical(load.getReadFiles().get(0)));
+      } else if (command instanceof Save) {
+        if (!produced.containsAll(command.getInputs())
+                || !files.add(canonical(command.getWrittenFiles().get(0)))
+                || !streams((Save) command)) {
+          return null;
+        }
+        steps.add(command);
+      } else if (isPointOperation(command) && command.getInputs().size() == 1
+              && produced.containsAll(command.getInputs())) {
+        steps.add(command);
+      } else {
+        return null;
+      }
+      produced.addAll(command.getOutputs());
+    }
+    if (load == null || steps.stream().noneMatch(step -> step instanceof Save)) {
+      return null;
+    }
+
+    String loadPath = load.getReadFiles().get(0);
+    ImageCodec loadCodec;
+    try {
+      loadCodec = CodecRegistry.getDefault().forLoading(loadPath);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    return streams(loadCodec) ? new ScanlinePipeline(steps, load, loadPath, loadCodec) : null;
+  }
+
+  /**
+   * Streams the image through the script. If any band fails, the files written so far are
+   * removed, so that the script can run again on the usual path and report its errors there.
+   *
+   * @return true if every band was written, false if the script must run on the usual path.
+   */
+  boolean run() {
+    List<String> written = new ArrayList<>();
+    try (ImageCodec.ScanlineReader reader = loadCodec.openReader(loadPath)) {
+      int width = reader.getWidth();
+      int height = reader.getHeight();
+      ImageCodec.ScanlineWriter[] writers = new ImageCodec.ScanlineWriter[steps.size()];
+      try {
+        for (int y = 0; y < height; y += BAND_ROWS) {
+          RGBImage band = new RGBImage(width, Math.min(BAND_ROWS, height - y));
+          reader.read(band.getPixelBuffer());
+          runBand(band, width, height, writers, written);
+        }
+      } finally {
+        for (ImageCodec.ScanlineWriter writer : writers) {
+          if (writer != null) {
+            writer.close();
+          }
+        }
+      }
+      return true;
+    } catch (IOException | RuntimeException e) {
+      for (String path : written) {
+        new File(path).delete();
+      }
+      return false;
+    }
+  }
+
+  /* Runs the commands on one band, opening the writer of each save when it first writes */
+  private void runBand(RGBImage band, int width, int height, ImageCodec.ScanlineWriter[] writers,
+                       List<String> written) throws IOException {
+    // A lazy model fuses the point operations on the band into a single pass
+    ImageMap model = new ImageMap();
+    model.setLazy(true);
+    model.load(load.getOutputs().get(0), band);
+    for (int i = 0; i < steps.size(); i++) {
+      ImageCommand step = steps.get(i);
+      if (!(step instanceof Save)) {
+        step.execute(model);
+        continue;
+      }
+      if (writers[i] == null) {
+        String path = step.getWrittenFiles().get(0);
+        writers[i] = ((Save) step).getCodec().openWriter(path, width, height);
+        written.add(path);
+      }
+      writers[i].write(pixels(model.getImage(step.getInputs().get(0))));
+    }
+  }
+
+  /* The rows of a band result as three channels */
+  private static PixelBuffer pixels(Image image) {
+    if (image instanceof AbstractImage
+            && ((AbstractImage) image).getPixelBuffer().getNumberOfChannels() == 3) {
+      return ((AbstractImage) image).getPixelBuffer();
+    }
+    PixelBuffer pixels = new PixelBuffer(3, image.getWidth(), image.getHeight());
+    int[] row = new int[image.getWidth()];
+    for (int channel = 0; channel < 3; channel++) {
+      for (int y = 0; y < image.getHeight(); y++) {
+        image.getRow(channel, y, row);
+        pixels.setRow(channel, y, row);
+      }
+    }
+    return pixels;
+  }
+
+  /* Commands whose output rows each depend only on the same row of their input */
+  private static boolean isPointOperation(ImageCommand command) {
+    return command instanceof Brighten || command instanceof Sepia || command instanceof Luma
+            || command instanceof Value || command instanceof Intensity
+            || command instanceof ChannelComponent || command instanceof LevelsAdjust;
+  }
+
+  /* Saves whose codec writes by rows, a save no codec handles reports its error as usual */
+  private static boolean streams(Save save) {
+    try {
+      return streams(save.getCodec());
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private static boolean streams(ImageCodec codec) {
+    return codec.getCapabilities().contains(ImageCodec.Capability.STREAMING);
+  }
+
+  /* The path of a file in a form which is the same for every way of naming it */
+  private static String canonical(String path) {
+    return new File(path).getAbsoluteFile().toPath().normalize().toString();
+  }
+}
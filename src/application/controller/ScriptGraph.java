@@ -0,0 +1,199 @@
+package application.controller;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import application.controller.commands.ImageCommand;
+
+/**
+ * The dependencies between the commands of a script, for running independent commands at the
+ * same time.
+ * A command depends on the last earlier command writing an image or file it reads, and on the
+ * last earlier command writing and all the commands reading since then an image or file it
+ * writes. Running every command after the commands it depends on gives the same images and files
+ * as running the script in order. Commands which are skipped by the {@link ScriptLiveness} of the
+ * script are left out of the graph.
+ * The graph also turns the images released after a command in the ordered script into releases
+ * which wait for every command using that image, as those may now finish in any order.
+ */
+final class ScriptGraph {
+
+  private final List<Set<Integer>> successors = new ArrayList<>();
+  private final int[] predecessors;
+  private final List<List<Release>> releases = new ArrayList<>();
+
+  /**
+   * An image to remove from the model once all the commands using it have run.
+   */
+  static final class Release {
+    private final String name;
+    private final AtomicInteger users;
+
+    Release(String name, int users) {
+      this.name = name;
+      this.users = new AtomicInteger(users);
+    }
+
+    /**
+     * Records that one of the commands using the image has run.
+     *
+     * @return the name of the image if it is now unused, otherwise null.
+     */
+    String done() {
+      return users.decrementAndGet() == 0 ? name : null;
+    }
+  }
+
+  /**
+   * Builds the graph of the commands of a script.
+   *
+   * @param commands the commands of the script, with null for lines which are not valid commands.
+   * @param liveness the liveness analysis of the commands.
+   */
+  ScriptGraph(List<ImageCommand> commands, ScriptLiveness liveness) {
+    int lines = commands.size();
+    this.predecessors = new int[lines];
+    for (int line = 0; line < lines; line++) {
+      successors.add(new LinkedHashSet<>());
+      releases.add(new ArrayList<>());
+    }
+
+    Map<String, Integer> imageWriters = new HashMap<>();
+    Map<String, List<Integer>> imageReaders = new HashMap<>();
+    Map<String, Integer> fileWriters = new HashMap<>();
+    Map<String, List<Integer>> fileReaders = new HashMap<>();
+    // The commands using the current value of each image
+    Map<String, List<Integer>> users = new HashMap<>();
+
+    for (int line = 0; line < lines; line++) {
+      if (!runs(commands, liveness, line)) {
+        continue;
+      }
+      ImageCommand command = commands.get(line);
+      Set<Integer> dependencies = new LinkedHashSet<>();
+      List<String> files = new ArrayList<>();
+      for (String path : command.getReadFiles()) {
+        files.add(normalize(path));
+      }
+      List<String> writtenFiles = new ArrayList<>();
+      for (String path : command.getWrittenFiles()) {
+        writtenFiles.add(normalize(path));
+      }
+
+      reads(line, command.getInputs(), imageWriters, imageReaders, dependencies);
+      reads(line, files, fileWriters, fileReaders, dependencies);
+      writes(line, command.getOutputs(), imageWriters, imageReaders, dependencies);
+      writes(line, writtenFiles, fileWriters, fileReaders, dependencies);
+
+      dependencies.remove(line);
+      for (int dependency : dependencies) {
+        successors.get(dependency).add(line);
+      }
+      predecessors[line] = dependencies.size();
+
+      for (String name : command.getInputs()) {
+        users.computeIfAbsent(name, key -> new ArrayList<>()).add(line);
+      }
+      for (String name : command.getOutputs()) {
+        users.put(name, new ArrayList<>(Collections.singletonList(line)));
+      }
+      for (String name : liveness.releasedAfter(line)) {
+        List<Integer> using = new ArrayList<>(new LinkedHashSet<>(users.get(name)));
+        Release release = new Release(name, using.size());
+        for (int user : using) {
+          releases.get(user).add(release);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns true if the command on a line is run, that is it is valid and not skipped.
+   *
+   * @param commands the commands of the script.
+   * @param liveness the liveness analysis of the commands.
+   * @param line     the index of the line in the script.
+   * @return true if the command is run.
+   */
+  static boolean runs(List<ImageCommand> commands, ScriptLiveness liveness, int line) {
+    return commands.get(line) != null && !liveness.isDead(line);
+  }
+
+  /**
+   * Returns the number of commands the command on a line waits for.
+   *
+   * @param line the index of the line in the script.
+   * @return the number of commands which must run first.
+   */
+  int getPredecessors(int line) {
+    return predecessors[line];
+  }
+
+  /**
+   * Returns the commands which wait for the command on a line.
+   *
+   * @param line the index of the line in the script.
+   * @return the lines of the commands depending on it.
+   */
+  Set<Integer> getSuccessors(int line) {
+    return successors.get(line);
+  }
+
+  /**
+   * Returns the releases of the images used by the command on a line.
+   *
+   * @param line the index of the line in the script.
+   * @return the releases to update once the command has run.
+   */
+  List<Release> getReleases(int line) {
+    return releases.get(line);
+  }
+
+  /* Adds the writers of the resources a command reads and records it as their reader */
+  private static void reads(int line, List<String> resources, Map<String, Integer> writers,
+                            Map<String, List<Integer>> readers, Set<Integer> dependencies) {
+    for (String resource : resources) {
+      Integer writer = writers.get(resource);
+      if (writer != null) {
+        dependencies.add(writer);
+      }
+      readers.computeIfAbsent(resource, key -> new ArrayList<>()).add(line);
+    }
+  }
+
+  /*
+   * Adds the last writer and the readers since of the resources a command writes, and records it
+   * as their writer.
+   */
+  private static void writes(int line, List<String> resources, Map<String, Integer> writers,
+                             Map<String, List<Integer>> readers, Set<Integer> dependencies) {
+    for (String resource : resources) {
+      Integer writer = writers.get(resource);
+      if (writer != null) {
+        dependencies.add(writer);
+      }
+      List<Integer> since = readers.remove(resource);
+      if (since != null) {
+        dependencies.addAll(since);
+      }
+      writers.put(resource, line);
+    }
+  }
+
+  /* The same file may be named by different relative paths */
+  private static String normalize(String path) {
+    try {
+      return Paths.get(path).toAbsolutePath().normalize().toString();
+    } catch (InvalidPathException e) {
+      return path;
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package application.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import application.controller.commands.ImageCommand;
+
+/**
+ * A liveness analysis of the image names of a whole script.
+ * Working back from the end of the script, it finds the commands whose results are never read by
+ * a later command or saved, which can be skipped, and for every other command the images which
+ * are not used again after it, which can be removed from the model as soon as it has run. An
+ * image is used again when a later command reads it before any command replaces it.
+ */
+final class ScriptLiveness {
+
+  private final boolean[] dead;
+  private final List<List<String>> released;
+
+  /**
+   * Analyses the commands of a script.
+   *
+   * @param commands the commands of the script in order, with null for lines which are not valid
+   *                 commands.
+   */
+  ScriptLiveness(List<ImageCommand> commands) {
+    int lines = commands.size();
+    this.dead = new boolean[lines];
+    this.released = new ArrayList<>(Collections.nCopies(lines, Collections.emptyList()));
+
+    // The images whose current value is read by a later command
+    Set<String> live = new HashSet<>();
+    for (int line = lines - 1; line >= 0; line--) {
+      ImageCommand command = commands.get(line);
+      if (command == null) {
+        continue;
+      }
+      List<String> outputs = command.getOutputs();
+      if (!outputs.isEmpty() && Collections.disjoint(outputs, live)) {
+        dead[line] = true;
+        continue;
+      }
+
+      List<String> release = new ArrayList<>();
+      for (List<String> names : List.of(command.getInputs(), outputs)) {
+        for (String name : names) {
+          if (!live.contains(name) && !release.contains(name)) {
+            release.add(name);
+          }
+        }
+      }
+      released.set(line, release);
+      live.removeAll(outputs);
+      live.addAll(command.getInputs());
+    }
+  }
+
+  /**
+   * Returns true if no later command reads any image written by the command on a line.
+   *
+   * @param line the index of the line in the script.
+   * @return true if the command can be skipped.
+   */
+  boolean isDead(int line) {
+    return dead[line];
+  }
+
+  /**
+   * Returns the images which are not used again after the command on a line.
+   *
+   * @param line the index of the line in the script.
+   * @return the names of the images to remove once the command has run.
+   */
+  List<String> releasedAfter(int line) {
+    return released.get(line);
+  }
+}
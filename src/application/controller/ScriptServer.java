@@ -0,0 +1,194 @@
+package application.controller;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.Supplier;
+
+import application.model.ImageProcessor;
+
+/**
+ * A headless server which runs script commands sent over a local socket.
+ * The server listens on a loopback port or on a Unix domain socket, so that only local clients
+ * can connect. Each connection is a session with a model of its own, so sessions never see each
+ * other's images, and each session is a job of a {@link JobRunner}, so that many sessions share
+ * the cores without running more filters at once than the runner allows. A session sends
+ * one script line at a time and reads back the output of the command, the same as the text mode,
+ * followed by a status line: OK or FAILED, and the time the command took in milliseconds. Empty
+ * lines and comments get a status line only. The session ends when the client sends quit or
+ * closes the connection. The process stays up between sessions, so loaded classes and compiled
+ * code are reused by every command sent to it.
+ */
+public class ScriptServer implements Closeable {
+
+  private final ServerSocketChannel server;
+  private final Supplier<ImageProcessor> models;
+  private final JobRunner jobs;
+  private final SocketAddress address;
+
+  /**
+   * Creates a server listening on a loopback port.
+   *
+   * @param port   the port to listen on, 0 for any free port.
+   * @param models creates the empty model of each session.
+   * @param jobs   runs the sessions.
+   * @throws IOException if the port cannot be bound.
+   */
+  public ScriptServer(int port, Supplier<ImageProcessor> models, JobRunner jobs)
+          throws IOException {
+    this(ServerSocketChannel.open(),
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), port), models, jobs);
+  }
+
+  /**
+   * Creates a server listening on a Unix domain socket. A socket file left at the path by an
+   * earlier server is replaced, any other file makes the address in use.
+   *
+   * @param path   the path of the socket file.
+   * @param models creates the empty model of each session.
+   * @param jobs   runs the sessions.
+   * @throws IOException if the socket cannot be bound or another file is at the path.
+   */
+  public ScriptServer(String path, Supplier<ImageProcessor> models, JobRunner jobs)
+          throws IOException {
+    this(ServerSocketChannel.open(StandardProtocolFamily.UNIX), unixAddress(path), models, jobs);
+  }
+
+  private ScriptServer(ServerSocketChannel server, SocketAddress address,
+                       Supplier<ImageProcessor> models, JobRunner jobs) throws IOException {
+    this.server = server;
+    this.models = models;
+    this.jobs = jobs;
+    try {
+      server.bind(address);
+    } catch (IOException e) {
+      server.close();
+      throw e;
+    }
+    this.address = server.getLocalAddress();
+  }
+
+  /**
+   * Returns the address the server listens on, with the actual port if any port was asked for.
+   *
+   * @return the address of the server.
+   */
+  public SocketAddress getAddress() {
+    return address;
+  }
+
+  /**
+   * Accepts sessions until the server is closed, running each one as a job.
+   *
+   * @throws IOException if accepting a connection fails for another reason than the server being
+   *                     closed.
+   */
+  public void serve() throws IOException {
+    try {
+      while (true) {
+        SocketChannel client = server.accept();
+        jobs.submit(() -> {
+          session(client);
+          return null;
+        });
+      }
+    } catch (ClosedChannelException e) {
+      // closed by close(), the sessions in progress finish on their own.
+    }
+  }
+
+  /**
+   * Stops accepting sessions and removes the socket file of a Unix domain socket. The job runner
+   * is left running, it may be shared.
+   *
+   * @throws IOException if the server cannot be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    server.close();
+    if (address instanceof UnixDomainSocketAddress) {
+      Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+    }
+  }
+
+  /* Runs the commands of one client in a model of its own until it quits or disconnects */
+  private void session(SocketChannel client) {
+    ImageProcessor model = models.get();
+    // The controller parses and runs the lines, its own input and output are not used
+    ImageController controller = new ImageController(new StringReader(""), new StringBuilder());
+    try (SocketChannel channel = client;
+         JobRunner.Session job = jobs.open();
+         BufferedReader in = new BufferedReader(
+                 Channels.newReader(channel, StandardCharsets.UTF_8));
+         Writer out = Channels.newWriter(channel, StandardCharsets.UTF_8)) {
+      controller.setSession(job);
+      String input;
+      while ((input = in.readLine()) != null) {
+        input = input.trim();
+        if (input.equalsIgnoreCase("q") || input.equalsIgnoreCase("quit")) {
+          out.write("Exiting application\n");
+          out.flush();
+          return;
+        }
+
+        long start = System.nanoTime();
+        String output = "";
+        int failed = controller.getFailedCommands();
+        if (!input.isEmpty() && input.charAt(0) != '#') {
+          output = controller.runCommand(model, input);
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        out.write(output);
+        if (!output.isEmpty() && !output.endsWith("\n")) {
+          out.write('\n');
+        }
+        out.write(String.format("%s %.3f ms\n",
+                controller.getFailedCommands() == failed ? "OK" : "FAILED", millis));
+        out.flush();
+      }
+    } catch (IOException e) {
+      // the client went away, its images go with the session.
+    } finally {
+      // The process goes on, the images and spill files of the session must not
+      model.clear();
+    }
+  }
+
+  /*
+   * The address of a Unix domain socket, removing a socket file left by an earlier server. Any
+   * other file at the path is left alone and the address is reported in use.
+   */
+  private static SocketAddress unixAddress(String path) throws IOException {
+    UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(address.getPath(), BasicFileAttributes.class,
+              LinkOption.NOFOLLOW_LINKS);
+    } catch (NoSuchFileException e) {
+      return address;
+    }
+    if (!attributes.isOther()) {
+      throw new BindException("Address already in use: " + path);
+    }
+    Files.delete(address.getPath());
+    return address;
+  }
+}
@@ -2,6 +2,7 @@ package application.controller.commands;
 
 import java.io.IOException;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import application.model.ImageProcessor;
 
@@ -30,5 +31,24 @@ public class Blur implements ImageCommand {
   public void execute(ImageProcessor model) throws IOException {
     model.blur(args);
   }
-}
 
+  @Override
+  public List<String> getInputs() {
+    return ImageArguments.inputs(args, firstImage());
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return ImageArguments.outputs(args, firstImage());
+  }
+
+  /* The index of the source image, after the leading -radius and -sigma options */
+  private int firstImage() {
+    int first = 0;
+    while (first + 1 < args.length
+            && (args[first].equals("-radius") || args[first].equals("-sigma"))) {
+      first += 2;
+    }
+    return first;
+  }
+}
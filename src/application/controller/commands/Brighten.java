@@ -2,6 +2,7 @@ package application.controller.commands;
 
 import java.io.IOException;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import application.model.ImageProcessor;
 
@@ -31,6 +32,13 @@ public class Brighten implements ImageCommand {
     model.brighten(args);
   }
 
+  @Override
+  public List<String> getInputs() {
+    return ImageArguments.inputs(args, 1);
+  }
 
+  @Override
+  public List<String> getOutputs() {
+    return ImageArguments.outputs(args, 1);
+  }
 }
-
@@ -2,6 +2,7 @@ package application.controller.commands;
 
 import java.io.IOException;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import application.model.ImageProcessor;
 
@@ -32,4 +33,13 @@ public class ChannelComponent implements ImageCommand {
     model.channelComponent(args, channel);
   }
 
+  @Override
+  public List<String> getInputs() {
+    return ImageArguments.inputs(args, 0);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return ImageArguments.outputs(args, 0);
+  }
 }
@@ -2,6 +2,7 @@ package application.controller.commands;
 
 import java.io.IOException;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import application.model.ImageProcessor;
 
@@ -28,4 +29,14 @@ public class ColorCorrect implements ImageCommand {
   public void execute(ImageProcessor model) throws IOException {
     model.colorCorrect(args);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return ImageArguments.inputs(args, 0);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return ImageArguments.outputs(args, 0);
+  }
 }
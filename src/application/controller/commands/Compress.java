@@ -1,7 +1,9 @@
 package application.controller.commands;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import application.model.ImageProcessor;
 
@@ -41,4 +43,13 @@ public class Compress implements ImageCommand {
     model.compress(percentage, imagName, destinationName);
   }
 
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imagName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(destinationName);
+  }
 }
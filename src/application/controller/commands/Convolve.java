@@ -0,0 +1,56 @@
+package application.controller.commands;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.InputMismatchException;
+import java.util.List;
+
+import application.model.ImageProcessor;
+import application.model.utils.Kernel;
+
+/**
+ * The convolve command is used to convolve the image with a kernel read from a text file.
+ */
+public class Convolve implements ImageCommand {
+
+  private final String kernelPath;
+  private final String[] args;
+
+  /**
+   * Constructs a new convolve command with the specified arguments.
+   *
+   * @param args the kernel file followed by the arguments for the convolve operation.
+   */
+  public Convolve(String[] args) {
+    if (args.length < 3) {
+      throw new InputMismatchException("Invalid number of arguments in convolve command");
+    }
+
+    this.kernelPath = args[0];
+    this.args = Arrays.copyOfRange(args, 1, args.length);
+  }
+
+  @Override
+  public void execute(ImageProcessor model) throws IOException {
+    Kernel kernel = Kernel.parse(new String(Files.readAllBytes(Paths.get(kernelPath))));
+    model.convolve(kernel, args);
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return ImageArguments.inputs(args, 0);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return ImageArguments.outputs(args, 0);
+  }
+
+  @Override
+  public List<String> getReadFiles() {
+    return Collections.singletonList(kernelPath);
+  }
+}
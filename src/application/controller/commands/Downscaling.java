@@ -1,6 +1,8 @@
 package application.controller.commands;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import application.model.ImageProcessor;
 
@@ -34,4 +36,14 @@ public class Downscaling implements ImageCommand {
   public void execute(ImageProcessor model) throws IOException {
     model.downScaling(newHeight, newWidth, imageName, destinationImage);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(destinationImage);
+  }
 }
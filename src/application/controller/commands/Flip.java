@@ -1,7 +1,9 @@
 package application.controller.commands;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import application.model.ImageProcessor;
 
@@ -41,4 +43,14 @@ public class Flip implements ImageCommand {
     }
 
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(destinationImage);
+  }
 }
@@ -1,7 +1,9 @@
 package application.controller.commands;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import application.model.ImageProcessor;
 
@@ -32,4 +34,14 @@ public class Histogram implements ImageCommand {
   public void execute(ImageProcessor model) throws IOException {
     model.histogram(imageName, destinationImage);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(destinationImage);
+  }
 }
@@ -0,0 +1,43 @@
+package application.controller.commands;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the image names in the arguments of the commands which take "source destination",
+ * "source mask destination" or "source destination split percentage" after their leading
+ * parameters.
+ */
+final class ImageArguments {
+
+  private ImageArguments() {
+  }
+
+  /**
+   * Returns the source image and the mask, if any, of the arguments.
+   *
+   * @param args  the arguments of the command.
+   * @param first the index of the source image.
+   * @return the names of the images read by the command.
+   */
+  static List<String> inputs(String[] args, int first) {
+    if (args.length - first == 3) {
+      return Arrays.asList(args[first], args[first + 1]);
+    }
+    return first < args.length ? Collections.singletonList(args[first]) : Collections.emptyList();
+  }
+
+  /**
+   * Returns the destination image of the arguments.
+   *
+   * @param args  the arguments of the command.
+   * @param first the index of the source image.
+   * @return the name of the image written by the command.
+   */
+  static List<String> outputs(String[] args, int first) {
+    int destination = args.length - first == 3 ? first + 2 : first + 1;
+    return destination < args.length ? Collections.singletonList(args[destination])
+            : Collections.emptyList();
+  }
+}
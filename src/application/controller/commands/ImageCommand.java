@@ -1,6 +1,8 @@
 package application.controller.commands;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import application.model.ImageProcessor;
 
@@ -17,5 +19,37 @@ public interface ImageCommand {
    */
   void execute(ImageProcessor model) throws IOException;
 
+  /**
+   * Returns the names of the images this command reads, including masks.
+   *
+   * @return the names of the images read by the command.
+   */
+  List<String> getInputs();
+
+  /**
+   * Returns the names of the images this command creates or replaces.
+   *
+   * @return the names of the images written by the command.
+   */
+  List<String> getOutputs();
+
+  /**
+   * Returns the paths of the files this command reads. Commands which only work on images of the
+   * model read no files.
+   *
+   * @return the paths of the files read by the command.
+   */
+  default List<String> getReadFiles() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Returns the paths of the files this command creates or replaces.
+   *
+   * @return the paths of the files written by the command.
+   */
+  default List<String> getWrittenFiles() {
+    return Collections.emptyList();
+  }
 
 }
@@ -1,21 +1,28 @@
 package application.controller.commands;
 
+import java.awt.Rectangle;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 
-import application.controller.IOImage;
-import application.controller.ImageUtil;
-import application.controller.PPMImage;
+import application.controller.CodecRegistry;
+import application.controller.ImageCodec;
 import application.model.Image;
 import application.model.ImageProcessor;
 
 /**
  * This command is used to load an image.
+ * Optional leading "-region x y width height" and "-size width height" options load only a
+ * region of the image and scale it down to the given size while decoding.
  */
 public class Load implements ImageCommand {
 
   private final String imageName;
   private final String imagePath;
+  private Rectangle region;
+  private int width;
+  private int height;
 
   /**
    * Constructs an instance of load.
@@ -23,12 +30,37 @@ public class Load implements ImageCommand {
    * @param args the arguments sent by the controller.
    */
   public Load(String[] args) {
-    if (args.length != 2) {
+    int first = 0;
+
+    // optional leading -region and -size options
+    try {
+      while (first < args.length && args[first].startsWith("-")) {
+        if (args[first].equals("-region") && first + 4 < args.length) {
+          region = new Rectangle(Integer.parseInt(args[first + 1]),
+                  Integer.parseInt(args[first + 2]), Integer.parseInt(args[first + 3]),
+                  Integer.parseInt(args[first + 4]));
+          first += 5;
+        } else if (args[first].equals("-size") && first + 2 < args.length) {
+          width = Integer.parseInt(args[first + 1]);
+          height = Integer.parseInt(args[first + 2]);
+          if (width <= 0 || height <= 0) {
+            throw new InputMismatchException("Width and height must be greater than 0");
+          }
+          first += 3;
+        } else {
+          throw new InputMismatchException("Invalid option in load command: " + args[first]);
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new InputMismatchException("Invalid region or size for load.");
+    }
+
+    if (args.length - first != 2) {
       throw new InputMismatchException("Invalid arguments in flip command");
     }
 
-    this.imagePath = args[0];
-    this.imageName = args[1];
+    this.imagePath = args[first];
+    this.imageName = args[first + 1];
   }
 
 
@@ -37,18 +69,44 @@ public class Load implements ImageCommand {
 
     Image imageData;
 
-    if (imagePath.endsWith(".ppm")) {
-      ImageUtil ppmLoader = new PPMImage();
-      imageData = ppmLoader.load(imagePath);
-    } else if (imagePath.endsWith(".jpg") || imagePath.endsWith(".png")
-            || imagePath.endsWith(".bmp")) {
-      ImageUtil ioLoader = new IOImage();
-      imageData = ioLoader.load(imagePath);
+    // The codec is detected from the header of the file whatever its extension
+    ImageCodec loader = CodecRegistry.getDefault().forLoading(imagePath);
+    if (isWholeImage()) {
+      imageData = loader.load(imagePath);
     } else {
-      throw new IllegalArgumentException("Only ppm, png, jpg and bmp formats can be loaded");
+      imageData = loader.load(imagePath, region, width, height);
+    }
+    // The codecs report a missing or corrupt file and return no image
+    if (imageData == null) {
+      throw new IllegalArgumentException("Cannot load " + imagePath);
     }
 
     model.load(imageName, imageData);
 
   }
+
+  /**
+   * Returns whether the whole image is loaded at its own size, without the region and size
+   * options.
+   *
+   * @return true if the image is loaded as it is.
+   */
+  public boolean isWholeImage() {
+    return region == null && width == 0;
+  }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getReadFiles() {
+    return Collections.singletonList(imagePath);
+  }
 }
@@ -1,6 +1,9 @@
 package application.controller.commands;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 
 import application.model.ImageProcessor;
 
@@ -35,4 +38,14 @@ public class RGBCombine implements ImageCommand {
   public void execute(ImageProcessor model) {
     model.rgbCombine(redImageName, greenImageName, blueImageName, imageName);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Arrays.asList(redImageName, greenImageName, blueImageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Collections.singletonList(imageName);
+  }
 }
@@ -2,7 +2,10 @@ package application.controller.commands;
 
 import application.model.ImageProcessor;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 
 /**
  * The command is used to split an image into R, G, B channels.
@@ -34,4 +37,14 @@ public class RGBSplit implements ImageCommand {
   public void execute(ImageProcessor model) {
     model.rgbSplit(imageName, redImageName, greenImageName, blueImageName);
   }
+
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
+
+  @Override
+  public List<String> getOutputs() {
+    return Arrays.asList(redImageName, greenImageName, blueImageName);
+  }
 }
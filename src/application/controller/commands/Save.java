@@ -2,13 +2,15 @@ package application.controller.commands;
 
 import java.io.IOException;
 
-import application.controller.IOImage;
-import application.controller.ImageUtil;
+import application.controller.CodecRegistry;
+import application.controller.ImageCodec;
 import application.controller.PPMImage;
 import application.model.Image;
 import application.model.ImageProcessor;
 
+import java.util.Collections;
 import java.util.InputMismatchException;
+import java.util.List;
 
 
 /**
@@ -18,13 +20,19 @@ public class Save implements ImageCommand {
 
   private String imageName;
   private String imagePath;
+  private String format;
 
   /**
-   * Constructs an instance of save.
+   * Constructs an instance of save. The arguments may start with "-format" followed by the
+   * magic number of the PPM or PGM format to save, such as P6 for binary RGB.
    *
    * @param args the arguments sent by the controller.
    */
   public Save(String[] args) {
+    if (args.length == 4 && "-format".equals(args[0])) {
+      this.format = args[1];
+      args = new String[]{args[2], args[3]};
+    }
     if (args.length != 2) {
       throw new InputMismatchException("Invalid arguments in save command");
     }
@@ -42,17 +50,40 @@ public class Save implements ImageCommand {
 
     imageData = model.getImage(imageName);
 
-    if (imagePath.endsWith(".ppm")) {
-      ImageUtil ppmLoader = new PPMImage();
-      ppmLoader.save(imagePath, imageData);
-    } else if (imagePath.endsWith(".jpg") || imagePath.endsWith(".png")
-            || imagePath.endsWith(".bmp")) {
-      ImageUtil ioLoader = new IOImage();
-      ioLoader.save(imagePath, imageData);
-    } else {
-      throw new IllegalArgumentException("Application can only save JPG, PNG, PPM file formats.");
+    getCodec().save(imagePath, imageData);
+
+  }
+
+  /**
+   * Returns the codec which writes the file, a PPM codec for the format option if one was given.
+   *
+   * @return the codec of the saved file.
+   * @throws IllegalArgumentException if no codec saves the file or the format option is given for
+   *                                  a file which is not PPM or PGM.
+   */
+  public ImageCodec getCodec() {
+    ImageCodec saver = CodecRegistry.getDefault().forSaving(imagePath);
+    if (format != null) {
+      if (!(saver instanceof PPMImage)) {
+        throw new IllegalArgumentException("The format option only applies to PPM and PGM files.");
+      }
+      saver = new PPMImage(format);
     }
+    return saver;
+  }
 
+  @Override
+  public List<String> getInputs() {
+    return Collections.singletonList(imageName);
+  }
 
+  @Override
+  public List<String> getOutputs() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<String> getWrittenFiles() {
+    return Collections.singletonList(imagePath);
   }
 }
@@ -2,12 +2,12 @@ package application.model;
 
 /**
  * An abstract class which can represent an N-channel image.
- * In this application, an image can contain multiple channels each represented as a 2D matrix of
- * integer values.
+ * In this application, an image can contain multiple channels. The samples of all channels are
+ * kept in a single {@link PixelBuffer} with one byte per sample.
  */
 public abstract class AbstractImage implements Image {
 
-  public int[][][] channels;
+  private final PixelBuffer pixels;
   private int width;
   private int height;
   private int numberOfChannels;
@@ -23,7 +23,7 @@ public abstract class AbstractImage implements Image {
     this.numberOfChannels = numberOfChannels;
     this.width = width;
     this.height = height;
-    channels = new int[numberOfChannels][height][width];
+    this.pixels = new PixelBuffer(numberOfChannels, width, height);
   }
 
   @Override
@@ -36,11 +36,33 @@ public abstract class AbstractImage implements Image {
     return height;
   }
 
+  /**
+   * Returns a copy of the channels of this image as a 3D array.
+   * This is a slow compatibility path which allocates a new array on every call, writes to the
+   * returned array are not reflected in the image.
+   *
+   * @return a 3D array containing the individual channels of the image.
+   */
   @Override
   public int[][][] getChannels() {
+    int[][][] channels = new int[numberOfChannels][height][width];
+    for (int channel = 0; channel < numberOfChannels; channel++) {
+      for (int row = 0; row < height; row++) {
+        pixels.getRow(channel, row, channels[channel][row]);
+      }
+    }
     return channels;
   }
 
+  /**
+   * Returns the buffer which stores the samples of this image.
+   *
+   * @return the pixel buffer of the image.
+   */
+  public PixelBuffer getPixelBuffer() {
+    return pixels;
+  }
+
   /**
    * Returns the number of channels in an image.
    *
@@ -50,31 +72,50 @@ public abstract class AbstractImage implements Image {
     return numberOfChannels;
   }
 
+  @Override
+  public int getPixelValue(int channel, int row, int col) {
+    return pixels.get(channel, row, col);
+  }
+
+
   /**
-   * Returns the specific pixel value at the given channel, row and column.
+   * Sets the value at the given channel, row and column.
    *
    * @param channel the channel
    * @param row     the row of the image
    * @param col     the column of the image
-   * @return the pixel value at the given channel, row, col
+   * @param value   the value to be set at the given channel,row, col
    */
-
-
-  public int getPixelValue(int channel, int row, int col) {
-    return channels[channel][row][col];
+  public void setPixelValue(int channel, int row, int col, int value) {
+    pixels.set(channel, row, col, value);
   }
 
+  @Override
+  public void getRow(int channel, int row, int[] dst) {
+    pixels.getRow(channel, row, dst);
+  }
 
   /**
-   * Sets the value at the given channel, row and column.
+   * Sets one row of a channel from the given array.
    *
    * @param channel the channel
    * @param row     the row of the image
-   * @param col     the column of the image
-   * @param value   the value to be set at the given channel,row, col
+   * @param src     an array containing at least width values
    */
-  public void setPixelValue(int channel, int row, int col, int value) {
-    channels[channel][row][col] = value;
+  public void setRow(int channel, int row, int[] src) {
+    pixels.setRow(channel, row, src);
+  }
+
+  /**
+   * Sets every row of a channel from the given 2D array.
+   *
+   * @param channel the channel
+   * @param values  a height x width array of values
+   */
+  protected void setChannel(int channel, int[][] values) {
+    for (int row = 0; row < height; row++) {
+      pixels.setRow(channel, row, values[row]);
+    }
   }
 
 
@@ -0,0 +1,259 @@
+package application.model;
+
+import application.model.utils.Kernel;
+
+/**
+ * An image processor which answers repeated operations from a {@link ResultCache} before running
+ * them on an {@link ImageMap}.
+ * An operation is keyed by its name and its arguments, where each argument naming a stored image
+ * is replaced by the content id of that image and the destinations are left out, so the key holds
+ * everything the result depends on and nothing else.
+ * Loaded images get a hash of their samples as content id and results get an id derived from the
+ * key which produced them, so images are hashed once however long the chain of operations on
+ * them. On a miss the operation runs and its results are cached, on a hit the cached results are
+ * stored under the destinations without running anything. Operations on images
+ * too large to hash, such as tiled images, always run.
+ */
+public class CachedImageProcessor implements ImageProcessor {
+
+  private final ImageMap map;
+  private final ResultCache cache;
+
+  /**
+   * Creates a processor which caches the operations run on a map.
+   *
+   * @param map   the map holding the images.
+   * @param cache the cache of results, which may be shared by several processors.
+   */
+  public CachedImageProcessor(ImageMap map, ResultCache cache) {
+    this.map = map;
+    this.cache = cache;
+  }
+
+  /**
+   * Returns the cache of results of this processor, for its hit and miss counters.
+   *
+   * @return the cache.
+   */
+  public ResultCache getCache() {
+    return cache;
+  }
+
+  @Override
+  public void load(String imgName, Image image) {
+    map.load(imgName, image);
+  }
+
+  @Override
+  public Image getImage(String imageName) throws IllegalArgumentException {
+    return map.getImage(imageName);
+  }
+
+  @Override
+  public void removeImage(String imageName) {
+    map.removeImage(imageName);
+  }
+
+  @Override
+  public long getPixelBytes(String imageName) {
+    return map.getPixelBytes(imageName);
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
+  }
+
+  @Override
+  public void sepia(String[] args) {
+    cached("sepia", args, destination(args, 0), () -> map.sepia(args));
+  }
+
+  @Override
+  public void channelComponent(String[] args, int channel) {
+    cached("channel " + channel, args, destination(args, 0),
+            () -> map.channelComponent(args, channel));
+  }
+
+  @Override
+  public void lumaGreyscale(String[] args) {
+    cached("luma", args, destination(args, 0), () -> map.lumaGreyscale(args));
+  }
+
+  @Override
+  public void valueGreyscale(String[] args) {
+    cached("value", args, destination(args, 0), () -> map.valueGreyscale(args));
+  }
+
+  @Override
+  public void intensityGreyscale(String[] args) {
+    cached("intensity", args, destination(args, 0), () -> map.intensityGreyscale(args));
+  }
+
+  @Override
+  public void brighten(String[] args) {
+    cached("brighten", args, destination(args, 1), () -> map.brighten(args));
+  }
+
+  @Override
+  public void blur(String[] args) {
+    cached("blur", args, destination(args, blurSource(args)), () -> map.blur(args));
+  }
+
+  @Override
+  public void sharpen(String[] args) {
+    cached("sharpen", args, destination(args, 0), () -> map.sharpen(args));
+  }
+
+  @Override
+  public void convolve(Kernel kernel, String[] args) {
+    StringBuilder operation = new StringBuilder("convolve ")
+            .append(kernel.getWidth()).append('x').append(kernel.getHeight());
+    for (int y = 0; y < kernel.getHeight(); y++) {
+      for (int x = 0; x < kernel.getWidth(); x++) {
+        operation.append(' ').append(kernel.getWeight(y, x));
+      }
+    }
+    cached(operation.toString(), args, destination(args, 0), () -> map.convolve(kernel, args));
+  }
+
+  @Override
+  public void horizontalFlip(String imgName, String destImgName) {
+    cached("horizontal-flip", new String[]{imgName, destImgName}, new int[]{1},
+            () -> map.horizontalFlip(imgName, destImgName));
+  }
+
+  @Override
+  public void verticalFlip(String imgName, String destImgName) {
+    cached("vertical-flip", new String[]{imgName, destImgName}, new int[]{1},
+            () -> map.verticalFlip(imgName, destImgName));
+  }
+
+  @Override
+  public void rgbSplit(String imgName, String destRedImgName, String destGreenImageName,
+                       String destBlueImgName) {
+    cached("rgb-split", new String[]{imgName, destRedImgName, destGreenImageName,
+            destBlueImgName}, new int[]{1, 2, 3},
+            () -> map.rgbSplit(imgName, destRedImgName, destGreenImageName, destBlueImgName));
+  }
+
+  @Override
+  public void rgbCombine(String redImgName, String greenImageName, String blueImgName,
+                         String destImgName) {
+    cached("rgb-combine", new String[]{redImgName, greenImageName, blueImgName, destImgName},
+            new int[]{3},
+            () -> map.rgbCombine(redImgName, greenImageName, blueImgName, destImgName));
+  }
+
+  @Override
+  public void colorCorrect(String[] args) {
+    cached("color-correct", args, destination(args, 0), () -> map.colorCorrect(args));
+  }
+
+  @Override
+  public void compress(double percentage, String imgName, String destImgName) {
+    cached("compress " + percentage, new String[]{imgName, destImgName}, new int[]{1},
+            () -> map.compress(percentage, imgName, destImgName));
+  }
+
+  @Override
+  public void histogram(String imgName, String destImgName) {
+    cached("histogram", new String[]{imgName, destImgName}, new int[]{1},
+            () -> map.histogram(imgName, destImgName));
+  }
+
+  @Override
+  public void levelsAdjust(String[] args) {
+    cached("levels-adjust", args, destination(args, 3), () -> map.levelsAdjust(args));
+  }
+
+  @Override
+  public void downScaling(int newHeight, int newWidth, String imageName,
+                          String destinationImageName) {
+    cached("downscale " + newHeight + " " + newWidth,
+            new String[]{imageName, destinationImageName}, new int[]{1},
+            () -> map.downScaling(newHeight, newWidth, imageName, destinationImageName));
+  }
+
+  @Override
+  public void dither(String[] args) {
+    cached("dither", args, destination(args, 0), () -> map.dither(args));
+  }
+
+  /*
+   * Runs an operation through the cache. The arguments naming stored images are keyed by content
+   * and the others as they are, except the destinations, so that the same result is found
+   * whatever name it is stored under.
+   */
+  private void cached(String operation, String[] args, int[] destinations, Runnable run) {
+    if (destinations[destinations.length - 1] >= args.length) {
+      // Too few arguments, the operation reports the error
+      run.run();
+      return;
+    }
+    StringBuilder builder = new StringBuilder(operation);
+    for (int i = 0; i < args.length; i++) {
+      if (contains(destinations, i)) {
+        builder.append(" ->");
+      } else if (map.contains(args[i])) {
+        String id = map.getContentId(args[i]);
+        if (id == null) {
+          run.run();
+          return;
+        }
+        builder.append(" #").append(id);
+      } else {
+        builder.append(' ').append(args[i]);
+      }
+    }
+    String key = builder.toString();
+
+    ResultCache.Entry hit = cache.get(key);
+    if (hit != null && hit.images.length == destinations.length) {
+      for (int i = 0; i < destinations.length; i++) {
+        map.load(args[destinations[i]], hit.images[i]);
+        map.setContentId(args[destinations[i]], ResultCache.derivedId(key, i));
+      }
+      return;
+    }
+
+    run.run();
+    Image[] images = new Image[destinations.length];
+    for (int i = 0; i < destinations.length; i++) {
+      images[i] = map.getStored(args[destinations[i]]);
+      if (!(images[i] instanceof AbstractImage || images[i] instanceof DeferredImage)) {
+        return;
+      }
+      map.setContentId(args[destinations[i]], ResultCache.derivedId(key, i));
+    }
+    cache.put(key, new ResultCache.Entry(images));
+  }
+
+  /*
+   * The index of the destination in the arguments of an operation on one image, laid out as
+   * the parameters, the source, then the destination, a mask and the destination, or the
+   * destination followed by split and a percentage.
+   */
+  private static int[] destination(String[] args, int first) {
+    return new int[]{args.length - first == 3 ? first + 2 : first + 1};
+  }
+
+  /* The index of the source image of blur, after the leading -radius and -sigma options */
+  private static int blurSource(String[] args) {
+    int first = 0;
+    while (first + 1 < args.length
+            && (args[first].equals("-radius") || args[first].equals("-sigma"))) {
+      first += 2;
+    }
+    return first;
+  }
+
+  private static boolean contains(int[] indexes, int index) {
+    for (int i : indexes) {
+      if (i == index) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
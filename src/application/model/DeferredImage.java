@@ -0,0 +1,482 @@
+package application.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import application.model.utils.ColorMatrix;
+import application.model.utils.Kernel;
+import application.model.utils.LookupTable;
+import application.model.utils.ParallelRows;
+import application.model.utils.PixelProcessor;
+
+/**
+ * An image whose pixels are computed only when they are first read.
+ * Point operations, flips and downscaling without a mask return a new deferred image which
+ * records the operation instead of computing it. When the pixels are needed, every recorded
+ * operation runs in a single pass over the rows of the result: each row is read once from the
+ * source image and goes through all the operations while it is in cache. Consecutive lookup tables
+ * are composed into one table, flips become reversed row and column indexing and downscaling
+ * only reads the two source rows around each output row. The pixels are the same as running the
+ * operations one after the other on an {@link ExtendedRGB}.
+ * All other operations, and any operation with a mask, compute the pixels first and run on them.
+ */
+public class DeferredImage implements ExtendedImage {
+
+  private final int width;
+  private final int height;
+  private AbstractImage source;
+  private List<Stage> stages;
+  private ExtendedRGB result;
+
+  /* Reads the rows of an image at some step of the recorded operations */
+  private interface RowReader {
+
+    /* Writes the row into dst starting at the offset, three bytes per pixel */
+    void read(int row, byte[] dst, int offset);
+  }
+
+  /* A recorded operation */
+  private interface Stage {
+
+    int width(int sourceWidth);
+
+    int height(int sourceHeight);
+
+    /* Returns a reader of the output of the stage, with buffers for one thread */
+    RowReader reader(RowReader upstream, int sourceWidth, int sourceHeight);
+  }
+
+  /**
+   * Creates a deferred image of the given image with no recorded operations.
+   *
+   * @param source the image whose pixels the operations read.
+   */
+  public DeferredImage(AbstractImage source) {
+    this(source, Collections.emptyList());
+  }
+
+  private DeferredImage(AbstractImage source, List<Stage> stages) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    for (Stage stage : stages) {
+      int stageWidth = stage.width(width);
+      height = stage.height(height);
+      width = stageWidth;
+    }
+    this.width = width;
+    this.height = height;
+    this.source = source;
+    this.stages = stages;
+  }
+
+  /**
+   * Returns the pixels of this image, computing them on the first call.
+   *
+   * @return an image holding the pixels.
+   */
+  public synchronized AbstractImage materialize() {
+    if (result != null) {
+      return result;
+    }
+    if (stages.isEmpty()) {
+      return source;
+    }
+    ExtendedRGB computed = new ExtendedRGB(width, height);
+    byte[] out = computed.getPixelBuffer().getData();
+    int rowLength = width * 3;
+    ParallelRows.forEach(height, width, (startRow, endRow) -> {
+      RowReader reader = reader();
+      for (int row = startRow; row < endRow; row++) {
+        reader.read(row, out, row * rowLength);
+      }
+    });
+
+    // The source and the operations are no longer needed once the pixels exist
+    result = computed;
+    source = null;
+    stages = null;
+    return result;
+  }
+
+  /**
+   * Returns the number of operations waiting to run, after fusing.
+   *
+   * @return the number of recorded stages, 0 once the pixels are computed.
+   */
+  public synchronized int getPendingStages() {
+    return stages == null ? 0 : stages.size();
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getPixelValue(int channel, int row, int col) {
+    return materialize().getPixelValue(channel, row, col);
+  }
+
+  @Override
+  public void getRow(int channel, int row, int[] dst) {
+    materialize().getRow(channel, row, dst);
+  }
+
+  @Override
+  public int[][][] getChannels() {
+    return materialize().getChannels();
+  }
+
+  @Override
+  public Image channelComponent(Mask mask, int channel) {
+    return mask == null ? point(ColorMatrix.channel(channel))
+            : materialize().channelComponent(mask, channel);
+  }
+
+  @Override
+  public Image valueComponent(Mask mask) {
+    return mask == null ? point(PixelProcessor.VALUE) : materialize().valueComponent(mask);
+  }
+
+  @Override
+  public Image intensityComponent(Mask mask) {
+    return mask == null ? point(ColorMatrix.intensity())
+            : materialize().intensityComponent(mask);
+  }
+
+  @Override
+  public Image lumaComponent(Mask mask) {
+    return mask == null ? point(ColorMatrix.luma()) : materialize().lumaComponent(mask);
+  }
+
+  @Override
+  public Image sepia(Mask mask) {
+    return mask == null ? point(ColorMatrix.sepia()) : materialize().sepia(mask);
+  }
+
+  @Override
+  public Image colorMatrix(Mask mask, ColorMatrix matrix) {
+    return mask == null ? point(matrix) : materialize().colorMatrix(mask, matrix);
+  }
+
+  @Override
+  public Image brighten(int increment) {
+    if (increment > 255 || increment < -255) {
+      throw new IllegalArgumentException("Increment must be between -255 and 255");
+    }
+    return lookup(LookupTable.brighten(increment));
+  }
+
+  @Override
+  public Image lookup(LookupTable table) {
+    return point(table);
+  }
+
+  @Override
+  public Image levelsAdjust(int black, int mid, int white) {
+    if (black < 0 || black > 255 || mid < 0 || mid > 255 || white < 0 || white > 255) {
+      throw new IllegalArgumentException("All values must be between 0 and 255");
+    }
+    if (!(black < mid && mid < white)) {
+      throw new IllegalArgumentException("Values must be in ascending order: black < mid < white");
+    }
+    return lookup(LookupTable.levels(black, mid, white));
+  }
+
+  @Override
+  public Image flip(String direction) {
+    if (!direction.equals("horizontal") && !direction.equals("vertical")) {
+      return materialize().flip(direction);
+    }
+    boolean horizontal = direction.equals("horizontal");
+    synchronized (this) {
+      if (result == null) {
+        List<Stage> next = new ArrayList<>(stages);
+        Stage last = next.isEmpty() ? null : next.get(next.size() - 1);
+        if (last instanceof Flip && ((Flip) last).horizontal == horizontal) {
+          // Flipping twice in the same direction gives back the image
+          next.remove(next.size() - 1);
+        } else {
+          next.add(new Flip(horizontal));
+        }
+        return new DeferredImage(source, next);
+      }
+    }
+    return new DeferredImage(result, Collections.singletonList(new Flip(horizontal)));
+  }
+
+  @Override
+  public Image downScaling(int newHeight, int newWidth) {
+    if (newHeight <= 0 || newWidth <= 0) {
+      throw new IllegalArgumentException("Width and height must be greater than 0");
+    }
+    if (newHeight > height || newWidth > width) {
+      throw new IllegalArgumentException("Width and height must be less than original" +
+              " for downscaling");
+    }
+    return append(new DownScale(newWidth, newHeight));
+  }
+
+  @Override
+  public List<Image> rgbSplit() {
+    List<Image> rgbSplitImages = new ArrayList<Image>();
+    for (int channel = 0; channel < 3; channel++) {
+      rgbSplitImages.add(channelComponent(null, channel));
+    }
+    return rgbSplitImages;
+  }
+
+  @Override
+  public Image rgbCombine(Image red, Image green, Image blue) {
+    return materialize().rgbCombine(pixels(red), pixels(green), pixels(blue));
+  }
+
+  @Override
+  public Image blur(Mask mask) {
+    return materialize().blur(mask);
+  }
+
+  @Override
+  public Image blur(Mask mask, int radius, double sigma) {
+    return materialize().blur(mask, radius, sigma);
+  }
+
+  @Override
+  public Image sharpen(Mask mask) {
+    return materialize().sharpen(mask);
+  }
+
+  @Override
+  public Image convolve(Mask mask, Kernel kernel) {
+    return materialize().convolve(mask, kernel);
+  }
+
+  @Override
+  public Image compress(double percentage) {
+    return extended().compress(percentage);
+  }
+
+  @Override
+  public Image histogram() {
+    return extended().histogram();
+  }
+
+  @Override
+  public Image colorCorrect() {
+    return extended().colorCorrect();
+  }
+
+  @Override
+  public Image dither() {
+    return extended().dither();
+  }
+
+  /* Records a point operation, composing it with a lookup table recorded just before */
+  private Image point(PixelProcessor.SpanOp op) {
+    synchronized (this) {
+      if (result == null && !stages.isEmpty()
+              && stages.get(stages.size() - 1) instanceof Point) {
+        List<Stage> next = new ArrayList<>(stages);
+        next.set(next.size() - 1, ((Point) next.get(next.size() - 1)).then(op));
+        return new DeferredImage(source, next);
+      }
+    }
+    return append(new Point(Collections.singletonList(op)));
+  }
+
+  /* Returns a deferred image running the operations of this image and then the stage */
+  private synchronized Image append(Stage stage) {
+    if (result != null) {
+      return new DeferredImage(result, Collections.singletonList(stage));
+    }
+    List<Stage> next = new ArrayList<>(stages);
+    next.add(stage);
+    return new DeferredImage(source, next);
+  }
+
+  /* Chains the readers of every stage, starting from the rows of the source */
+  private RowReader reader() {
+    byte[] in = source.getPixelBuffer().getData();
+    int sourceWidth = source.getWidth();
+    int sourceHeight = source.getHeight();
+    int sourceRowLength = sourceWidth * 3;
+    RowReader reader = (row, dst, offset) ->
+            System.arraycopy(in, row * sourceRowLength, dst, offset, sourceRowLength);
+    for (Stage stage : stages) {
+      reader = stage.reader(reader, sourceWidth, sourceHeight);
+      int stageWidth = stage.width(sourceWidth);
+      sourceHeight = stage.height(sourceHeight);
+      sourceWidth = stageWidth;
+    }
+    return reader;
+  }
+
+  private ExtendedImage extended() {
+    AbstractImage pixels = materialize();
+    if (pixels instanceof ExtendedImage) {
+      return (ExtendedImage) pixels;
+    }
+    ExtendedRGB copy = new ExtendedRGB(width, height);
+    copy.getPixelBuffer().copyFrom(pixels.getPixelBuffer());
+    return copy;
+  }
+
+  private static Image pixels(Image image) {
+    return image instanceof DeferredImage ? ((DeferredImage) image).materialize() : image;
+  }
+
+  /* Point operations applied in order to each row in place */
+  private static final class Point implements Stage {
+    private final List<PixelProcessor.SpanOp> ops;
+
+    Point(List<PixelProcessor.SpanOp> ops) {
+      this.ops = ops;
+    }
+
+    /*
+     * Adds an operation after these ones. Lookup tables compose exactly, color matrices are
+     * kept apart because fusing them skips the rounding between the two steps.
+     */
+    Point then(PixelProcessor.SpanOp op) {
+      List<PixelProcessor.SpanOp> next = new ArrayList<>(ops);
+      PixelProcessor.SpanOp last = next.get(next.size() - 1);
+      if (last instanceof LookupTable && op instanceof LookupTable) {
+        next.set(next.size() - 1, ((LookupTable) last).then((LookupTable) op));
+      } else {
+        next.add(op);
+      }
+      return new Point(next);
+    }
+
+    @Override
+    public int width(int sourceWidth) {
+      return sourceWidth;
+    }
+
+    @Override
+    public int height(int sourceHeight) {
+      return sourceHeight;
+    }
+
+    @Override
+    public RowReader reader(RowReader upstream, int sourceWidth, int sourceHeight) {
+      int rowLength = sourceWidth * 3;
+      return (row, dst, offset) -> {
+        upstream.read(row, dst, offset);
+        for (PixelProcessor.SpanOp op : ops) {
+          op.apply(dst, dst, offset, offset + rowLength);
+        }
+      };
+    }
+  }
+
+  /* A flip done by reading the rows bottom up or reversing the pixels of each row */
+  private static final class Flip implements Stage {
+    private final boolean horizontal;
+
+    Flip(boolean horizontal) {
+      this.horizontal = horizontal;
+    }
+
+    @Override
+    public int width(int sourceWidth) {
+      return sourceWidth;
+    }
+
+    @Override
+    public int height(int sourceHeight) {
+      return sourceHeight;
+    }
+
+    @Override
+    public RowReader reader(RowReader upstream, int sourceWidth, int sourceHeight) {
+      if (!horizontal) {
+        return (row, dst, offset) -> upstream.read(sourceHeight - 1 - row, dst, offset);
+      }
+      return (row, dst, offset) -> {
+        upstream.read(row, dst, offset);
+        for (int left = offset, right = offset + (sourceWidth - 1) * 3; left < right;
+             left += 3, right -= 3) {
+          for (int c = 0; c < 3; c++) {
+            byte swap = dst[left + c];
+            dst[left + c] = dst[right + c];
+            dst[right + c] = swap;
+          }
+        }
+      };
+    }
+  }
+
+  /* Bilinear downscaling reading only the two source rows around each output row */
+  private static final class DownScale implements Stage {
+    private final int targetWidth;
+    private final int targetHeight;
+
+    DownScale(int targetWidth, int targetHeight) {
+      this.targetWidth = targetWidth;
+      this.targetHeight = targetHeight;
+    }
+
+    @Override
+    public int width(int sourceWidth) {
+      return targetWidth;
+    }
+
+    @Override
+    public int height(int sourceHeight) {
+      return targetHeight;
+    }
+
+    @Override
+    public RowReader reader(RowReader upstream, int sourceWidth, int sourceHeight) {
+      int[] x1 = new int[targetWidth];
+      int[] x2 = new int[targetWidth];
+      float[] dx = new float[targetWidth];
+      for (int col = 0; col < targetWidth; col++) {
+        float x = col * (float) sourceWidth / targetWidth;  // Horizontal mapping
+        x1[col] = (int) Math.floor(x) * 3;
+        x2[col] = Math.min((int) Math.ceil(x), sourceWidth - 1) * 3;
+        dx[col] = x - (int) Math.floor(x);
+      }
+      byte[] top = new byte[sourceWidth * 3];
+      byte[] bottom = new byte[sourceWidth * 3];
+      int[] cached = {-1, -1};
+
+      return (row, dst, offset) -> {
+        float y = row * (float) sourceHeight / targetHeight; // Vertical mapping
+        int y1 = (int) Math.floor(y);
+        int y2 = Math.min((int) Math.ceil(y), sourceHeight - 1);
+        float dy = y - y1;
+        if (cached[0] != y1) {
+          upstream.read(y1, top, 0);
+          cached[0] = y1;
+        }
+        if (cached[1] != y2) {
+          upstream.read(y2, bottom, 0);
+          cached[1] = y2;
+        }
+
+        for (int col = 0, out = offset; col < targetWidth; col++) {
+          for (int channel = 0; channel < 3; channel++, out++) {
+            int cA = top[x1[col] + channel] & 0xff;
+            int cB = top[x2[col] + channel] & 0xff;
+            int cC = bottom[x1[col] + channel] & 0xff;
+            int cD = bottom[x2[col] + channel] & 0xff;
+
+            int m = (int) ((1 - dx[col]) * cA + dx[col] * cB);
+            int n = (int) ((1 - dx[col]) * cC + dx[col] * cD);
+
+            int finalColorValue = (int) ((1 - dy) * m + dy * n);
+            dst[out] = (byte) Math.max(0, Math.min(255, finalColorValue));
+          }
+        }
+      };
+    }
+  }
+}
@@ -2,6 +2,8 @@ package application.model;
 
 import application.model.utils.CompressUtil;
 import application.model.utils.HistogramUtil;
+import application.model.utils.LookupTable;
+import application.model.utils.ParallelRows;
 
 /**
  * This class represents an extendedRGB.
@@ -21,49 +23,11 @@ public class ExtendedRGB extends RGBImage implements ExtendedImage {
 
   @Override
   public Image compress(double percentage) {
-    int width = this.getWidth();
-    int height = this.getHeight();
-
-    double[][] reds = new double[height][width];
-    double[][] greens = new double[height][width];
-    double[][] blues = new double[height][width];
-
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        reds[i][j] = this.getPixelValue(0, i, j);
-        greens[i][j] = this.getPixelValue(1, i, j);
-        blues[i][j] = this.getPixelValue(2, i, j);
-      }
-    }
-
-
-    CompressUtil util = new CompressUtil();
-
-    int[][][] compressedChannels = new int[3][height][width];
-
-
-    compressedChannels[0] = util.compress(reds, width, height, percentage);
-    System.out.println("RED");
-
-    compressedChannels[1] = util.compress(greens, width, height, percentage);
-    System.out.println("green");
-
-    compressedChannels[2] = util.compress(blues, width, height, percentage);
-    System.out.println("blue");
-
-
-    ExtendedRGB compressedImage = new ExtendedRGB(width, height);
-
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        for (int c = 0; c < 3; c++) {
-          compressedImage.setPixelValue(c, i, j, compressedChannels[c][i][j]);
-        }
-      }
-    }
+    ExtendedRGB compressedImage = new ExtendedRGB(getWidth(), getHeight());
 
+    // The channels are compressed at the same time, each in place in a buffer of its own
+    new CompressUtil().compress(this.getPixelBuffer(), compressedImage.getPixelBuffer(),
+            percentage);
 
     return compressedImage;
   }
@@ -85,15 +49,7 @@ public class ExtendedRGB extends RGBImage implements ExtendedImage {
     int[] offsets = histogram.computeOffsets();
 
     ExtendedRGB correctedImage = new ExtendedRGB(getWidth(), getHeight());
-
-    for (int y = 0; y < getHeight(); y++) {
-      for (int x = 0; x < getWidth(); x++) {
-        for (int channel = 0; channel < 3; channel++) {
-          int adjustedValue = clamp(getPixelValue(channel, y, x) + offsets[channel]);
-          correctedImage.setPixelValue(channel, y, x, adjustedValue);
-        }
-      }
-    }
+    LookupTable.offsets(offsets).apply(this.getPixelBuffer(), correctedImage.getPixelBuffer());
 
     return correctedImage;
 
@@ -116,41 +72,10 @@ public class ExtendedRGB extends RGBImage implements ExtendedImage {
       throw new IllegalArgumentException("Values must be in ascending order: black < mid < white");
     }
 
-    double normalizationFactor = Math.pow(black, 2) * (mid - white) - black *
-            (Math.pow(mid, 2) - Math.pow(white, 2))
-            + white * Math.pow(mid, 2) - mid * Math.pow(white, 2);
-
-    double coefficientX = -black * (128 - 255) + 128 * white - 255 * mid;
-    double coefficientY = Math.pow(black, 2) * (128 - 255) + 255 * Math.pow(mid, 2) - 128 *
-            Math.pow(white, 2);
-    double coefficientZ = Math.pow(black, 2) * (255 * mid - 128 * white) - black
-            * (255 * Math.pow(mid, 2) - 128 * Math.pow(white, 2));
-
-    double coeffA = coefficientX / normalizationFactor;
-    double coeffB = coefficientY / normalizationFactor;
-    double coeffC = coefficientZ / normalizationFactor;
-
     ExtendedRGB adjustedImage = new ExtendedRGB(getWidth(), getHeight());
+    LookupTable.levels(black, mid, white).apply(this.getPixelBuffer(),
+            adjustedImage.getPixelBuffer());
 
-    for (int y = 0; y < getHeight(); y++) {
-      for (int x = 0; x < getWidth(); x++) {
-        for (int channel = 0; channel < 3; channel++) {
-          int originalValue = getPixelValue(channel, y, x);
-
-          double result;
-
-          if (originalValue <= black) {
-            result = 0;
-          } else if (originalValue >= white) {
-            result = 255;
-          } else {
-            result = coeffA * Math.pow(originalValue, 2) + coeffB * originalValue + coeffC;
-            result = Math.max(0, Math.min(255, result));
-          }
-          adjustedImage.setPixelValue(channel, y, x, (int) Math.round(result));
-        }
-      }
-    }
     return adjustedImage;
   }
 
@@ -174,38 +99,40 @@ public class ExtendedRGB extends RGBImage implements ExtendedImage {
 
     ExtendedRGB downscaledImage = new ExtendedRGB(targetWidth, targetHeight);
 
-    for (int row = 0; row < targetHeight; row++) {
-      for (int col = 0; col < targetWidth; col++) {
+    ParallelRows.forEach(targetHeight, targetWidth, (startRow, endRow) -> {
+      for (int row = startRow; row < endRow; row++) {
+        for (int col = 0; col < targetWidth; col++) {
 
-        float x = col * (float) originalWidth / targetWidth;  // Horizontal mapping
-        float y = row * (float) originalHeight / targetHeight; // Vertical mapping
+          float x = col * (float) originalWidth / targetWidth;  // Horizontal mapping
+          float y = row * (float) originalHeight / targetHeight; // Vertical mapping
 
-        for (int channel = 0; channel < 3; channel++) {
+          for (int channel = 0; channel < 3; channel++) {
 
-          int x1 = (int) Math.floor(x);
-          int y1 = (int) Math.floor(y);
-          int x2 = Math.min((int) Math.ceil(x), originalWidth - 1);
-          int y2 = Math.min((int) Math.ceil(y), originalHeight - 1);
+            int x1 = (int) Math.floor(x);
+            int y1 = (int) Math.floor(y);
+            int x2 = Math.min((int) Math.ceil(x), originalWidth - 1);
+            int y2 = Math.min((int) Math.ceil(y), originalHeight - 1);
 
-          int cA = this.getPixelValue(channel, y1, x1);
-          int cB = this.getPixelValue(channel, y1, x2);
-          int cC = this.getPixelValue(channel, y2, x1);
-          int cD = this.getPixelValue(channel, y2, x2);
+            int cA = this.getPixelValue(channel, y1, x1);
+            int cB = this.getPixelValue(channel, y1, x2);
+            int cC = this.getPixelValue(channel, y2, x1);
+            int cD = this.getPixelValue(channel, y2, x2);
 
-          float dx = x - x1;
-          float dy = y - y1;
+            float dx = x - x1;
+            float dy = y - y1;
 
-          int m = (int) ((1 - dx) * cA + dx * cB);
-          int n = (int) ((1 - dx) * cC + dx * cD);
+            int m = (int) ((1 - dx) * cA + dx * cB);
+            int n = (int) ((1 - dx) * cC + dx * cD);
 
-          int finalColorValue = (int) ((1 - dy) * m + dy * n);
+            int finalColorValue = (int) ((1 - dy) * m + dy * n);
 
-          finalColorValue = Math.max(0, Math.min(255, finalColorValue));
+            finalColorValue = Math.max(0, Math.min(255, finalColorValue));
 
-          downscaledImage.setPixelValue(channel, row, col, finalColorValue);
+            downscaledImage.setPixelValue(channel, row, col, finalColorValue);
+          }
         }
       }
-    }
+    });
     return downscaledImage;
   }
 
@@ -215,13 +142,12 @@ public class ExtendedRGB extends RGBImage implements ExtendedImage {
     int height = this.getHeight();
     int width = this.getWidth();
     Image image = this.channelComponent(null, 0);
-    int[][][] channels = image.getChannels();
 
     ExtendedRGB ditherImage = new ExtendedRGB(width, height);
 
     for (int y = 0; y < height; y++) {
       for (int x = 0; x < width; x++) {
-        int oldColor = channels[0][y][x]; // You can adjust this for each channel (red, green, blue)
+        int oldColor = image.getPixelValue(0, y, x); // You can adjust this for each channel (red, green, blue)
 
         // Calculate new color (either 0 or 255, whichever is closer)
         int newColor = (Math.abs(oldColor - 0) <= Math.abs(oldColor - 255)) ? 0 : 255;
@@ -269,10 +195,4 @@ public class ExtendedRGB extends RGBImage implements ExtendedImage {
     return ditherImage;
   }
 
-
-  /* Clamp the values between 0 and 255 */
-  private int clamp(int value) {
-    return Math.max(0, Math.min(255, value));
-  }
-
 }
@@ -2,6 +2,10 @@ package application.model;
 
 import java.util.List;
 
+import application.model.utils.ColorMatrix;
+import application.model.utils.Kernel;
+import application.model.utils.LookupTable;
+
 /**
  * This interface describes all the operation which can be done on an image.
  * It contains various methods such as flips, filtering, transformations.
@@ -17,7 +21,7 @@ public interface Image {
    * @param channel the channel index to extract (e.g., 0 for red, 1 for green, 2 for blue).
    * @return an Image which represents a red component of an image.
    */
-  Image channelComponent(Image mask, int channel);
+  Image channelComponent(Mask mask, int channel);
 
   /**
    * Flips the image along a direction.
@@ -43,18 +47,39 @@ public interface Image {
 
   /**
    * Retrieves the individual channels of the image.
+   * The returned array is a copy of the image data, prefer {@link #getPixelValue} or
+   * {@link #getRow} when only a part of the image is needed.
    *
    * @return a 3D array containing the individual channels of the image.
    */
   int[][][] getChannels();
 
+  /**
+   * Returns the specific pixel value at the given channel, row and column.
+   *
+   * @param channel the channel
+   * @param row     the row of the image
+   * @param col     the column of the image
+   * @return the pixel value at the given channel, row, col
+   */
+  int getPixelValue(int channel, int row, int col);
+
+  /**
+   * Copies one row of a channel into the given array.
+   *
+   * @param channel the channel
+   * @param row     the row of the image
+   * @param dst     an array of at least width elements to receive the values
+   */
+  void getRow(int channel, int row, int[] dst);
+
   /**
    * Returns an image that contains the maximum value of the three components of each pixel.
    *
    * @param mask an optional mask that defines the regions where the operation is applied.
    * @return a greyscale image from the maximum component values.
    */
-  Image valueComponent(Image mask);
+  Image valueComponent(Mask mask);
 
   /**
    * Returns an image that contains the average of the three components of each pixel.
@@ -62,7 +87,7 @@ public interface Image {
    * @param mask an optional mask that defines the regions where the operation is applied.
    * @return a greyscale image containing the average of the component values.
    */
-  Image intensityComponent(Image mask);
+  Image intensityComponent(Mask mask);
 
   /**
    * Transform the image by applying the transformation r = g = b = 0.2126r + 0.7152g + 0.0722b.
@@ -70,7 +95,7 @@ public interface Image {
    * @param mask an optional mask that defines the regions where the operation is applied.
    * @return a greyscale image containing the transformed image.
    */
-  Image lumaComponent(Image mask);
+  Image lumaComponent(Mask mask);
 
   /**
    * Brighten the image by the given increment.
@@ -81,6 +106,15 @@ public interface Image {
    */
   Image brighten(int increment);
 
+  /**
+   * Apply a point operation given as a lookup table to every pixel of the image.
+   * Chains of point operations can be composed into one table and applied in a single pass.
+   *
+   * @param table the lookup table to apply.
+   * @return an image with the looked up values.
+   */
+  Image lookup(LookupTable table);
+
   /**
    * Split the given image into three images containing its red, green and blue components.
    *
@@ -104,7 +138,18 @@ public interface Image {
    * @param mask an optional mask that defines the regions where the operation is applied.
    * @return a blurred image.
    */
-  Image blur(Image mask);
+  Image blur(Mask mask);
+
+  /**
+   * Blur an image using a separable gaussian kernel of the given radius and sigma.
+   * A radius of 1 without a sigma is the same 3 x 3 kernel as {@link #blur(Image)}.
+   *
+   * @param mask   an optional mask that defines the regions where the operation is applied.
+   * @param radius the radius of the kernel, derived from sigma when not positive.
+   * @param sigma  the standard deviation of the gaussian, a binomial kernel when not positive.
+   * @return a blurred image.
+   */
+  Image blur(Mask mask, int radius, double sigma);
 
   /**
    * Sharpen the image using a sharpening filter.
@@ -112,7 +157,17 @@ public interface Image {
    * @param mask an optional mask that defines the regions where the operation is applied.
    * @return a sharpened image.
    */
-  Image sharpen(Image mask);
+  Image sharpen(Mask mask);
+
+  /**
+   * Convolve the image with the given kernel. Pixels outside the image repeat the nearest edge
+   * pixel and the results are clamped between 0 and 255.
+   *
+   * @param mask   an optional mask that defines the regions where the operation is applied.
+   * @param kernel the kernel to convolve the image with.
+   * @return the convolved image.
+   */
+  Image convolve(Mask mask, Kernel kernel);
 
   /**
    * Apply a sepia tone to the image.
@@ -120,7 +175,18 @@ public interface Image {
    * @param mask an optional mask that defines the regions where the operation is applied.
    * @return an image with sepia tone.
    */
-  Image sepia(Image mask);
+  Image sepia(Mask mask);
+
+  /**
+   * Apply a color matrix to the image. All three output channels of a pixel are computed from
+   * one read of its input channels, and consecutive matrices can be fused into one with
+   * {@link ColorMatrix#then(ColorMatrix)} to transform the image in a single pass.
+   *
+   * @param mask   an optional mask that defines the regions where the operation is applied.
+   * @param matrix the color matrix to apply.
+   * @return the transformed image.
+   */
+  Image colorMatrix(Mask mask, ColorMatrix matrix);
 
 
 }
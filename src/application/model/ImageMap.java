@@ -1,39 +1,140 @@
 package application.model;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.List;
-import java.util.Map;
+
+import application.model.utils.Kernel;
 
 /**
  * The image map stores a collection of images and offers methods for editing images.
  * This class is exposed to the controller for operations o the model.
+ * The images are kept within a memory budget, the least recently used images are spilled to disk
+ * and read back transparently when they are used again.
  */
 public class ImageMap implements ImageProcessor {
 
 
-  private final Map<String, Image> imagesMap;
+  private final ImageStore images;
+  private volatile boolean lazy;
 
 
   /**
    * Constructs a map to store images with key as image identifiers and values as Image.
+   * The memory budget is half of the maximum heap.
    */
   public ImageMap() {
-    this.imagesMap = new HashMap<>();
+    this(Runtime.getRuntime().maxMemory() / 2);
+  }
+
+  /**
+   * Constructs a map to store images which keeps at most the given bytes of pixels in memory.
+   *
+   * @param memoryBudget the bytes of pixels held in memory before images are spilled to disk.
+   * @throws IllegalArgumentException if the budget is not positive.
+   */
+  public ImageMap(long memoryBudget) {
+    this.images = new ImageStore(memoryBudget);
   }
 
 
+  /**
+   * Sets whether operations are deferred. In lazy mode the point operations, flips and
+   * downscaling of whole images are recorded rather than run, and a chain of them is run in a
+   * single pass when its pixels are first needed, by getImage or by an operation which is not
+   * deferred.
+   *
+   * @param lazy true to defer operations.
+   */
+  public void setLazy(boolean lazy) {
+    this.lazy = lazy;
+  }
+
   @Override
   public Image getImage(String imageName) throws IllegalArgumentException {
-    if (this.imagesMap.get(imageName) == null) {
+    Image image = this.getStored(imageName);
+    if (image instanceof DeferredImage) {
+      return ((DeferredImage) image).materialize();
+    }
+    return image;
+  }
+
+  /* Returns the stored image, which may still be deferred */
+  Image getStored(String imageName) throws IllegalArgumentException {
+    Image image = this.images.get(imageName);
+    if (image == null) {
       throw new IllegalArgumentException("Image Not Found: " + imageName);
     }
-    return this.imagesMap.get(imageName);
+    return image;
+  }
+
+  @Override
+  public void removeImage(String imageName) {
+    this.images.remove(imageName);
+  }
+
+  @Override
+  public long getPixelBytes(String imageName) {
+    return this.images.getPixelBytes(imageName);
+  }
+
+  @Override
+  public void clear() {
+    this.images.clear();
+  }
+
+  /**
+   * Returns the memory usage counters of the stored images, for sizing the memory budget.
+   *
+   * @return a snapshot of the hits, spills and reloads of the stored images.
+   */
+  public StoreStatistics getStatistics() {
+    return this.images.getStatistics();
+  }
+
+  /**
+   * Returns whether an image is stored under a name.
+   *
+   * @param imageName the name of the image.
+   * @return true if an image has this name.
+   */
+  boolean contains(String imageName) {
+    return this.images.contains(imageName);
+  }
+
+  /**
+   * Returns the content id of the image stored under a name, hashing its samples the first time.
+   *
+   * @param imageName the name of the image.
+   * @return the content id, or null if the image is too large to hash.
+   */
+  String getContentId(String imageName) {
+    String id = this.images.getContentId(imageName);
+    if (id == null) {
+      id = ResultCache.contentId(this.getStored(imageName));
+      if (id != null) {
+        this.images.setContentId(imageName, id);
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Records the content id of the image stored under a name.
+   *
+   * @param imageName the name of the image.
+   * @param id        the content id of the image.
+   */
+  void setContentId(String imageName, String id) {
+    this.images.setContentId(imageName, id);
   }
 
   /* Helper function to insert the image in the map */
   private void putImage(String imgName, Image image) throws IllegalArgumentException {
-    this.imagesMap.put(imgName, image);
+    if (lazy && image instanceof AbstractImage) {
+      image = new DeferredImage((AbstractImage) image);
+    }
+    this.images.put(imgName, image);
   }
 
   @Override
@@ -46,7 +147,7 @@ public class ImageMap implements ImageProcessor {
   @Override
   public void sepia(String[] args) {
     String imageName = args[0];
-    Image currentImage = this.getImage(imageName);
+    Image currentImage = this.getStored(imageName);
     Image sepiaImage;
     String destinationImage;
 
@@ -54,8 +155,8 @@ public class ImageMap implements ImageProcessor {
       sepiaImage = currentImage.sepia(null);
       destinationImage = args[1];
     } else if (args.length == 3) {
-      Image maskImage = getImage(args[1]);
-      sepiaImage = currentImage.sepia(maskImage);
+      Mask mask = Mask.of(getImage(args[1]));
+      sepiaImage = currentImage.sepia(mask);
       destinationImage = args[2];
     } else if (args.length == 4) {
       if (!"split".equals(args[2])) {
@@ -79,7 +180,7 @@ public class ImageMap implements ImageProcessor {
 
 
     String imageName = args[0];
-    Image currentImage = this.getImage(imageName);
+    Image currentImage = this.getStored(imageName);
     Image channelImage;
     String destinationImage;
 
@@ -87,8 +188,8 @@ public class ImageMap implements ImageProcessor {
       channelImage = currentImage.channelComponent(null, channel);
       destinationImage = args[1];
     } else if (args.length == 3) {
-      Image maskImage = getImage(args[1]);
-      channelImage = currentImage.channelComponent(maskImage, channel);
+      Mask mask = Mask.of(getImage(args[1]));
+      channelImage = currentImage.channelComponent(mask, channel);
       destinationImage = args[2];
     } else if (args.length == 4) {
       if (!"split".equals(args[2])) {
@@ -111,7 +212,7 @@ public class ImageMap implements ImageProcessor {
   public void lumaGreyscale(String[] args) {
 
     String imageName = args[0];
-    Image currentImage = this.getImage(imageName);
+    Image currentImage = this.getStored(imageName);
     Image lumaImage;
     String destinationImage;
 
@@ -119,8 +220,8 @@ public class ImageMap implements ImageProcessor {
       lumaImage = currentImage.lumaComponent(null);
       destinationImage = args[1];
     } else if (args.length == 3) {
-      Image maskImage = getImage(args[1]);
-      lumaImage = currentImage.lumaComponent(maskImage);
+      Mask mask = Mask.of(getImage(args[1]));
+      lumaImage = currentImage.lumaComponent(mask);
       destinationImage = args[2];
     } else if (args.length == 4) {
       if (!"split".equals(args[2])) {
@@ -143,7 +244,7 @@ public class ImageMap implements ImageProcessor {
   public void valueGreyscale(String[] args) {
 
     String imageName = args[0];
-    Image currentImage = this.getImage(imageName);
+    Image currentImage = this.getStored(imageName);
     Image valueImage;
     String destinationImage;
 
@@ -151,8 +252,8 @@ public class ImageMap implements ImageProcessor {
       valueImage = currentImage.valueComponent(null);
       destinationImage = args[1];
     } else if (args.length == 3) {
-      Image maskImage = getImage(args[1]);
-      valueImage = currentImage.valueComponent(maskImage);
+      Mask mask = Mask.of(getImage(args[1]));
+      valueImage = currentImage.valueComponent(mask);
       destinationImage = args[2];
     } else if (args.length == 4) {
       if (!"split".equals(args[2])) {
@@ -175,7 +276,7 @@ public class ImageMap implements ImageProcessor {
   public void intensityGreyscale(String[] args) {
 
     String imageName = args[0];
-    Image currentImage = this.getImage(imageName);
+    Image currentImage = this.getStored(imageName);
     Image intensityImage;
     String destinationImage;
 
@@ -183,8 +284,8 @@ public class ImageMap implements ImageProcessor {
       intensityImage = currentImage.intensityComponent(null);
       destinationImage = args[1];
     } else if (args.length == 3) {
-      Image maskImage = getImage(args[1]);
-      intensityImage = currentImage.intensityComponent(maskImage);
+      Mask mask = Mask.of(getImage(args[1]));
+      intensityImage = currentImage.intensityComponent(mask);
       destinationImage = args[2];
     } else if (args.length == 4) {
       if (!"split".equals(args[2])) {
@@ -211,7 +312,7 @@ public class ImageMap implements ImageProcessor {
     String imageName = args[1];
     String destinationImage = args[2];
 
-    Image currentImage = this.getImage(imageName);
+    Image currentImage = this.getStored(imageName);
     Image brightenImage = currentImage.brighten(increment);
 
 
@@ -233,28 +334,56 @@ public class ImageMap implements ImageProcessor {
 
   @Override
   public void blur(String[] args) {
+    int radius = 1;
+    double sigma = 0;
+    boolean radiusGiven = false;
+    int first = 0;
+
+    // optional leading -radius and -sigma options
+    while (first + 1 < args.length
+            && (args[first].equals("-radius") || args[first].equals("-sigma"))) {
+      try {
+        if (args[first].equals("-radius")) {
+          radius = Integer.parseInt(args[first + 1]);
+          radiusGiven = true;
+        } else {
+          sigma = Double.parseDouble(args[first + 1]);
+        }
+      } catch (NumberFormatException e) {
+        throw new InputMismatchException("Invalid radius or sigma for blur.");
+      }
+      first += 2;
+    }
+    if (sigma > 0 && !radiusGiven) {
+      radius = 0;
+    }
+    args = Arrays.copyOfRange(args, first, args.length);
+    if (args.length < 2 || args.length > 4) {
+      // The options alone pass the check of the command, the images are counted here
+      throw new IllegalArgumentException("Invalid number of arguments for blur. " +
+              "Expected 2, 3, or 4 arguments.");
+    }
+
     String imageName = args[0];
-    Image currentImage = this.getImage(imageName);
+    Image currentImage = this.getStored(imageName);
     Image blurImage;
     String destinationImage;
 
     if (args.length == 2) {
-      blurImage = currentImage.blur(null);
+      blurImage = currentImage.blur(null, radius, sigma);
       destinationImage = args[1];
     } else if (args.length == 3) {
-      Image maskImage = getImage(args[1]);
-      blurImage = currentImage.blur(maskImage);
+      Mask mask = Mask.of(getImage(args[1]));
+      blurImage = currentImage.blur(mask, radius, sigma);
       destinationImage = args[2];
-    } else if (args.length == 4) {
+    } else {
       if (!"split".equals(args[2])) {
         throw new InputMismatchException("Mask not found.");
       }
       float widthPercentage = Float.parseFloat(args[3]);
-      blurImage = this.splitView(currentImage, currentImage.blur(null), widthPercentage);
+      blurImage = this.splitView(currentImage, currentImage.blur(null, radius, sigma),
+              widthPercentage);
       destinationImage = args[1];
-    } else {
-      throw new IllegalArgumentException("Invalid number of arguments for blur. " +
-              "Expected 2, 3, or 4 arguments.");
     }
 
     this.putImage(destinationImage, blurImage);
@@ -266,7 +395,7 @@ public class ImageMap implements ImageProcessor {
   public void sharpen(String[] args) {
 
     String imageName = args[0];
-    Image currentImage = this.getImage(imageName);
+    Image currentImage = this.getStored(imageName);
     Image sharpenImage;
     String destinationImage;
 
@@ -274,8 +403,8 @@ public class ImageMap implements ImageProcessor {
       sharpenImage = currentImage.sharpen(null);
       destinationImage = args[1];
     } else if (args.length == 3) {
-      Image maskImage = getImage(args[1]);
-      sharpenImage = currentImage.sharpen(maskImage);
+      Mask mask = Mask.of(getImage(args[1]));
+      sharpenImage = currentImage.sharpen(mask);
       destinationImage = args[2];
     } else if (args.length == 4) {
       if (!"split".equals(args[2])) {
@@ -294,15 +423,47 @@ public class ImageMap implements ImageProcessor {
 
   }
 
+  @Override
+  public void convolve(Kernel kernel, String[] args) {
+
+    String imageName = args[0];
+    Image currentImage = this.getStored(imageName);
+    Image convolvedImage;
+    String destinationImage;
+
+    if (args.length == 2) {
+      convolvedImage = currentImage.convolve(null, kernel);
+      destinationImage = args[1];
+    } else if (args.length == 3) {
+      Mask mask = Mask.of(getImage(args[1]));
+      convolvedImage = currentImage.convolve(mask, kernel);
+      destinationImage = args[2];
+    } else if (args.length == 4) {
+      if (!"split".equals(args[2])) {
+        throw new InputMismatchException("Mask not found.");
+      }
+      float widthPercentage = Float.parseFloat(args[3]);
+      convolvedImage = this.splitView(currentImage, currentImage.convolve(null, kernel),
+              widthPercentage);
+      destinationImage = args[1];
+    } else {
+      throw new IllegalArgumentException("Invalid number of arguments for convolve. " +
+              "Expected 2, 3, or 4 arguments.");
+    }
+
+    this.putImage(destinationImage, convolvedImage);
+
+  }
+
   @Override
   public void horizontalFlip(String imgName, String destImgName) {
-    this.putImage(destImgName, this.getImage(imgName).flip("horizontal"));
+    this.putImage(destImgName, this.getStored(imgName).flip("horizontal"));
 
   }
 
   @Override
   public void verticalFlip(String imgName, String destImgName) {
-    this.putImage(destImgName, this.getImage(imgName).flip("vertical"));
+    this.putImage(destImgName, this.getStored(imgName).flip("vertical"));
 
   }
 
@@ -310,7 +471,7 @@ public class ImageMap implements ImageProcessor {
   public void rgbSplit(String imageName, String redImageName, String greenImageName,
                        String blueImageName) {
 
-    Image currentImage = this.getImage(imageName);
+    Image currentImage = this.getStored(imageName);
 
     List<Image> images = currentImage.rgbSplit();
 
@@ -340,7 +501,7 @@ public class ImageMap implements ImageProcessor {
     String imageName = args[0];
     String destinationImage = args[1];
 
-    Image sourceImage = this.getImage(imageName);
+    Image sourceImage = this.getStored(imageName);
 
     ExtendedImage extendedRGB = this.getExtendedImage(sourceImage);
     Image colorCorrected = extendedRGB.colorCorrect();
@@ -365,7 +526,8 @@ public class ImageMap implements ImageProcessor {
   @Override
   public void compress(double percentage, String imgName, String destImgName) {
 
-    Image sourceImage = this.getImage(imgName);
+    Image sourceImage = this.getStored(imgName);
+    this.checkInMemory(sourceImage, "Compress", imgName);
     ExtendedImage extendedRGB = this.getExtendedImage(sourceImage);
 
     this.putImage(destImgName, extendedRGB.compress(percentage));
@@ -374,7 +536,7 @@ public class ImageMap implements ImageProcessor {
 
   @Override
   public void histogram(String imgName, String destImgName) {
-    Image sourceImage = this.getImage(imgName);
+    Image sourceImage = this.getStored(imgName);
     ExtendedImage extendedRGB = this.getExtendedImage(sourceImage);
     this.putImage(destImgName, extendedRGB.histogram());
   }
@@ -396,7 +558,7 @@ public class ImageMap implements ImageProcessor {
     String imgName = args[3];
     String destImgName = args[4];
 
-    Image currentImage = this.getImage(imgName);
+    Image currentImage = this.getStored(imgName);
     ExtendedImage imageV2 = this.getExtendedImage(currentImage);
     Image levelAdjusted = imageV2.levelsAdjust(black, mid, white);
 
@@ -417,7 +579,7 @@ public class ImageMap implements ImageProcessor {
   public void downScaling(int newHeight, int newWidth, String imageName,
                           String destinationImageName) {
 
-    Image sourceImage = this.getImage(imageName);
+    Image sourceImage = this.getStored(imageName);
     ExtendedImage extendedRGB = this.getExtendedImage(sourceImage);
     this.putImage(destinationImageName, extendedRGB.downScaling(newHeight, newWidth));
 
@@ -427,7 +589,8 @@ public class ImageMap implements ImageProcessor {
   public void dither(String[] args) {
 
     String imageName = args[0];
-    Image currentImage = this.getImage(imageName);
+    Image currentImage = this.getStored(imageName);
+    this.checkInMemory(currentImage, "Dither", imageName);
     ExtendedImage extendedRGB = this.getExtendedImage(currentImage);
 
     Image ditherImage;
@@ -465,18 +628,15 @@ public class ImageMap implements ImageProcessor {
 
     int percentageWidth = (int) (currentImage.getWidth() * (widthPercentage / 100));
 
-    int[][][] filteredChannels = filteredImage.getChannels();
-    int[][][] originalChannels = currentImage.getChannels();
-
     for (int i = 0; i < currentImage.getHeight(); i++) {
       for (int j = 0; j < currentImage.getWidth(); j++) {
         for (int channel = 0; channel < 3; channel++) {
           if (j == percentageWidth) {
             previewImage.setPixelValue(channel, i, j, 0);
           } else if (j < percentageWidth) {
-            previewImage.setPixelValue(channel, i, j, filteredChannels[channel][i][j]);
+            previewImage.setPixelValue(channel, i, j, filteredImage.getPixelValue(channel, i, j));
           } else {
-            previewImage.setPixelValue(channel, i, j, originalChannels[channel][i][j]);
+            previewImage.setPixelValue(channel, i, j, currentImage.getPixelValue(channel, i, j));
           }
         }
       }
@@ -486,19 +646,34 @@ public class ImageMap implements ImageProcessor {
   }
 
 
+  /* Rejects a tiled image for an operation which needs the whole image in memory */
+  private void checkInMemory(Image image, String operation, String imageName) {
+    if (image instanceof TiledImage) {
+      throw new IllegalArgumentException(operation + " needs the whole image in memory, "
+              + imageName + " is too large and was loaded as tiles");
+    }
+  }
+
   /* Converts an Image to ExtendedImage when given an Image object  */
   private ExtendedImage getExtendedImage(Image image) {
+    if (image instanceof ExtendedImage) {
+      // Operations never modify their source, so the image can be used as it is
+      return (ExtendedImage) image;
+    }
     int height = image.getHeight();
     int width = image.getWidth();
 
-    int[][][] channels = image.getChannels();
-
     ExtendedRGB extendedImage = new ExtendedRGB(width, height);
 
+    if (image instanceof AbstractImage) {
+      extendedImage.getPixelBuffer().copyFrom(((AbstractImage) image).getPixelBuffer());
+      return extendedImage;
+    }
+
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
         for (int c = 0; c < 3; c++) {
-          extendedImage.setPixelValue(c, i, j, channels[c][i][j]);
+          extendedImage.setPixelValue(c, i, j, image.getPixelValue(c, i, j));
         }
       }
     }
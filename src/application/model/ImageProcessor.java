@@ -1,5 +1,7 @@
 package application.model;
 
+import application.model.utils.Kernel;
+
 /**
  * This interface represents the core functionality for processing and manipulating images.
  */
@@ -23,6 +25,30 @@ public interface ImageProcessor {
    */
   Image getImage(String imageName) throws IllegalArgumentException;
 
+  /**
+   * Removes the image with the given name, freeing its memory. Removing a name without an image
+   * does nothing.
+   *
+   * @param imageName the identifier of the image.
+   */
+  void removeImage(String imageName);
+
+  /**
+   * Returns the bytes of pixels the image with the given name holds in memory, without computing
+   * the pixels of an image whose operations are deferred. Images keeping their pixels on disk
+   * hold none.
+   *
+   * @param imageName the identifier of the image.
+   * @return the bytes of pixels of the image, 0 if the identifier has no image mapped to it.
+   */
+  long getPixelBytes(String imageName);
+
+  /**
+   * Removes every image, freeing their memory and any files holding their pixels. Used when the
+   * images of a model are no longer needed but the process goes on.
+   */
+  void clear();
+
   /**
    * Applies a sepia tone effect to the image specified in the arguments.
    *
@@ -80,6 +106,14 @@ public interface ImageProcessor {
    */
   void sharpen(String[] args);
 
+  /**
+   * Convolves the image specified in the arguments with the given kernel.
+   *
+   * @param kernel the kernel to convolve the image with.
+   * @param args   an array of strings containing argument related to convolve operation.
+   */
+  void convolve(Kernel kernel, String[] args);
+
   /**
    * Flips the image horizontally.
    *
@@ -0,0 +1,273 @@
+package application.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The named images of an {@link ImageMap}, kept within a memory budget.
+ * The store tracks the bytes of pixels held by each image. When the images in memory exceed the
+ * budget, the least recently used ones are spilled to a file holding their raw 8-bit samples and
+ * read back the next time they are asked for. The most recently stored or read image always stays
+ * in memory, even if it is larger than the whole budget. Tiled images already keep their pixels
+ * on disk and are never spilled. The deferred images of a lazy map are computed when they are
+ * spilled and read back as deferred images with nothing left to run, so that a lazy map stays
+ * within its budget too.
+ */
+final class ImageStore {
+
+  /* Per image bookkeeping besides the pixels, so that many tiny images are not free */
+  private static final long OVERHEAD = 256;
+
+  /* The directory of the spill files of every store, emptied when the process exits */
+  private static File spillDirectory;
+
+  private final long budget;
+  private final LinkedHashMap<String, Entry> entries;
+  private long memoryBytes;
+  private long hits;
+  private long spills;
+  private long reloads;
+
+  /* A stored image, or the file it was spilled to */
+  private static final class Entry {
+    private Image image;
+    private final long bytes;
+    private final boolean spillable;
+    private final boolean deferred;
+    private boolean extended;
+    private String contentId;
+    private File spillFile;
+
+    Entry(Image image, long bytes, boolean spillable) {
+      this.image = image;
+      this.bytes = bytes;
+      this.spillable = spillable;
+      this.deferred = image instanceof DeferredImage;
+      this.extended = image instanceof ExtendedRGB;
+    }
+  }
+
+  /**
+   * Creates an empty store.
+   *
+   * @param budget the bytes of pixels kept in memory before images are spilled to disk.
+   */
+  ImageStore(long budget) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("Memory budget must be greater than 0");
+    }
+    this.budget = budget;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns the image stored under a name, reading it back from disk if it was spilled.
+   *
+   * @param name the name of the image.
+   * @return the image, or null if no image has this name.
+   */
+  synchronized Image get(String name) {
+    Entry entry = entries.get(name);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.image != null) {
+      hits++;
+      return entry.image;
+    }
+    entry.image = reload(entry);
+    memoryBytes += entry.bytes;
+    reloads++;
+    evict(entry);
+    return entry.image;
+  }
+
+  /**
+   * Stores an image under a name, replacing any image stored under it before.
+   *
+   * @param name  the name of the image.
+   * @param image the image to store.
+   */
+  synchronized void put(String name, Image image) {
+    remove(name);
+    Entry entry = image instanceof AbstractImage
+            ? new Entry(image, ((AbstractImage) image).getPixelBuffer().getData().length
+            + OVERHEAD, true)
+            : new Entry(image, image instanceof TiledImage ? OVERHEAD
+            : 3L * image.getWidth() * image.getHeight() + OVERHEAD,
+            image instanceof DeferredImage);
+    entries.put(name, entry);
+    memoryBytes += entry.bytes;
+    evict(entry);
+  }
+
+  /**
+   * Removes the image stored under a name and deletes its spill file.
+   *
+   * @param name the name of the image.
+   */
+  synchronized void remove(String name) {
+    Entry entry = entries.remove(name);
+    if (entry != null) {
+      discard(entry);
+    }
+  }
+
+  /**
+   * Removes every image and deletes their spill files, so a store dropped by a process which goes
+   * on leaves no files behind.
+   */
+  synchronized void clear() {
+    for (Entry entry : entries.values()) {
+      discard(entry);
+    }
+    entries.clear();
+  }
+
+  /**
+   * Returns the bytes of pixels of the image stored under a name, without reading it back if it
+   * was spilled. Tiled images count none, their pixels are on disk.
+   *
+   * @param name the name of the image.
+   * @return the bytes of pixels, or 0 if no image has this name.
+   */
+  synchronized long getPixelBytes(String name) {
+    Entry entry = entries.get(name);
+    return entry == null ? 0 : entry.bytes - OVERHEAD;
+  }
+
+  /**
+   * Returns whether an image is stored under a name, without reading it back if it was spilled.
+   *
+   * @param name the name of the image.
+   * @return true if an image has this name.
+   */
+  synchronized boolean contains(String name) {
+    return entries.containsKey(name);
+  }
+
+  /**
+   * Returns the content id recorded for the image stored under a name.
+   *
+   * @param name the name of the image.
+   * @return the content id, or null if none was recorded or no image has this name.
+   */
+  synchronized String getContentId(String name) {
+    Entry entry = entries.get(name);
+    return entry == null ? null : entry.contentId;
+  }
+
+  /**
+   * Records the content id of the image stored under a name. The id is kept while the image is
+   * spilled and dropped when another image is stored under the name.
+   *
+   * @param name      the name of the image.
+   * @param contentId the content id of the image.
+   */
+  synchronized void setContentId(String name, String contentId) {
+    Entry entry = entries.get(name);
+    if (entry != null) {
+      entry.contentId = contentId;
+    }
+  }
+
+  /**
+   * Returns a snapshot of the usage counters of this store.
+   *
+   * @return the statistics of the store.
+   */
+  synchronized StoreStatistics getStatistics() {
+    return new StoreStatistics(hits, spills, reloads, memoryBytes, budget);
+  }
+
+  /* Spills the least recently used images until the rest fit in the budget */
+  private void evict(Entry keep) {
+    Iterator<Entry> eldest = entries.values().iterator();
+    while (memoryBytes > budget && eldest.hasNext()) {
+      Entry entry = eldest.next();
+      if (entry != keep && entry.image != null && entry.spillable) {
+        spill(entry);
+      }
+    }
+  }
+
+  /*
+   * Writes the samples of an image to its spill file, unless the file already holds them from an
+   * earlier spill. Stored images are never modified, so a file stays valid once written. A
+   * deferred image is computed first, its operations are not kept.
+   */
+  private void spill(Entry entry) {
+    if (entry.spillFile == null) {
+      try {
+        AbstractImage pixels = entry.deferred ? ((DeferredImage) entry.image).materialize()
+                : (AbstractImage) entry.image;
+        File file = File.createTempFile("image", ".spill", spillDirectory());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+          RawImageFile.write(channel, pixels);
+        }
+        entry.extended = pixels instanceof ExtendedRGB;
+        entry.spillFile = file;
+      } catch (IOException e) {
+        // Keep the image in memory rather than lose it.
+        return;
+      }
+    }
+    entry.image = null;
+    memoryBytes -= entry.bytes;
+    spills++;
+  }
+
+  /* Reads a spilled image back from its file, as a deferred image if it was stored as one */
+  private Image reload(Entry entry) {
+    try (FileChannel channel = FileChannel.open(entry.spillFile.toPath(),
+            StandardOpenOption.READ)) {
+      AbstractImage image = RawImageFile.read(channel, entry.extended);
+      return entry.deferred ? new DeferredImage(image) : image;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot read back spilled image " + entry.spillFile, e);
+    }
+  }
+
+  /*
+   * The directory spill files are created in. Files removed with their image are deleted at
+   * once, a single exit hook deletes the others, rather than one exit entry per file which would
+   * pile up in a process running for a long time.
+   */
+  private static synchronized File spillDirectory() throws IOException {
+    if (spillDirectory == null) {
+      File directory = Files.createTempDirectory("image-spill").toFile();
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        File[] files = directory.listFiles();
+        if (files != null) {
+          for (File file : files) {
+            file.delete();
+          }
+        }
+        directory.delete();
+      }));
+      spillDirectory = directory;
+    }
+    return spillDirectory;
+  }
+
+  /* Releases the memory and spill file of an image which is no longer stored */
+  private void discard(Entry entry) {
+    if (entry.image != null) {
+      memoryBytes -= entry.bytes;
+    }
+    if (entry.spillFile != null) {
+      try {
+        Files.deleteIfExists(entry.spillFile.toPath());
+      } catch (IOException e) {
+        // the file is deleted with the spill directory on exit.
+      }
+    }
+  }
+}
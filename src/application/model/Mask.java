@@ -0,0 +1,223 @@
+package application.model;
+
+import java.util.Arrays;
+
+/**
+ * A compact black and white mask for partial image manipulation.
+ * A pixel is selected unless it is white (255 in all three channels) in the mask image. The
+ * selected pixels of each row are stored as run-length spans, and the bounding box of all the
+ * selected pixels is computed once, so that masked operations can process only the selected
+ * spans and bulk copy everything else.
+ */
+public final class Mask {
+
+  private static final int[] NO_RUNS = new int[0];
+
+  private final int width;
+  private final int height;
+  private final int[][] runs;
+  private final int top;
+  private final int bottom;
+  private final int left;
+  private final int right;
+
+  private Mask(int width, int height, int[][] runs) {
+    this.width = width;
+    this.height = height;
+    this.runs = runs;
+
+    int top = height;
+    int bottom = 0;
+    int left = width;
+    int right = 0;
+    for (int row = 0; row < height; row++) {
+      int[] spans = runs[row];
+      if (spans.length > 0) {
+        top = Math.min(top, row);
+        bottom = row + 1;
+        left = Math.min(left, spans[0]);
+        right = Math.max(right, spans[spans.length - 1]);
+      }
+    }
+    if (bottom == 0) {
+      top = 0;
+      left = 0;
+    }
+    this.top = top;
+    this.bottom = bottom;
+    this.left = left;
+    this.right = right;
+  }
+
+  /**
+   * Reads a mask from an RGB mask image.
+   *
+   * @param image the mask image, where white pixels are not selected.
+   * @return the mask.
+   */
+  public static Mask of(Image image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    int[] spans = new int[width + 1];
+    int[][] runs = new int[height][];
+
+    for (int row = 0; row < height; row++) {
+      image.getRow(0, row, red);
+      image.getRow(1, row, green);
+      image.getRow(2, row, blue);
+      int count = 0;
+      int x = 0;
+      while (x < width) {
+        while (x < width && red[x] == 255 && green[x] == 255 && blue[x] == 255) {
+          x++;
+        }
+        if (x == width) {
+          break;
+        }
+        spans[count++] = x;
+        while (x < width && !(red[x] == 255 && green[x] == 255 && blue[x] == 255)) {
+          x++;
+        }
+        spans[count++] = x;
+      }
+      runs[row] = count == 0 ? NO_RUNS : Arrays.copyOf(spans, count);
+    }
+    return new Mask(width, height, runs);
+  }
+
+  /**
+   * Returns the part of this mask covering the given rectangle, as a mask of the rectangle's size.
+   *
+   * @param left   the first column of the rectangle.
+   * @param top    the first row of the rectangle.
+   * @param width  the width of the rectangle.
+   * @param height the height of the rectangle.
+   * @return the mask of the rectangle.
+   */
+  public Mask region(int left, int top, int width, int height) {
+    int[][] rows = new int[height][];
+    int[] spans = new int[width + 1];
+    for (int row = 0; row < height; row++) {
+      int[] source = runs[top + row];
+      int count = 0;
+      for (int i = 0; i < source.length; i += 2) {
+        int start = Math.max(source[i], left) - left;
+        int end = Math.min(source[i + 1], left + width) - left;
+        if (start < end) {
+          spans[count++] = start;
+          spans[count++] = end;
+        }
+      }
+      rows[row] = count == 0 ? NO_RUNS : Arrays.copyOf(spans, count);
+    }
+    return new Mask(width, height, rows);
+  }
+
+  /**
+   * Returns the width of the mask.
+   *
+   * @return the width.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the mask.
+   *
+   * @return the height.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the selected spans of a row as pairs of a start column (inclusive) and an end column
+   * (exclusive), in increasing order. The returned array is shared and must not be modified.
+   *
+   * @param row the row.
+   * @return the spans of the row, empty when nothing in the row is selected.
+   */
+  public int[] getRuns(int row) {
+    return runs[row];
+  }
+
+  /**
+   * Returns true if the pixel at the given row and column is selected.
+   *
+   * @param row the row.
+   * @param col the column.
+   * @return true if the pixel is selected.
+   */
+  public boolean isSelected(int row, int col) {
+    int[] spans = runs[row];
+    for (int i = 0; i < spans.length && spans[i] <= col; i += 2) {
+      if (col < spans[i + 1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if no pixel is selected.
+   *
+   * @return true if the mask is empty.
+   */
+  public boolean isEmpty() {
+    return bottom == 0;
+  }
+
+  /**
+   * Returns the first row of the bounding box of the selected pixels.
+   *
+   * @return the top row, inclusive.
+   */
+  public int getTop() {
+    return top;
+  }
+
+  /**
+   * Returns the row after the last row of the bounding box of the selected pixels.
+   *
+   * @return the bottom row, exclusive.
+   */
+  public int getBottom() {
+    return bottom;
+  }
+
+  /**
+   * Returns the first column of the bounding box of the selected pixels.
+   *
+   * @return the left column, inclusive.
+   */
+  public int getLeft() {
+    return left;
+  }
+
+  /**
+   * Returns the column after the last column of the bounding box of the selected pixels.
+   *
+   * @return the right column, exclusive.
+   */
+  public int getRight() {
+    return right;
+  }
+
+  /**
+   * Checks that the mask has the given size.
+   *
+   * @param width  the width of the image the mask is applied to.
+   * @param height the height of the image the mask is applied to.
+   * @throws IllegalArgumentException if the sizes differ.
+   */
+  public void checkSize(int width, int height) {
+    if (width != this.width || height != this.height) {
+      throw new IllegalArgumentException("Mask must have the same dimensions as the image");
+    }
+  }
+
+}
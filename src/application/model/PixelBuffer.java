@@ -0,0 +1,146 @@
+package application.model;
+
+/**
+ * A flat store for the samples of an N-channel image.
+ * Samples are kept one byte each in a single row-major array with the channels of a pixel
+ * interleaved, i.e. the sample at (channel, row, col) lives at
+ * {@code (row * width + col) * numberOfChannels + channel}. Values are stored as unsigned bytes,
+ * so callers are expected to clamp them to the 0 - 255 range before writing.
+ */
+public final class PixelBuffer {
+
+  private final byte[] data;
+  private final int width;
+  private final int height;
+  private final int numberOfChannels;
+
+  /**
+   * Creates a zero filled buffer for an image of the given size.
+   *
+   * @param numberOfChannels the number of channels per pixel.
+   * @param width            the width of the image.
+   * @param height           the height of the image.
+   */
+  public PixelBuffer(int numberOfChannels, int width, int height) {
+    if (numberOfChannels <= 0 || width < 0 || height < 0) {
+      throw new IllegalArgumentException("Invalid pixel buffer dimensions");
+    }
+    this.numberOfChannels = numberOfChannels;
+    this.width = width;
+    this.height = height;
+    this.data = new byte[Math.multiplyExact(Math.multiplyExact(width, height), numberOfChannels)];
+  }
+
+  /**
+   * Returns the width of the buffer in pixels.
+   *
+   * @return the width.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the buffer in pixels.
+   *
+   * @return the height.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the number of interleaved channels per pixel.
+   *
+   * @return the number of channels.
+   */
+  public int getNumberOfChannels() {
+    return numberOfChannels;
+  }
+
+  /**
+   * Returns the backing array. Writes to the array are visible in the buffer.
+   *
+   * @return the interleaved samples of the buffer.
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * Returns the array offset of the first sample of the pixel at the given row and column.
+   *
+   * @param row the row of the pixel.
+   * @param col the column of the pixel.
+   * @return the offset of the pixel in {@link #getData()}.
+   */
+  public int offset(int row, int col) {
+    return (row * width + col) * numberOfChannels;
+  }
+
+  /**
+   * Returns the sample at the given channel, row and column.
+   *
+   * @param channel the channel.
+   * @param row     the row.
+   * @param col     the column.
+   * @return the sample value between 0 and 255.
+   */
+  public int get(int channel, int row, int col) {
+    return data[offset(row, col) + channel] & 0xff;
+  }
+
+  /**
+   * Sets the sample at the given channel, row and column.
+   *
+   * @param channel the channel.
+   * @param row     the row.
+   * @param col     the column.
+   * @param value   the value to store, only the low 8 bits are kept.
+   */
+  public void set(int channel, int row, int col, int value) {
+    data[offset(row, col) + channel] = (byte) value;
+  }
+
+  /**
+   * Copies one row of a channel into the given array.
+   *
+   * @param channel the channel to read.
+   * @param row     the row to read.
+   * @param dst     an array of at least width elements.
+   */
+  public void getRow(int channel, int row, int[] dst) {
+    int index = offset(row, 0) + channel;
+    for (int x = 0; x < width; x++, index += numberOfChannels) {
+      dst[x] = data[index] & 0xff;
+    }
+  }
+
+  /**
+   * Copies the given array into one row of a channel.
+   *
+   * @param channel the channel to write.
+   * @param row     the row to write.
+   * @param src     an array of at least width elements.
+   */
+  public void setRow(int channel, int row, int[] src) {
+    int index = offset(row, 0) + channel;
+    for (int x = 0; x < width; x++, index += numberOfChannels) {
+      data[index] = (byte) src[x];
+    }
+  }
+
+  /**
+   * Copies the contents of another buffer of the same shape into this buffer.
+   *
+   * @param other the buffer to copy from.
+   */
+  public void copyFrom(PixelBuffer other) {
+    if (other.width != width || other.height != height
+            || other.numberOfChannels != numberOfChannels) {
+      throw new IllegalArgumentException("Pixel buffers must have the same dimensions");
+    }
+    System.arraycopy(other.data, 0, data, 0, data.length);
+  }
+
+}
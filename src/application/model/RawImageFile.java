@@ -0,0 +1,90 @@
+package application.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads and writes the raw 8-bit samples of images, for the spill files of the {@link ImageStore}
+ * and the directory of a {@link ResultCache}. Each image is a 16 byte header holding a magic
+ * number, the number of channels, the width and the height, followed by the interleaved samples.
+ * Several images may follow each other in one file.
+ */
+final class RawImageFile {
+
+  private static final int HEADER = 16;
+  private static final int MAGIC = 0x53504c31;
+
+  private RawImageFile() {
+  }
+
+  /**
+   * Writes the samples of an image at the position of a channel.
+   *
+   * @param channel the channel to write to.
+   * @param image   the image to write.
+   * @throws IOException if the channel cannot be written.
+   */
+  static void write(WritableByteChannel channel, AbstractImage image) throws IOException {
+    PixelBuffer pixels = image.getPixelBuffer();
+    ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC)
+            .putInt(pixels.getNumberOfChannels()).putInt(pixels.getWidth())
+            .putInt(pixels.getHeight()).flip();
+    writeFully(channel, header);
+    writeFully(channel, ByteBuffer.wrap(pixels.getData()));
+  }
+
+  /**
+   * Reads an image written by {@link #write} from the position of a channel.
+   *
+   * @param channel  the channel to read from.
+   * @param extended true to read an {@link ExtendedRGB}, false for an {@link RGBImage}.
+   * @return the image.
+   * @throws IOException if the channel cannot be read or does not hold an image.
+   */
+  static RGBImage read(ReadableByteChannel channel, boolean extended) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER);
+    readFully(channel, header);
+    header.flip();
+    if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+      throw new IOException("Not a raw image");
+    }
+    header.getInt();
+    int width = header.getInt();
+    int height = header.getInt();
+    RGBImage image = extended ? new ExtendedRGB(width, height) : new RGBImage(width, height);
+    ByteBuffer data = ByteBuffer.wrap(image.getPixelBuffer().getData());
+    readFully(channel, data);
+    if (data.hasRemaining()) {
+      throw new IOException("Truncated raw image");
+    }
+    return image;
+  }
+
+  /**
+   * Writes all remaining bytes of a buffer.
+   *
+   * @param channel the channel to write to.
+   * @param buffer  the bytes to write.
+   * @throws IOException if the channel cannot be written.
+   */
+  static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Reads until the buffer is full or the channel ends.
+   *
+   * @param channel the channel to read from.
+   * @param buffer  the buffer to fill.
+   * @throws IOException if the channel cannot be read.
+   */
+  static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+      // keep reading until the buffer is complete.
+    }
+  }
+}
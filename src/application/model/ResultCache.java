@@ -0,0 +1,315 @@
+package application.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The results of earlier operations, keyed by the operation, its parameters and the content of
+ * the images it reads. The results are kept in memory up to a number of bytes, evicting the least
+ * recently used ones, and are optionally written to a directory so that later runs find them too.
+ * A {@link CachedImageProcessor} puts the cache in front of the operations of an image map.
+ * Results in memory keep their pixels even when an image map spills the same images, so the size
+ * of the cache is taken out of the memory budget of the maps rather than added to it.
+ */
+public final class ResultCache {
+
+  private static final long OVERHEAD = 256;
+  private static final int MAGIC = 0x52455331;
+
+  private final long maxBytes;
+  private final File directory;
+  private final LinkedHashMap<String, Entry> entries;
+  private long bytes;
+  private long hits;
+  private long diskHits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * The images an operation stored, in the order of its destinations.
+   */
+  static final class Entry {
+    final Image[] images;
+    private final long bytes;
+
+    Entry(Image[] images) {
+      this.images = images;
+      long total = OVERHEAD;
+      for (Image image : images) {
+        total += 3L * image.getWidth() * image.getHeight() + OVERHEAD;
+      }
+      this.bytes = total;
+    }
+  }
+
+  /**
+   * Creates an empty cache held in memory only.
+   *
+   * @param maxBytes the bytes of results kept in memory.
+   * @throws IllegalArgumentException if the size is not positive.
+   */
+  public ResultCache(long maxBytes) {
+    this(maxBytes, null);
+  }
+
+  /**
+   * Creates a cache which also keeps its results in a directory, reading the results stored there
+   * by earlier runs when they are asked for.
+   *
+   * @param maxBytes  the bytes of results kept in memory.
+   * @param directory the directory for the results, created if missing, or null for none.
+   * @throws IllegalArgumentException if the size is not positive or the directory cannot be used.
+   */
+  public ResultCache(long maxBytes, File directory) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("Cache size must be greater than 0");
+    }
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create cache directory " + directory);
+    }
+    this.maxBytes = maxBytes;
+    this.directory = directory;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns the results cached for a key, from memory or else from the cache directory.
+   *
+   * @param key the key of the operation.
+   * @return the results, or null if none are cached.
+   */
+  Entry get(String key) {
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        hits++;
+        return entry;
+      }
+    }
+    // Files are read outside the lock, operations on other keys go on meanwhile
+    Entry entry = readEntry(key);
+    synchronized (this) {
+      if (entry == null) {
+        misses++;
+        return null;
+      }
+      diskHits++;
+      add(key, entry);
+      return entry;
+    }
+  }
+
+  /**
+   * Caches the results of an operation and writes them to the cache directory if there is one.
+   *
+   * @param key   the key of the operation.
+   * @param entry the results of the operation.
+   */
+  void put(String key, Entry entry) {
+    synchronized (this) {
+      add(key, entry);
+    }
+    writeEntry(key, entry);
+  }
+
+  /**
+   * Returns the number of operations answered from memory.
+   *
+   * @return the hits.
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of operations answered from the cache directory.
+   *
+   * @return the disk hits.
+   */
+  public synchronized long getDiskHits() {
+    return diskHits;
+  }
+
+  /**
+   * Returns the number of operations which had to run.
+   *
+   * @return the misses.
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Returns the number of results evicted from memory to stay within the size.
+   *
+   * @return the evictions.
+   */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("hits %d, disk hits %d, misses %d, evictions %d, %.1f of %.1f MB",
+            hits, diskHits, misses, evictions, bytes / 1048576.0, maxBytes / 1048576.0);
+  }
+
+  /**
+   * Returns the content id of an image, a hash of its size and samples.
+   *
+   * @param image the image.
+   * @return the content id, or null for images too large to hash, which are not cached.
+   */
+  static String contentId(Image image) {
+    if (image instanceof DeferredImage) {
+      image = ((DeferredImage) image).materialize();
+    }
+    if (!(image instanceof AbstractImage)) {
+      return null;
+    }
+    PixelBuffer pixels = ((AbstractImage) image).getPixelBuffer();
+    MessageDigest digest = sha256();
+    digest.update(ByteBuffer.allocate(12).putInt(pixels.getNumberOfChannels())
+            .putInt(pixels.getWidth()).putInt(pixels.getHeight()).flip());
+    digest.update(pixels.getData());
+    return hex(digest.digest());
+  }
+
+  /**
+   * Returns the content id of a result of an operation. The id follows from the key, which holds
+   * the content ids of the inputs, so results never need to be hashed.
+   *
+   * @param key    the key of the operation.
+   * @param output the index of the result among the destinations of the operation.
+   * @return the content id of the result.
+   */
+  static String derivedId(String key, int output) {
+    return hash(key + " -> " + output);
+  }
+
+  /* Adds an entry in memory and evicts the least recently used ones beyond the size */
+  private void add(String key, Entry entry) {
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      bytes -= previous.bytes;
+    }
+    bytes += entry.bytes;
+    Iterator<Entry> eldest = entries.values().iterator();
+    while (bytes > maxBytes && eldest.hasNext()) {
+      Entry evicted = eldest.next();
+      if (evicted != entry) {
+        eldest.remove();
+        bytes -= evicted.bytes;
+        evictions++;
+      }
+    }
+  }
+
+  /*
+   * Writes the results of an entry to a file named by the hash of its key: the number of
+   * results, then for each one whether it is extended and its samples.
+   * The file is written aside and moved in place, so readers never see half a file.
+   */
+  private void writeEntry(String key, Entry entry) {
+    if (directory == null) {
+      return;
+    }
+    try {
+      File file = File.createTempFile("result", ".tmp", directory);
+      try {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+          ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC)
+                  .putInt(entry.images.length).flip();
+          RawImageFile.writeFully(channel, header);
+          for (int i = 0; i < entry.images.length; i++) {
+            AbstractImage image = pixels(entry.images[i]);
+            ByteBuffer output = ByteBuffer.allocate(4)
+                    .putInt(image instanceof ExtendedRGB ? 1 : 0).flip();
+            RawImageFile.writeFully(channel, output);
+            RawImageFile.write(channel, image);
+          }
+        }
+        Files.move(file.toPath(), fileOf(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(file.toPath());
+      }
+    } catch (IOException e) {
+      // The results stay cached in memory, only later runs miss them.
+    }
+  }
+
+  /* Reads the results written for a key by writeEntry, or returns null if there are none */
+  private Entry readEntry(String key) {
+    if (directory == null) {
+      return null;
+    }
+    File file = fileOf(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(8);
+      RawImageFile.readFully(channel, header);
+      header.flip();
+      if (header.remaining() < 8 || header.getInt() != MAGIC) {
+        return null;
+      }
+      int count = header.getInt();
+      Image[] images = new Image[count];
+      for (int i = 0; i < count; i++) {
+        ByteBuffer output = ByteBuffer.allocate(4);
+        RawImageFile.readFully(channel, output);
+        output.flip();
+        if (output.remaining() < 4) {
+          return null;
+        }
+        images[i] = RawImageFile.read(channel, output.getInt() == 1);
+      }
+      return new Entry(images);
+    } catch (IOException e) {
+      // A damaged file is a miss, the result is computed and written again.
+      return null;
+    }
+  }
+
+  /* Returns the image holding the samples of a result */
+  private static AbstractImage pixels(Image image) {
+    return image instanceof DeferredImage ? ((DeferredImage) image).materialize()
+            : (AbstractImage) image;
+  }
+
+  private File fileOf(String key) {
+    return new File(directory, hash(key) + ".res");
+  }
+
+  private static String hash(String text) {
+    return hex(sha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 15, 16))
+              .append(Character.forDigit(b & 15, 16));
+    }
+    return builder.toString();
+  }
+}
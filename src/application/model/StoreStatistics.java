@@ -0,0 +1,84 @@
+package application.model;
+
+/**
+ * A snapshot of how the images of an {@link ImageMap} use memory.
+ * Hits count reads of images found in memory, spills count images moved to disk to stay within
+ * the memory budget and reloads count reads of spilled images. Frequent reloads mean the budget
+ * is too small for the working set of the scripts being run.
+ */
+public final class StoreStatistics {
+
+  private final long hits;
+  private final long spills;
+  private final long reloads;
+  private final long memoryBytes;
+  private final long budget;
+
+  /**
+   * Creates a snapshot of the given counters.
+   *
+   * @param hits        the reads served from memory.
+   * @param spills      the images spilled to disk.
+   * @param reloads     the reads of spilled images.
+   * @param memoryBytes the bytes of the images held in memory.
+   * @param budget      the memory budget in bytes.
+   */
+  public StoreStatistics(long hits, long spills, long reloads, long memoryBytes, long budget) {
+    this.hits = hits;
+    this.spills = spills;
+    this.reloads = reloads;
+    this.memoryBytes = memoryBytes;
+    this.budget = budget;
+  }
+
+  /**
+   * Returns the number of reads served from memory.
+   *
+   * @return the hits.
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of images spilled to disk.
+   *
+   * @return the spills.
+   */
+  public long getSpills() {
+    return spills;
+  }
+
+  /**
+   * Returns the number of reads of spilled images.
+   *
+   * @return the reloads.
+   */
+  public long getReloads() {
+    return reloads;
+  }
+
+  /**
+   * Returns the bytes of the images held in memory.
+   *
+   * @return the bytes in memory.
+   */
+  public long getMemoryBytes() {
+    return memoryBytes;
+  }
+
+  /**
+   * Returns the memory budget in bytes.
+   *
+   * @return the budget.
+   */
+  public long getBudget() {
+    return budget;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("hits %d, spills %d, reloads %d, %.1f of %.1f MB in memory", hits,
+            spills, reloads, memoryBytes / 1048576.0, budget / 1048576.0);
+  }
+}
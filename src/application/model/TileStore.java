@@ -0,0 +1,162 @@
+package application.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The pixel storage of a {@link TiledImage}.
+ * Every tile has a fixed slot in a scratch file which is memory mapped in chunks of up to 1 GB.
+ * A bounded LRU cache keeps the most recently used tiles on the heap as pixel buffers; a tile
+ * evicted from the cache is written back to its slot when it has been modified. Tiles that were
+ * never written read as zero, like a new pixel buffer. The scratch file is deleted when the store
+ * becomes unreachable or the JVM exits.
+ */
+final class TileStore {
+
+  private static final long CHUNK_LIMIT = 1L << 30;
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private final int width;
+  private final int height;
+  private final int tileSize;
+  private final int tilesAcross;
+  private final long slotBytes;
+  private final int tilesPerChunk;
+  private final MappedByteBuffer[] chunks;
+  private final Scratch scratch;
+  private final LinkedHashMap<Integer, Tile> cache;
+
+  /* A cached tile and whether it differs from its slot in the file */
+  private static final class Tile {
+    private final PixelBuffer pixels;
+    private boolean dirty;
+
+    Tile(PixelBuffer pixels) {
+      this.pixels = pixels;
+    }
+  }
+
+  /* The scratch file, closed and deleted by the cleaner */
+  private static final class Scratch implements Runnable {
+    private final Path path;
+    private final FileChannel channel;
+
+    Scratch(Path path, FileChannel channel) {
+      this.path = path;
+      this.channel = channel;
+    }
+
+    @Override
+    public void run() {
+      try {
+        channel.close();
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        // the file is also marked for deletion on exit.
+      }
+    }
+  }
+
+  /**
+   * Creates a store for an RGB image of the given size.
+   *
+   * @param width      the width of the image.
+   * @param height     the height of the image.
+   * @param tileSize   the width and height of a tile.
+   * @param cacheTiles the number of tiles kept on the heap.
+   */
+  TileStore(int width, int height, int tileSize, int cacheTiles) {
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.tilesAcross = (width + tileSize - 1) / tileSize;
+    int tilesDown = (height + tileSize - 1) / tileSize;
+    this.slotBytes = 3L * tileSize * tileSize;
+    this.tilesPerChunk = (int) Math.max(1, CHUNK_LIMIT / slotBytes);
+    long tiles = (long) tilesAcross * tilesDown;
+    this.chunks = new MappedByteBuffer[(int) ((tiles + tilesPerChunk - 1) / tilesPerChunk)];
+
+    try {
+      File file = File.createTempFile("tiles", ".bin");
+      file.deleteOnExit();
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      this.scratch = new Scratch(file.toPath(), channel);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot create the tile scratch file", e);
+    }
+    CLEANER.register(this, scratch);
+
+    this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Tile> eldest) {
+        if (size() <= cacheTiles) {
+          return false;
+        }
+        writeBack(eldest.getKey(), eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Returns the pixels of a tile. The buffer stays valid until the number of other tiles given
+   * to the cache size have been acquired from this store.
+   *
+   * @param tileX    the column of the tile.
+   * @param tileY    the row of the tile.
+   * @param modified true if the caller writes to the buffer.
+   * @return the pixels of the tile, sized to the part of the tile inside the image.
+   */
+  synchronized PixelBuffer acquire(int tileX, int tileY, boolean modified) {
+    int index = tileY * tilesAcross + tileX;
+    Tile tile = cache.get(index);
+    if (tile == null) {
+      int tileWidth = Math.min(tileSize, width - tileX * tileSize);
+      int tileHeight = Math.min(tileSize, height - tileY * tileSize);
+      tile = new Tile(new PixelBuffer(3, tileWidth, tileHeight));
+      chunk(index).get(offset(index), tile.pixels.getData());
+      cache.put(index, tile);
+    }
+    tile.dirty |= modified;
+    return tile.pixels;
+  }
+
+  /* Copies a modified tile into its slot */
+  private void writeBack(int index, Tile tile) {
+    if (tile.dirty) {
+      chunk(index).put(offset(index), tile.pixels.getData());
+      tile.dirty = false;
+    }
+  }
+
+  private int offset(int index) {
+    return (int) (index % tilesPerChunk * slotBytes);
+  }
+
+  /* Maps the chunk holding a tile slot on first use */
+  private MappedByteBuffer chunk(int index) {
+    int chunk = index / tilesPerChunk;
+    if (chunks[chunk] == null) {
+      long start = (long) chunk * tilesPerChunk * slotBytes;
+      long tiles = (long) tilesAcross * ((height + tileSize - 1) / tileSize);
+      long size = Math.min(tilesPerChunk, tiles - (long) chunk * tilesPerChunk) * slotBytes;
+      try {
+        chunks[chunk] = scratch.channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot map the tile scratch file", e);
+      }
+    }
+    return chunks[chunk];
+  }
+
+}
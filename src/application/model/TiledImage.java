@@ -0,0 +1,561 @@
+package application.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import application.model.utils.BorderPolicy;
+import application.model.utils.ColorMatrix;
+import application.model.utils.Convolution;
+import application.model.utils.HistogramUtil;
+import application.model.utils.Kernel;
+import application.model.utils.LookupTable;
+import application.model.utils.PixelProcessor;
+
+/**
+ * An RGB image stored out of core in square tiles, for images larger than the heap.
+ * The tiles live in a memory mapped scratch file and only a bounded number of them are cached on
+ * the heap at a time (see {@link TileStore}). Operations run one output tile at a time: point
+ * operations read the matching source tile, convolutions read the source tile together with a
+ * halo of the kernel radius, and flips and downscaling read the source regions they map to, so
+ * the results are the same as for an {@link ExtendedRGB} of the same pixels.
+ * Histograms and color correction count the values of the channels one tile at a time, and color
+ * correction then runs as a lookup table on each tile. Compression and dithering need the whole
+ * image at once and are not supported.
+ */
+public class TiledImage implements ExtendedImage {
+
+  /**
+   * The default width and height of a tile.
+   */
+  public static final int DEFAULT_TILE_SIZE = 512;
+
+  /**
+   * The most tiles of an image cached on the heap by default. Fewer are cached when they would
+   * take more than an eighth of the maximum heap.
+   */
+  public static final int DEFAULT_CACHE_TILES = 32;
+
+  /*
+   * A halo read touches at most 3 x 3 tiles of the source, so the cache must hold them all
+   * while a tile is processed.
+   */
+  private static final int MIN_CACHE_TILES = 9;
+
+  private final int width;
+  private final int height;
+  private final int tileSize;
+  private final int cacheTiles;
+  private final TileStore store;
+
+  /* Work producing one tile of a result */
+  private interface TileOp {
+    void apply(PixelBuffer tile, int x, int y);
+  }
+
+  /**
+   * Creates a black tiled image with the default tile and cache sizes.
+   *
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   */
+  public TiledImage(int width, int height) {
+    this(width, height, DEFAULT_TILE_SIZE, defaultCacheTiles(DEFAULT_TILE_SIZE));
+  }
+
+  /**
+   * Creates a black tiled image.
+   *
+   * @param width      the width of the image.
+   * @param height     the height of the image.
+   * @param tileSize   the width and height of a tile.
+   * @param cacheTiles the number of tiles cached on the heap, at least 9.
+   */
+  public TiledImage(int width, int height, int tileSize, int cacheTiles) {
+    if (width <= 0 || height <= 0 || tileSize <= 0) {
+      throw new IllegalArgumentException("Width, height and tile size must be greater than 0");
+    }
+    if (cacheTiles < MIN_CACHE_TILES) {
+      throw new IllegalArgumentException("At least " + MIN_CACHE_TILES + " tiles must be cached");
+    }
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.cacheTiles = cacheTiles;
+    this.store = new TileStore(width, height, tileSize, cacheTiles);
+  }
+
+  /**
+   * Returns true if an RGB image of the given size can be held in memory as one pixel buffer,
+   * using at most a quarter of the maximum heap.
+   *
+   * @param width  the width of the image.
+   * @param height the height of the image.
+   * @return true if the image fits in memory.
+   */
+  public static boolean fitsInMemory(long width, long height) {
+    long bytes = 3 * width * height;
+    return bytes <= Integer.MAX_VALUE - 8 && bytes <= Runtime.getRuntime().maxMemory() / 4;
+  }
+
+  /* The default cache size for a tile size, bounded by the heap */
+  private static int defaultCacheTiles(int tileSize) {
+    long tileBytes = 3L * tileSize * tileSize;
+    long fit = Runtime.getRuntime().maxMemory() / 8 / tileBytes;
+    return (int) Math.max(MIN_CACHE_TILES, Math.min(DEFAULT_CACHE_TILES, fit));
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the width and height of the tiles of this image.
+   *
+   * @return the tile size.
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * Copies a region of this image into a pixel buffer of the region's size.
+   *
+   * @param x   the first column of the region.
+   * @param y   the first row of the region.
+   * @param dst an RGB buffer receiving the region.
+   * @throws IllegalArgumentException if the region is not inside the image.
+   */
+  public void readRegion(int x, int y, PixelBuffer dst) {
+    checkRegion(x, y, dst);
+    readRegion(x, y, dst, BorderPolicy.CLAMP);
+  }
+
+  /**
+   * Copies a pixel buffer into a region of this image of the buffer's size.
+   *
+   * @param x   the first column of the region.
+   * @param y   the first row of the region.
+   * @param src an RGB buffer holding the new pixels of the region.
+   * @throws IllegalArgumentException if the region is not inside the image.
+   */
+  public void writeRegion(int x, int y, PixelBuffer src) {
+    checkRegion(x, y, src);
+    byte[] in = src.getData();
+    for (int ty = y / tileSize; ty * tileSize < y + src.getHeight(); ty++) {
+      for (int tx = x / tileSize; tx * tileSize < x + src.getWidth(); tx++) {
+        PixelBuffer tile = store.acquire(tx, ty, true);
+        int fromX = Math.max(x, tx * tileSize);
+        int toX = Math.min(x + src.getWidth(), tx * tileSize + tile.getWidth());
+        int fromY = Math.max(y, ty * tileSize);
+        int toY = Math.min(y + src.getHeight(), ty * tileSize + tile.getHeight());
+        for (int row = fromY; row < toY; row++) {
+          System.arraycopy(in, src.offset(row - y, fromX - x), tile.getData(),
+                  tile.offset(row - ty * tileSize, fromX - tx * tileSize), (toX - fromX) * 3);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getPixelValue(int channel, int row, int col) {
+    return store.acquire(col / tileSize, row / tileSize, false)
+            .get(channel, row % tileSize, col % tileSize);
+  }
+
+  @Override
+  public void getRow(int channel, int row, int[] dst) {
+    for (int tx = 0; tx * tileSize < width; tx++) {
+      PixelBuffer tile = store.acquire(tx, row / tileSize, false);
+      byte[] data = tile.getData();
+      int index = tile.offset(row % tileSize, 0) + channel;
+      for (int x = tx * tileSize, end = x + tile.getWidth(); x < end; x++, index += 3) {
+        dst[x] = data[index] & 0xff;
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of the channels of this image as a 3D array. This needs the whole image in
+   * memory and is only meant for small tiled images.
+   *
+   * @return a 3D array containing the individual channels of the image.
+   */
+  @Override
+  public int[][][] getChannels() {
+    int[][][] channels = new int[3][height][width];
+    for (int channel = 0; channel < 3; channel++) {
+      for (int row = 0; row < height; row++) {
+        getRow(channel, row, channels[channel][row]);
+      }
+    }
+    return channels;
+  }
+
+  @Override
+  public Image channelComponent(Mask mask, int channel) {
+    return point(mask, ColorMatrix.channel(channel), PixelProcessor.COPY);
+  }
+
+  @Override
+  public Image valueComponent(Mask mask) {
+    return point(mask, PixelProcessor.VALUE, RGBImage.RED);
+  }
+
+  @Override
+  public Image intensityComponent(Mask mask) {
+    return point(mask, ColorMatrix.intensity(), RGBImage.RED);
+  }
+
+  @Override
+  public Image lumaComponent(Mask mask) {
+    return point(mask, ColorMatrix.luma(), RGBImage.RED);
+  }
+
+  @Override
+  public Image sepia(Mask mask) {
+    return point(mask, ColorMatrix.sepia(), PixelProcessor.COPY);
+  }
+
+  @Override
+  public Image colorMatrix(Mask mask, ColorMatrix matrix) {
+    return point(mask, matrix, PixelProcessor.COPY);
+  }
+
+  @Override
+  public Image brighten(int increment) {
+    if (increment > 255 || increment < -255) {
+      throw new IllegalArgumentException("Increment must be between -255 and 255");
+    }
+    return lookup(LookupTable.brighten(increment));
+  }
+
+  @Override
+  public Image lookup(LookupTable table) {
+    return eachTile((tile, x, y) -> table.apply(source(x, y), tile));
+  }
+
+  @Override
+  public Image levelsAdjust(int black, int mid, int white) {
+    if (black < 0 || black > 255 || mid < 0 || mid > 255 || white < 0 || white > 255) {
+      throw new IllegalArgumentException("All values must be between 0 and 255");
+    }
+    if (!(black < mid && mid < white)) {
+      throw new IllegalArgumentException("Values must be in ascending order: black < mid < white");
+    }
+    return lookup(LookupTable.levels(black, mid, white));
+  }
+
+  @Override
+  public List<Image> rgbSplit() {
+    List<Image> rgbSplitImages = new ArrayList<Image>();
+    for (int channel = 0; channel < 3; channel++) {
+      rgbSplitImages.add(channelComponent(null, channel));
+    }
+    return rgbSplitImages;
+  }
+
+  @Override
+  public Image rgbCombine(Image red, Image green, Image blue) {
+    Image[] sources = {red, green, blue};
+    return eachTile((tile, x, y) -> {
+      byte[] out = tile.getData();
+      PixelBuffer part = new PixelBuffer(3, tile.getWidth(), tile.getHeight());
+      for (int channel = 0; channel < 3; channel++) {
+        copyRegion(sources[channel], x, y, part);
+        byte[] in = part.getData();
+        for (int i = channel; i < out.length; i += 3) {
+          out[i] = in[i - channel];
+        }
+      }
+    });
+  }
+
+  @Override
+  public Image blur(Mask mask) {
+    return blur(mask, 1, 0);
+  }
+
+  @Override
+  public Image blur(Mask mask, int radius, double sigma) {
+    return convolve(mask, Kernel.gaussian(radius, sigma));
+  }
+
+  @Override
+  public Image sharpen(Mask mask) {
+    return convolve(mask, RGBImage.SHARPEN);
+  }
+
+  @Override
+  public Image convolve(Mask mask, Kernel kernel) {
+    if (mask != null) {
+      mask.checkSize(width, height);
+    }
+    Convolution convolution = new Convolution(kernel, BorderPolicy.CLAMP);
+    int radiusX = kernel.getWidth() / 2;
+    int radiusY = kernel.getHeight() / 2;
+
+    return eachTile((tile, x, y) -> {
+      int tileWidth = tile.getWidth();
+      int tileHeight = tile.getHeight();
+      PixelBuffer halo = new PixelBuffer(3, tileWidth + 2 * radiusX, tileHeight + 2 * radiusY);
+      PixelBuffer convolved = new PixelBuffer(3, halo.getWidth(), halo.getHeight());
+      readRegion(x - radiusX, y - radiusY, halo, BorderPolicy.CLAMP);
+      convolution.apply(halo, convolved, radiusY, radiusY + tileHeight);
+
+      for (int row = 0; row < tileHeight; row++) {
+        System.arraycopy(convolved.getData(), convolved.offset(row + radiusY, radiusX),
+                tile.getData(), tile.offset(row, 0), tileWidth * 3);
+      }
+      if (mask != null) {
+        PixelProcessor.process(source(x, y), tile, mask.region(x, y, tileWidth, tileHeight),
+            (src, dst, from, to) -> { }, PixelProcessor.COPY);
+      }
+    });
+  }
+
+  @Override
+  public Image flip(String direction) {
+    return eachTile((tile, x, y) -> {
+      int tileWidth = tile.getWidth();
+      int tileHeight = tile.getHeight();
+      PixelBuffer mirrored = new PixelBuffer(3, tileWidth, tileHeight);
+      byte[] in = mirrored.getData();
+      byte[] out = tile.getData();
+
+      if (direction.equals("horizontal")) {
+        // Reverse the columns of the mirrored region
+        readRegion(width - x - tileWidth, y, mirrored);
+        for (int row = 0; row < tileHeight; row++) {
+          for (int col = 0; col < tileWidth; col++) {
+            int from = mirrored.offset(row, tileWidth - 1 - col);
+            int to = tile.offset(row, col);
+            out[to] = in[from];
+            out[to + 1] = in[from + 1];
+            out[to + 2] = in[from + 2];
+          }
+        }
+      } else if (direction.equals("vertical")) {
+        // Reverse the rows of the mirrored region
+        readRegion(x, height - y - tileHeight, mirrored);
+        for (int row = 0; row < tileHeight; row++) {
+          System.arraycopy(in, mirrored.offset(tileHeight - 1 - row, 0), out,
+                  tile.offset(row, 0), tileWidth * 3);
+        }
+      }
+    });
+  }
+
+  /**
+   * Downscales the image with the same bilinear sampling as {@link ExtendedRGB}. Only the two
+   * source rows around each output row are read. The result is an {@link ExtendedRGB} when it
+   * fits in memory, otherwise another tiled image.
+   *
+   * @param newHeight the height of the downscaled image.
+   * @param newWidth  the width of the downscaled image.
+   * @return the downscaled image.
+   */
+  @Override
+  public Image downScaling(int newHeight, int newWidth) {
+    if (newHeight <= 0 || newWidth <= 0) {
+      throw new IllegalArgumentException("Width and height must be greater than 0");
+    }
+    if (newHeight > height || newWidth > width) {
+      throw new IllegalArgumentException("Width and height must be less than original" +
+              " for downscaling");
+    }
+
+    ExtendedRGB inMemory = fitsInMemory(newWidth, newHeight)
+            ? new ExtendedRGB(newWidth, newHeight) : null;
+    TiledImage tiled = inMemory == null
+            ? new TiledImage(newWidth, newHeight, tileSize, cacheTiles) : null;
+
+    for (int blockY = 0; blockY < newHeight; blockY += tileSize) {
+      for (int blockX = 0; blockX < newWidth; blockX += tileSize) {
+        PixelBuffer block = new PixelBuffer(3, Math.min(tileSize, newWidth - blockX),
+                Math.min(tileSize, newHeight - blockY));
+        downScaleBlock(block, blockX, blockY, newWidth, newHeight);
+        if (tiled != null) {
+          tiled.writeRegion(blockX, blockY, block);
+        } else {
+          PixelBuffer pixels = inMemory.getPixelBuffer();
+          for (int row = 0; row < block.getHeight(); row++) {
+            System.arraycopy(block.getData(), block.offset(row, 0), pixels.getData(),
+                    pixels.offset(blockY + row, blockX), block.getWidth() * 3);
+          }
+        }
+      }
+    }
+    return tiled != null ? tiled : inMemory;
+  }
+
+  @Override
+  public Image compress(double percentage) {
+    throw new IllegalArgumentException("Compression needs the whole image in memory and is not"
+            + " supported for tiled images");
+  }
+
+  @Override
+  public Image histogram() {
+    return new HistogramUtil(countValues()).plotHistogram();
+  }
+
+  @Override
+  public Image colorCorrect() {
+    return lookup(LookupTable.offsets(new HistogramUtil(countValues()).computeOffsets()));
+  }
+
+  @Override
+  public Image dither() {
+    throw new IllegalArgumentException("Dithering needs the whole image in memory and is not"
+            + " supported for tiled images");
+  }
+
+  /* Computes one block of a downscaled image from the two source rows of each output row */
+  private void downScaleBlock(PixelBuffer block, int blockX, int blockY, int targetWidth,
+                              int targetHeight) {
+    int blockWidth = block.getWidth();
+    int[] x1 = new int[blockWidth];
+    int[] x2 = new int[blockWidth];
+    float[] dx = new float[blockWidth];
+    for (int col = 0; col < blockWidth; col++) {
+      float x = (blockX + col) * (float) width / targetWidth;  // Horizontal mapping
+      x1[col] = (int) Math.floor(x);
+      x2[col] = Math.min((int) Math.ceil(x), width - 1);
+      dx[col] = x - x1[col];
+    }
+    int first = x1[0];
+    PixelBuffer top = new PixelBuffer(3, x2[blockWidth - 1] - first + 1, 1);
+    PixelBuffer bottom = new PixelBuffer(3, top.getWidth(), 1);
+
+    for (int row = 0; row < block.getHeight(); row++) {
+      float y = (blockY + row) * (float) height / targetHeight; // Vertical mapping
+      int y1 = (int) Math.floor(y);
+      int y2 = Math.min((int) Math.ceil(y), height - 1);
+      float dy = y - y1;
+      readRegion(first, y1, top);
+      readRegion(first, y2, bottom);
+
+      for (int col = 0; col < blockWidth; col++) {
+        for (int channel = 0; channel < 3; channel++) {
+          int cA = top.get(channel, 0, x1[col] - first);
+          int cB = top.get(channel, 0, x2[col] - first);
+          int cC = bottom.get(channel, 0, x1[col] - first);
+          int cD = bottom.get(channel, 0, x2[col] - first);
+
+          int m = (int) ((1 - dx[col]) * cA + dx[col] * cB);
+          int n = (int) ((1 - dx[col]) * cC + dx[col] * cD);
+
+          int finalColorValue = (int) ((1 - dy) * m + dy * n);
+          block.set(channel, row, col, Math.max(0, Math.min(255, finalColorValue)));
+        }
+      }
+    }
+  }
+
+  /* Counts the samples of each value of each channel, reading every tile once */
+  private long[][] countValues() {
+    long[][] histograms = new long[3][256];
+    for (int y = 0; y < height; y += tileSize) {
+      for (int x = 0; x < width; x += tileSize) {
+        byte[] data = source(x, y).getData();
+        for (int i = 0; i < data.length; i += 3) {
+          histograms[0][data[i] & 0xff]++;
+          histograms[1][data[i + 1] & 0xff]++;
+          histograms[2][data[i + 2] & 0xff]++;
+        }
+      }
+    }
+    return histograms;
+  }
+
+  /* Applies a pixel operation to each tile, giving each tile the part of the mask it covers */
+  private Image point(Mask mask, PixelProcessor.SpanOp inside, PixelProcessor.SpanOp outside) {
+    if (mask != null) {
+      mask.checkSize(width, height);
+    }
+    return eachTile((tile, x, y) -> PixelProcessor.process(source(x, y), tile,
+            mask == null ? null : mask.region(x, y, tile.getWidth(), tile.getHeight()),
+            inside, outside));
+  }
+
+  /* Creates a tiled image of the same size and fills it one tile at a time */
+  private TiledImage eachTile(TileOp op) {
+    TiledImage result = new TiledImage(width, height, tileSize, cacheTiles);
+    for (int y = 0; y < height; y += tileSize) {
+      for (int x = 0; x < width; x += tileSize) {
+        op.apply(result.store.acquire(x / tileSize, y / tileSize, true), x, y);
+      }
+    }
+    return result;
+  }
+
+  /* Returns the tile of this image starting at the given pixel */
+  private PixelBuffer source(int x, int y) {
+    return store.acquire(x / tileSize, y / tileSize, false);
+  }
+
+  /*
+   * Copies a region which may extend past the edges of the image, mapping rows and columns
+   * outside the image through the border policy.
+   */
+  private void readRegion(int x, int y, PixelBuffer dst, BorderPolicy border) {
+    byte[] out = dst.getData();
+    int insideFrom = Math.max(x, 0);
+    int insideTo = Math.min(x + dst.getWidth(), width);
+
+    for (int row = 0; row < dst.getHeight(); row++) {
+      int sourceRow = border.map(y + row, height);
+      int tileY = sourceRow / tileSize;
+      int tileRow = sourceRow % tileSize;
+
+      for (int tx = insideFrom / tileSize; tx * tileSize < insideTo; tx++) {
+        PixelBuffer tile = store.acquire(tx, tileY, false);
+        int fromX = Math.max(insideFrom, tx * tileSize);
+        int toX = Math.min(insideTo, tx * tileSize + tile.getWidth());
+        System.arraycopy(tile.getData(), tile.offset(tileRow, fromX - tx * tileSize), out,
+                dst.offset(row, fromX - x), (toX - fromX) * 3);
+      }
+      for (int col = x; col < x + dst.getWidth(); col++) {
+        if (col < insideFrom || col >= insideTo) {
+          int sourceCol = border.map(col, width);
+          PixelBuffer tile = store.acquire(sourceCol / tileSize, tileY, false);
+          System.arraycopy(tile.getData(), tile.offset(tileRow, sourceCol % tileSize), out,
+                  dst.offset(row, col - x), 3);
+        }
+      }
+    }
+  }
+
+  /* Copies a region of any image into a buffer of the region's size */
+  private static void copyRegion(Image image, int x, int y, PixelBuffer dst) {
+    if (image instanceof TiledImage) {
+      ((TiledImage) image).readRegion(x, y, dst);
+      return;
+    }
+    int[] row = new int[image.getWidth()];
+    for (int r = 0; r < dst.getHeight(); r++) {
+      for (int channel = 0; channel < 3; channel++) {
+        image.getRow(channel, y + r, row);
+        for (int c = 0; c < dst.getWidth(); c++) {
+          dst.set(channel, r, c, row[x + c]);
+        }
+      }
+    }
+  }
+
+  /* Checks that a buffer placed at the given pixel lies inside the image */
+  private void checkRegion(int x, int y, PixelBuffer buffer) {
+    if (buffer.getNumberOfChannels() != 3 || x < 0 || y < 0
+            || x + buffer.getWidth() > width || y + buffer.getHeight() > height) {
+      throw new IllegalArgumentException("Region must lie within the " + width + " x " + height
+              + " image");
+    }
+  }
+
+}
@@ -1,7 +1,8 @@
 package application.model;
 
 import java.awt.Image;
-import java.awt.image.BufferedImage;
+
+import application.model.utils.RasterBridge;
 
 
 /**
@@ -24,24 +25,7 @@ public class ViewModel implements ViewImage {
 
   @Override
   public Image getBufferedImage(String imageName) {
-
-    int width = getWidth(imageName);
-    int height = getHeight(imageName);
-    int[][][] channels = model.getImage(imageName).getChannels();
-
-    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int red = channels[0][i][j];
-        int green = channels[1][i][j];
-        int blue = channels[2][i][j];
-        int rgb = (red << 16) | (green << 8) | blue;
-        image.setRGB(j, i, rgb);
-      }
-    }
-
-    return image;
+    return RasterBridge.toBufferedImage(model.getImage(imageName));
   }
 
   @Override
@@ -0,0 +1,37 @@
+package application.model.utils;
+
+/**
+ * Describes how a filter reads samples which fall outside the image.
+ */
+public enum BorderPolicy {
+
+  /**
+   * Repeats the nearest edge sample, i.e. index -2 reads index 0.
+   */
+  CLAMP,
+
+  /**
+   * Reflects around the edge sample without repeating it, i.e. index -2 reads index 2.
+   */
+  MIRROR;
+
+  /**
+   * Maps a possibly out of range index onto a valid index of a row or column.
+   *
+   * @param index  the index to map.
+   * @param length the length of the row or column.
+   * @return an index between 0 and length - 1.
+   */
+  public int map(int index, int length) {
+    if (index >= 0 && index < length) {
+      return index;
+    }
+    if (this == CLAMP || length == 1) {
+      return index < 0 ? 0 : length - 1;
+    }
+    int period = 2 * (length - 1);
+    int folded = Math.floorMod(index, period);
+    return folded < length ? folded : period - folded;
+  }
+
+}
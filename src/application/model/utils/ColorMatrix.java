@@ -0,0 +1,166 @@
+package application.model.utils;
+
+import application.model.Mask;
+import application.model.PixelBuffer;
+
+/**
+ * An immutable affine color transform stored as a 3 x 4 matrix.
+ * Each output channel is computed from one read of the red, green and blue samples of a pixel as
+ * {@code m[c][0] * r + m[c][1] * g + m[c][2] * b + m[c][3]}, truncated to an integer and clamped
+ * between 0 and 255. Consecutive transforms can be fused with {@link #then(ColorMatrix)} into a
+ * single matrix so that a chain of them is applied in one pass. A matrix is also a span operation
+ * for {@link PixelProcessor}.
+ */
+public final class ColorMatrix implements PixelProcessor.SpanOp {
+
+  private static final int COLUMNS = 4;
+
+  /*
+   * Intensity is an integer average. A third is not exact in binary, so a small offset keeps
+   * sums such as 3 * (1 / 3.0) from truncating to the integer below.
+   */
+  private static final double INTENSITY_BIAS = 1e-6;
+
+  private final double[] m;
+
+  private ColorMatrix(double[] m) {
+    this.m = m;
+  }
+
+  /**
+   * Creates a matrix from 3 rows of 3 weights, or 3 rows of 3 weights followed by an offset.
+   *
+   * @param rows the rows of the matrix, one per output channel.
+   * @return the matrix.
+   * @throws IllegalArgumentException if the rows are not 3 x 3 or 3 x 4.
+   */
+  public static ColorMatrix of(double[][] rows) {
+    if (rows.length != 3) {
+      throw new IllegalArgumentException("A color matrix has 3 rows");
+    }
+    double[] m = new double[3 * COLUMNS];
+    for (int row = 0; row < 3; row++) {
+      if (rows[row].length != 3 && rows[row].length != COLUMNS) {
+        throw new IllegalArgumentException("A color matrix row has 3 or 4 values");
+      }
+      System.arraycopy(rows[row], 0, m, row * COLUMNS, rows[row].length);
+    }
+    return new ColorMatrix(m);
+  }
+
+  /**
+   * Returns the matrix which leaves every pixel unchanged.
+   *
+   * @return the identity matrix.
+   */
+  public static ColorMatrix identity() {
+    return of(new double[][]{{1, 0, 0}, {0, 1, 0}, {0, 0, 1}});
+  }
+
+  /**
+   * Returns the matrix which copies one channel into all three channels.
+   *
+   * @param channel the channel to copy, 0 for red, 1 for green and 2 for blue.
+   * @return the channel component matrix.
+   */
+  public static ColorMatrix channel(int channel) {
+    double[] row = new double[3];
+    row[channel] = 1;
+    return of(new double[][]{row, row, row});
+  }
+
+  /**
+   * Returns the sepia tone matrix.
+   *
+   * @return the sepia matrix.
+   */
+  public static ColorMatrix sepia() {
+    return of(new double[][]{
+            {0.393, 0.769, 0.189},
+            {0.349, 0.686, 0.168},
+            {0.272, 0.534, 0.131}
+    });
+  }
+
+  /**
+   * Returns the matrix which sets r = g = b = 0.2126r + 0.7152g + 0.0722b.
+   *
+   * @return the luma matrix.
+   */
+  public static ColorMatrix luma() {
+    double[] row = {0.2126, 0.7152, 0.0722};
+    return of(new double[][]{row, row, row});
+  }
+
+  /**
+   * Returns the matrix which sets r = g = b to the average of the three channels.
+   *
+   * @return the intensity matrix.
+   */
+  public static ColorMatrix intensity() {
+    double[] row = {1 / 3.0, 1 / 3.0, 1 / 3.0, INTENSITY_BIAS};
+    return of(new double[][]{row, row, row});
+  }
+
+  /**
+   * Returns the matrix which applies this matrix and then the next one. The fused matrix does
+   * not truncate or clamp between the two steps, so it can differ from applying the two
+   * matrices one after the other by one level.
+   *
+   * @param next the matrix to apply to the output of this matrix.
+   * @return the fused matrix.
+   */
+  public ColorMatrix then(ColorMatrix next) {
+    double[] fused = new double[3 * COLUMNS];
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < COLUMNS; col++) {
+        double value = col == 3 ? next.m[row * COLUMNS + 3] : 0;
+        for (int k = 0; k < 3; k++) {
+          value += next.m[row * COLUMNS + k] * m[k * COLUMNS + col];
+        }
+        fused[row * COLUMNS + col] = value;
+      }
+    }
+    return new ColorMatrix(fused);
+  }
+
+  /**
+   * Applies the matrix to every pixel of the source buffer and writes the destination buffer.
+   *
+   * @param src the RGB buffer to read.
+   * @param dst an RGB buffer of the same size to write.
+   */
+  public void apply(PixelBuffer src, PixelBuffer dst) {
+    apply(src, dst, null);
+  }
+
+  /**
+   * Applies the matrix to the pixels selected by the mask and copies the other pixels unchanged.
+   *
+   * @param src  the RGB buffer to read.
+   * @param dst  an RGB buffer of the same size to write.
+   * @param mask an optional mask of the same size, may be null.
+   */
+  public void apply(PixelBuffer src, PixelBuffer dst, Mask mask) {
+    PixelProcessor.process(src, dst, mask, this, PixelProcessor.COPY);
+  }
+
+  @Override
+  public void apply(byte[] src, byte[] dst, int from, int to) {
+    double[] m = this.m;
+    for (int i = from; i < to; i += 3) {
+      int r = src[i] & 0xff;
+      int g = src[i + 1] & 0xff;
+      int b = src[i + 2] & 0xff;
+      dst[i] = (byte) clamp((int) (m[0] * r + m[1] * g + m[2] * b + m[3]));
+      dst[i + 1] = (byte) clamp((int) (m[4] * r + m[5] * g + m[6] * b + m[7]));
+      dst[i + 2] = (byte) clamp((int) (m[8] * r + m[9] * g + m[10] * b + m[11]));
+    }
+  }
+
+  /* Clamp the values between 0 and 255 */
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+
+}
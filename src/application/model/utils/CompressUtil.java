@@ -1,12 +1,19 @@
 package application.model.utils;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.BitSet;
+
+import application.model.PixelBuffer;
 
 
 /**
  * A util class for compress.
+ * Each channel is padded with zeros to the next power of two along each axis, transformed with
+ * the {@link HaarWavelet}, the coefficients rounding below the threshold value are set to 0 and
+ * the transform is reverted. All of it works in place on one flat buffer per channel. A wide
+ * image is not padded to a square of its width, which keeps the work proportional to the image,
+ * but the extra levels a square takes along the short side change which coefficients fall below
+ * the threshold, so non-square images compress slightly differently than with square padding.
  */
 public class CompressUtil {
 
@@ -17,207 +24,71 @@ public class CompressUtil {
     // no parameters required.
   }
 
-  private double[][] transform(double[][] data) {
-    double[][] paddedData = this.pad(data);
-    int c = paddedData.length;
-    while (c > 1) {
-      for (int i = 0; i < c; i++) {
-        double[] toCompress = new double[c];
-        for (int j = 0; j < c; j++) {
-          toCompress[j] = paddedData[i][j];
-        }
-        double[] compressed = transform(toCompress);
-        for (int j = 0; j < c; j++) {
-          paddedData[i][j] = compressed[j];
-        }
+  /*
+   * Sets to 0 the coefficients which round below the value found at the given fraction of the
+   * distinct rounded values, from the smallest.
+   */
+  private void applyThreshold(double[] data, double threshold) {
+    // Rounding keeps the order, the extreme values round to the extreme rounded values
+    double low = Double.POSITIVE_INFINITY;
+    double high = Double.NEGATIVE_INFINITY;
+    for (double value : data) {
+      low = Math.min(low, value);
+      high = Math.max(high, value);
+    }
+    long min = Math.round(low);
+    long max = Math.round(high);
+
+    long[] distinct;
+    if (max - min < 8L * data.length + 64) {
+      // The rounded values are dense, a bit per possible value finds the distinct ones
+      BitSet seen = new BitSet((int) (max - min + 1));
+      for (double value : data) {
+        seen.set((int) (Math.round(value) - min));
       }
-      for (int j = 0; j < c; j++) {
-        double[] column = new double[c];
-        for (int i = 0; i < c; i++) {
-          column[i] = paddedData[i][j];
-        }
-        column = transform(column);
-        for (int i = 0; i < c; i++) {
-          paddedData[i][j] = column[i];
-        }
+      distinct = new long[seen.cardinality()];
+      for (int i = 0, bit = seen.nextSetBit(0); bit >= 0; bit = seen.nextSetBit(bit + 1)) {
+        distinct[i++] = bit + min;
       }
-      c = c / 2;
-    }
-    return paddedData;
-  }
-
-  private double[] transform(double[] data) {
-    double[] paddedData = this.pad(data);
-    int totalLength = paddedData.length;
-    double[] result = new double[totalLength];
-    int mid = totalLength / 2;
-
-    for (int i = 0; i < totalLength - 1; i += 2) {
-      double a = paddedData[i];
-      double b = paddedData[i + 1];
-
-      double avg = (a + b) / Math.sqrt(2);
-      double diff = (a - b) / Math.sqrt(2);
-
-      result[i / 2] = avg;
-      result[mid + i / 2] = diff;
-    }
-    return result;
-  }
-
-  private double[][] inverse(double[][] data) {
-    int c = 2;
-    double[][] paddedData = this.pad(data);
-    while (c <= paddedData.length) {
-      for (int j = 0; j < c; j++) {
-        double[] column = new double[c];
-        for (int i = 0; i < c; i++) {
-          column[i] = paddedData[i][j];
-        }
-        column = inverse(column);
-        for (int i = 0; i < c; i++) {
-          paddedData[i][j] = column[i];
-        }
+    } else {
+      long[] rounded = new long[data.length];
+      for (int i = 0; i < data.length; i++) {
+        rounded[i] = Math.round(data[i]);
       }
-      for (int i = 0; i < c; i++) {
-        double[] row = new double[c];
-        for (int j = 0; j < c; j++) {
-          row[j] = paddedData[i][j];
-        }
-        row = inverse(row);
-        for (int j = 0; j < c; j++) {
-          paddedData[i][j] = row[j];
-        }
-      }
-      c *= 2;
-    }
-    return paddedData;
-  }
-
-
-  private double[] inverse(double[] data) {
-    data = this.pad(data);
-    int mid = data.length / 2;
-    double[] result = new double[data.length];
-
-    for (int i = 0, j = mid, k = 0; k < mid; i++, j++, k++) {
-      double avg = data[i];
-      double diff = data[j];
-
-      double a = (avg + diff) / Math.sqrt(2);
-      double b = (avg - diff) / Math.sqrt(2);
-
-      result[2 * k] = a;
-      result[2 * k + 1] = b;
-    }
-    return result;
-  }
-
-
-  private double[][] applyThreshold(double[][] transformedPaddedPixels, double threshold)
-          throws IllegalArgumentException {
-    if (transformedPaddedPixels == null) {
-      return null;
-    }
-    if (threshold < 0 || threshold > 1) {
-      throw new IllegalArgumentException("Threshold should be between 0 and 1");
-    }
-    int height = transformedPaddedPixels.length;
-    int width = transformedPaddedPixels[0].length;
-    double[][] result = new double[height][width];
-    Map<Double, Double> uniqueValues = new HashMap<>();
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        uniqueValues.put((double) Math.round(transformedPaddedPixels[y][x]), 1.0);
-      }
-    }
-    Double[] flatten = uniqueValues.keySet().toArray(new Double[0]);
-    Arrays.sort(flatten);
-    double thresholdValue = flatten[Math.max((int) (flatten.length * threshold) - 1, 0)];
-    for (int y = 0; y < height; y++) {
-      for (int x = 0; x < width; x++) {
-        if (Math.round(transformedPaddedPixels[y][x]) < thresholdValue) {
-          result[y][x] = 0;
-        } else {
-          result[y][x] = transformedPaddedPixels[y][x];
+      Arrays.sort(rounded);
+      int count = 0;
+      for (int i = 0; i < rounded.length; i++) {
+        if (i == 0 || rounded[i] != rounded[i - 1]) {
+          rounded[count++] = rounded[i];
         }
       }
+      distinct = Arrays.copyOf(rounded, count);
     }
-    return result;
-  }
 
-
-  private double[] applyThreshold(double[] data, double threshold) throws IllegalArgumentException {
-    if (data == null) {
-      return null;
-    }
-    if (threshold < 0 || threshold > 1) {
-      throw new IllegalArgumentException("Threshold should be between 0 and 1");
-    }
-    Map<Double, Double> dict = new HashMap<Double, Double>();
-    for (double datum : data) {
-      dict.put((double) Math.round(datum), 1.0);
-    }
-    Double[] values = dict.keySet().toArray(new Double[0]);
-    Arrays.sort(values);
-    double[] result = new double[data.length];
-    int startLength = Math.max((int) (threshold * values.length) - 1, 0);
-    double thresholdValue = values[startLength];
+    long thresholdValue = distinct[Math.max((int) (distinct.length * threshold) - 1, 0)];
+    // A value rounds below the threshold value exactly when it is below it by more than a half
+    double limit = thresholdValue - 0.5;
     for (int i = 0; i < data.length; i++) {
-      if (Math.round(data[i]) <= thresholdValue) {
-        result[i] = 0;
-      } else {
-        result[i] = data[i];
+      if (data[i] < limit) {
+        data[i] = 0;
       }
     }
-    return result;
   }
 
-
-  private double[][] pad(double[][] data) {
-    int height = data.length;
-    int width = data[0].length;
-    int s = Math.max(height, width);
-    int nearestPow = this.getNearestPow(s);
-    int padHeight = (int) Math.pow(2, nearestPow) - height;
-    int padWidth = (int) Math.pow(2, nearestPow) - width;
-    int totalHeight = height + padHeight;
-    int totalWidth = width + padWidth;
-    double[][] paddedData = new double[totalHeight][totalWidth];
-    for (int i = 0; i < totalHeight; i++) {
-      for (int j = 0; j < totalWidth; j++) {
-        if (j >= width || i >= height) {
-          // Outside of image range
-          paddedData[i][j] = 0;
-        } else {
-          // copy Image data
-          paddedData[i][j] = data[i][j];
-        }
-      }
-    }
-    return paddedData;
+  private int getNearestPow(int number) {
+    return Math.max(32 - Integer.numberOfLeadingZeros(number - 1), 1);
   }
 
-  private double[] pad(double[] data) {
-    if (data == null) {
-      return null;
-    }
-    int nearestPow = (int) Math.max(Math.ceil(Math.log10(data.length) / Math.log10(2)), 1);
-    int pad = (int) Math.pow(2, nearestPow) - data.length;
-    int totalLength = data.length + pad;
-    double[] paddedData = new double[totalLength];
-    for (int i = 0; i < paddedData.length; i++) {
-      if (i < data.length) {
-        paddedData[i] = data[i];
-      } else {
-        paddedData[i] = 0;
-      }
-    }
-    return paddedData;
+  /* Compresses the samples of a channel in place, padded with zeros to power of two sides */
+  private void compress(double[] data, int paddedWidth, int paddedHeight, double percentage) {
+    HaarWavelet.forward(data, paddedWidth, paddedHeight);
+    applyThreshold(data, percentage / 100);
+    HaarWavelet.inverse(data, paddedWidth, paddedHeight);
   }
 
-  private int getNearestPow(int number) {
-    return (int) Math.max(Math.ceil(Math.log10(number) / Math.log10(2)), 1);
+  /* Rounds a compressed sample back into the range of the channel */
+  private static int clamp(double sample, int maxPixelValue) {
+    return (int) Math.min(Math.max(Math.round(sample), 0), maxPixelValue);
   }
 
   /**
@@ -228,41 +99,80 @@ public class CompressUtil {
    * @param height     the height of the image.
    * @param percentage the percentage to compress.
    * @return a 2D array of integers representing the compressed image channel.
+   * @throws IllegalArgumentException if the percentage is not between 0 and 100.
    */
   public int[][] compress(double[][] channel, int width, int height, double percentage) {
+    checkPercentage(percentage);
+    int paddedWidth = 1 << getNearestPow(width);
+    int paddedHeight = 1 << getNearestPow(height);
+    double[] data = new double[paddedWidth * paddedHeight];
     int maxPixelValue = 0;
-
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
-        if (channel[i][j] > maxPixelValue) {
-          maxPixelValue = (int) channel[i][j];
-        }
+        data[i * paddedWidth + j] = channel[i][j];
+        maxPixelValue = Math.max(maxPixelValue, (int) channel[i][j]);
       }
     }
 
-    double[][] transformedPixels = transform(channel);
-    double[][] thresholdPixels = applyThreshold(transformedPixels, percentage / 100);
-
-    double[][] inversePixels = inverse(thresholdPixels);
-
+    compress(data, paddedWidth, paddedHeight, percentage);
 
     int[][] compressedPixels = new int[height][width];
-
     for (int y = 0; y < height; y++) {
       for (int x = 0; x < width; x++) {
-        int pixel = (int) Math.round(inversePixels[y][x]);
-        if (pixel < 0) {
-          pixel = 0;
-        }
-        if (pixel > maxPixelValue) {
-          pixel = maxPixelValue;
-        }
-        compressedPixels[y][x] = pixel;
+        compressedPixels[y][x] = clamp(data[y * paddedWidth + x], maxPixelValue);
       }
     }
-
     return compressedPixels;
+  }
+
+  /**
+   * Compresses every channel of a pixel buffer into another buffer of the same size. The
+   * channels are compressed at the same time on the threads of {@link ParallelRows}.
+   *
+   * @param source      the pixels to compress.
+   * @param destination the buffer receiving the compressed pixels.
+   * @param percentage  the percentage to compress.
+   * @throws IllegalArgumentException if the percentage is not between 0 and 100.
+   */
+  public void compress(PixelBuffer source, PixelBuffer destination, double percentage) {
+    checkPercentage(percentage);
+    int width = source.getWidth();
+    int height = source.getHeight();
+    int paddedWidth = 1 << getNearestPow(width);
+    int paddedHeight = 1 << getNearestPow(height);
+    ParallelRows.forEach(source.getNumberOfChannels(), paddedWidth * paddedHeight, (first, end) -> {
+      int[] row = new int[width];
+      // One buffer serves the channels of a thread, cleared of the previous coefficients
+      double[] data = new double[paddedWidth * paddedHeight];
+      for (int channel = first; channel < end; channel++) {
+        if (channel > first) {
+          Arrays.fill(data, 0);
+        }
+        int maxPixelValue = 0;
+        for (int y = 0; y < height; y++) {
+          source.getRow(channel, y, row);
+          for (int x = 0; x < width; x++) {
+            data[y * paddedWidth + x] = row[x];
+            maxPixelValue = Math.max(maxPixelValue, row[x]);
+          }
+        }
 
+        compress(data, paddedWidth, paddedHeight, percentage);
+
+        for (int y = 0; y < height; y++) {
+          for (int x = 0; x < width; x++) {
+            row[x] = clamp(data[y * paddedWidth + x], maxPixelValue);
+          }
+          destination.setRow(channel, y, row);
+        }
+      }
+    });
+  }
+
+  private static void checkPercentage(double percentage) {
+    if (percentage < 0 || percentage > 100) {
+      throw new IllegalArgumentException("Percentage should be between 0 and 100");
+    }
   }
 
 }
@@ -0,0 +1,379 @@
+package application.model.utils;
+
+import java.util.Arrays;
+
+import application.model.Mask;
+import application.model.PixelBuffer;
+
+/**
+ * A util class which convolves a pixel buffer with a kernel.
+ * Separable kernels run as a horizontal pass followed by a vertical pass using integer
+ * fixed-point weights, only the filtered rows the vertical pass needs are kept in a ring of scratch
+ * rows. Other kernels run a direct convolution over tiles small enough to stay in cache, using
+ * fixed-point sums when every weight is exactly representable and floating point sums otherwise.
+ * Results are rounded to the nearest integer and clamped to 0 - 255.
+ */
+public class Convolution {
+
+  private static final int WEIGHT_BITS = 10;
+  private static final int ONE = 1 << WEIGHT_BITS;
+  private static final int TILE_ROWS = 64;
+  private static final int TILE_COLUMNS = 256;
+
+  private final Kernel kernel;
+  private final BorderPolicy border;
+  private final int radiusX;
+  private final int radiusY;
+
+  private final int[] rowWeights;
+  private final int[] columnWeights;
+  private final boolean wideSums;
+  private final int[] directWeights;
+
+  /**
+   * Creates a convolution with the given kernel and border policy.
+   *
+   * @param kernel the kernel to convolve with.
+   * @param border the policy used for samples outside the image.
+   * @throws IllegalArgumentException if the weights of a separable kernel are too large.
+   */
+  public Convolution(Kernel kernel, BorderPolicy border) {
+    this.kernel = kernel;
+    this.border = border;
+    this.radiusX = kernel.getWidth() / 2;
+    this.radiusY = kernel.getHeight() / 2;
+
+    if (kernel.isSeparable()) {
+      this.rowWeights = quantize(kernel.getRowFactor());
+      this.columnWeights = quantize(kernel.getColumnFactor());
+      if (255L * sumOfMagnitudes(rowWeights) >= Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Kernel weights are too large");
+      }
+      long largest = 255L * sumOfMagnitudes(rowWeights) * sumOfMagnitudes(columnWeights);
+      this.wideSums = largest + ONE * ONE >= Integer.MAX_VALUE;
+      this.directWeights = null;
+    } else {
+      this.rowWeights = null;
+      this.columnWeights = null;
+      this.wideSums = false;
+      this.directWeights = exactFixedPoint(kernel);
+    }
+  }
+
+  /**
+   * Convolves every row of the source buffer into the destination buffer. Bands of rows are
+   * convolved in parallel when the image is large enough.
+   *
+   * @param src the buffer to read.
+   * @param dst a buffer of the same shape to write.
+   */
+  public void apply(PixelBuffer src, PixelBuffer dst) {
+    ParallelRows.forEach(src.getHeight(), src.getWidth(),
+        (startRow, endRow) -> apply(src, dst, startRow, endRow));
+  }
+
+  /**
+   * Convolves the pixels of the source buffer selected by the mask into the destination buffer.
+   * Only the bounding box of the mask is convolved, every other pixel keeps its value from the
+   * source buffer.
+   *
+   * @param src  the buffer to read.
+   * @param dst  a buffer of the same shape to write.
+   * @param mask an optional mask of the same size, may be null.
+   */
+  public void apply(PixelBuffer src, PixelBuffer dst, Mask mask) {
+    if (mask == null) {
+      apply(src, dst);
+      return;
+    }
+    mask.checkSize(src.getWidth(), src.getHeight());
+    int channels = src.getNumberOfChannels();
+    int rowLength = src.getWidth() * channels;
+    int top = mask.getTop();
+    int bottom = mask.getBottom();
+    byte[] in = src.getData();
+    byte[] out = dst.getData();
+
+    System.arraycopy(in, 0, out, 0, top * rowLength);
+    System.arraycopy(in, bottom * rowLength, out, bottom * rowLength,
+            (src.getHeight() - bottom) * rowLength);
+    ParallelRows.forEach(bottom - top, mask.getRight() - mask.getLeft(), (startRow, endRow) -> {
+      apply(src, dst, top + startRow, top + endRow, mask.getLeft(), mask.getRight());
+      for (int y = top + startRow; y < top + endRow; y++) {
+        int[] runs = mask.getRuns(y);
+        int rowStart = y * rowLength;
+        int x = 0;
+        for (int i = 0; i <= runs.length; i += 2) {
+          int end = i < runs.length ? runs[i] : src.getWidth();
+          System.arraycopy(in, rowStart + x * channels, out, rowStart + x * channels,
+                  (end - x) * channels);
+          x = i < runs.length ? runs[i + 1] : end;
+        }
+      }
+    });
+  }
+
+  /**
+   * Convolves the rows from startRow (inclusive) to endRow (exclusive) of the source buffer into
+   * the destination buffer. Rows outside the range are read but not written.
+   *
+   * @param src      the buffer to read.
+   * @param dst      a buffer of the same shape to write.
+   * @param startRow the first row to write.
+   * @param endRow   the row after the last row to write.
+   */
+  public void apply(PixelBuffer src, PixelBuffer dst, int startRow, int endRow) {
+    apply(src, dst, startRow, endRow, 0, src.getWidth());
+  }
+
+  /* Convolves the window of rows startRow to endRow and columns startColumn to endColumn */
+  private void apply(PixelBuffer src, PixelBuffer dst, int startRow, int endRow,
+                     int startColumn, int endColumn) {
+    if (startColumn >= endColumn || startRow >= endRow) {
+      return;
+    }
+    if (kernel.isSeparable()) {
+      separable(src, dst, startRow, endRow, startColumn, endColumn);
+    } else {
+      for (int row = startRow; row < endRow; row += TILE_ROWS) {
+        for (int col = startColumn; col < endColumn; col += TILE_COLUMNS) {
+          tile(src, dst, row, Math.min(row + TILE_ROWS, endRow),
+                  col, Math.min(col + TILE_COLUMNS, endColumn));
+        }
+      }
+    }
+  }
+
+  /* Horizontal then vertical pass over a window of rows and columns with fixed-point weights */
+  private void separable(PixelBuffer src, PixelBuffer dst, int startRow, int endRow,
+                         int startColumn, int endColumn) {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    int channels = src.getNumberOfChannels();
+    int spanLength = (endColumn - startColumn) * channels;
+    int size = 2 * radiusY + 1;
+
+    int[][] ring = new int[size][spanLength];
+    int[] padded = new int[(endColumn - startColumn + 2 * radiusX) * channels];
+    int[] sum = wideSums ? null : new int[spanLength];
+    long[] wideSum = wideSums ? new long[spanLength] : null;
+    byte[] in = src.getData();
+    byte[] out = dst.getData();
+
+    for (int row = startRow - radiusY; row < startRow + radiusY; row++) {
+      horizontal(in, border.map(row, height), width, channels, startColumn, endColumn, padded,
+              ring[Math.floorMod(row, size)]);
+    }
+
+    int shift = 2 * WEIGHT_BITS;
+    int half = 1 << (shift - 1);
+    for (int y = startRow; y < endRow; y++) {
+      int next = y + radiusY;
+      horizontal(in, border.map(next, height), width, channels, startColumn, endColumn, padded,
+              ring[Math.floorMod(next, size)]);
+
+      int base = src.offset(y, startColumn);
+      if (wideSums) {
+        Arrays.fill(wideSum, half);
+        for (int k = 0; k < size; k++) {
+          long weight = columnWeights[k];
+          int[] filtered = ring[Math.floorMod(y - radiusY + k, size)];
+          for (int i = 0; i < spanLength; i++) {
+            wideSum[i] += weight * filtered[i];
+          }
+        }
+        for (int i = 0; i < spanLength; i++) {
+          out[base + i] = (byte) clamp(wideSum[i] >> shift);
+        }
+      } else {
+        Arrays.fill(sum, half);
+        for (int k = 0; k < size; k++) {
+          int weight = columnWeights[k];
+          int[] filtered = ring[Math.floorMod(y - radiusY + k, size)];
+          for (int i = 0; i < spanLength; i++) {
+            sum[i] += weight * filtered[i];
+          }
+        }
+        for (int i = 0; i < spanLength; i++) {
+          out[base + i] = (byte) clamp(sum[i] >> shift);
+        }
+      }
+    }
+  }
+
+  /* Filters a window of one source row horizontally into target at fixed-point precision */
+  private void horizontal(byte[] in, int row, int width, int channels, int startColumn,
+                          int endColumn, int[] padded, int[] target) {
+    fillPadded(in, row, width, channels, startColumn, endColumn, padded);
+
+    Arrays.fill(target, 0);
+    for (int k = 0; k < rowWeights.length; k++) {
+      int weight = rowWeights[k];
+      if (weight == 0) {
+        continue;
+      }
+      int shift = k * channels;
+      for (int i = 0; i < target.length; i++) {
+        target[i] += weight * padded[i + shift];
+      }
+    }
+  }
+
+  /* Direct convolution of one tile, reading a block that includes the kernel halo */
+  private void tile(PixelBuffer src, PixelBuffer dst, int startRow, int endRow,
+                    int startColumn, int endColumn) {
+    int width = src.getWidth();
+    int height = src.getHeight();
+    int channels = src.getNumberOfChannels();
+    int tileWidth = endColumn - startColumn;
+    int tileLength = tileWidth * channels;
+    int blockLength = (tileWidth + 2 * radiusX) * channels;
+    int blockRows = endRow - startRow + 2 * radiusY;
+
+    byte[] in = src.getData();
+    byte[] out = dst.getData();
+
+    int[][] block = new int[blockRows][blockLength];
+    for (int r = 0; r < blockRows; r++) {
+      int row = border.map(startRow - radiusY + r, height);
+      fillPadded(in, row, width, channels, startColumn, endColumn, block[r]);
+    }
+
+    if (directWeights != null) {
+      int[] sum = new int[tileLength];
+      int half = 1 << (WEIGHT_BITS - 1);
+      for (int y = startRow; y < endRow; y++) {
+        Arrays.fill(sum, half);
+        for (int ky = 0; ky < kernel.getHeight(); ky++) {
+          int[] source = block[y - startRow + ky];
+          for (int kx = 0; kx < kernel.getWidth(); kx++) {
+            int weight = directWeights[ky * kernel.getWidth() + kx];
+            if (weight == 0) {
+              continue;
+            }
+            accumulate(sum, source, kx * channels, weight, tileLength);
+          }
+        }
+
+        int base = src.offset(y, startColumn);
+        for (int i = 0; i < tileLength; i++) {
+          out[base + i] = (byte) clamp(sum[i] >> WEIGHT_BITS);
+        }
+      }
+      return;
+    }
+
+    double[] sum = new double[tileLength];
+    for (int y = startRow; y < endRow; y++) {
+      Arrays.fill(sum, 0.5);
+      for (int ky = 0; ky < kernel.getHeight(); ky++) {
+        int[] source = block[y - startRow + ky];
+        for (int kx = 0; kx < kernel.getWidth(); kx++) {
+          double weight = kernel.getWeight(ky, kx);
+          if (weight == 0) {
+            continue;
+          }
+          int shift = kx * channels;
+          for (int i = 0; i < tileLength; i++) {
+            sum[i] += weight * source[i + shift];
+          }
+        }
+      }
+
+      int base = src.offset(y, startColumn);
+      for (int i = 0; i < tileLength; i++) {
+        out[base + i] = (byte) clamp((long) Math.floor(sum[i]));
+      }
+    }
+  }
+
+  /*
+   * Copies the columns startColumn - radiusX to endColumn + radiusX of a source row into padded,
+   * mapping the columns that fall outside the image through the border policy.
+   */
+  private void fillPadded(byte[] in, int row, int width, int channels, int startColumn,
+                          int endColumn, int[] padded) {
+    int rowStart = row * width * channels;
+    int first = startColumn - radiusX;
+    int last = endColumn + radiusX;
+
+    int insideFrom = Math.max(first, 0);
+    int insideTo = Math.min(last, width);
+    int from = rowStart + insideFrom * channels;
+    int to = (insideFrom - first) * channels;
+    for (int i = 0, n = (insideTo - insideFrom) * channels; i < n; i++) {
+      padded[to + i] = in[from + i] & 0xff;
+    }
+
+    for (int x = first; x < insideFrom; x++) {
+      copyMapped(in, rowStart, border.map(x, width), (x - first) * channels, channels, padded);
+    }
+    for (int x = insideTo; x < last; x++) {
+      copyMapped(in, rowStart, border.map(x, width), (x - first) * channels, channels, padded);
+    }
+  }
+
+  /* Copies the samples of one source pixel into padded */
+  private static void copyMapped(byte[] in, int rowStart, int column, int target, int channels,
+                                 int[] padded) {
+    int source = rowStart + column * channels;
+    for (int c = 0; c < channels; c++) {
+      padded[target + c] = in[source + c] & 0xff;
+    }
+  }
+
+  /* Adds weight times source, starting at shift, to every element of sum */
+  private static void accumulate(int[] sum, int[] source, int shift, int weight, int length) {
+    for (int i = 0; i < length; i++) {
+      sum[i] += weight * source[i + shift];
+    }
+  }
+
+  /* Clamp the values between 0 and 255 */
+  private static int clamp(long value) {
+    return (int) Math.max(0, Math.min(255, value));
+  }
+
+  /* Converts weights to fixed point and puts any rounding error on the center weight */
+  private static int[] quantize(double[] weights) {
+    int[] fixed = new int[weights.length];
+    double exact = 0;
+    int total = 0;
+    for (int k = 0; k < weights.length; k++) {
+      fixed[k] = (int) Math.round(weights[k] * ONE);
+      exact += weights[k];
+      total += fixed[k];
+    }
+    fixed[weights.length / 2] += (int) Math.round(exact * ONE) - total;
+    return fixed;
+  }
+
+  /*
+   * Returns the fixed-point weights of a kernel when every weight is a multiple of the fixed-point
+   * step and the sums cannot overflow an int, otherwise null so that doubles are used instead.
+   */
+  private static int[] exactFixedPoint(Kernel kernel) {
+    int[] fixed = new int[kernel.getWidth() * kernel.getHeight()];
+    long total = 0;
+    for (int y = 0; y < kernel.getHeight(); y++) {
+      for (int x = 0; x < kernel.getWidth(); x++) {
+        double scaled = kernel.getWeight(y, x) * ONE;
+        if (scaled != Math.rint(scaled) || Math.abs(scaled) >= Integer.MAX_VALUE) {
+          return null;
+        }
+        fixed[y * kernel.getWidth() + x] = (int) scaled;
+        total += Math.abs((long) scaled);
+      }
+    }
+    return 255 * total + ONE < Integer.MAX_VALUE ? fixed : null;
+  }
+
+  private static long sumOfMagnitudes(int[] weights) {
+    long total = 0;
+    for (int weight : weights) {
+      total += Math.abs(weight);
+    }
+    return total;
+  }
+
+}
@@ -0,0 +1,165 @@
+package application.model.utils;
+
+/**
+ * A two dimensional Haar wavelet transform working in place on a flat row major buffer.
+ * Each level transforms the rows of the top left rectangle and then its columns, and the next
+ * level works on the top left quarter, the averages, until a single average is left. The width
+ * and the height are powers of two which need not be equal: once one side is down to a single
+ * sample the levels go on along the other side only, so a wide image is not padded to a square.
+ * A row is transformed in place with a scratch row for its differences. Columns are transformed
+ * in blocks of 128 columns, combining pairs of rows a block wide, so the transform reads long
+ * runs of contiguous samples instead of one sample per row and its inner loops can be
+ * vectorized. The rows and the column blocks of a level are split across the threads of
+ * {@link ParallelRows}.
+ * Every sample is computed as (a + b) / sqrt(2) and (a - b) / sqrt(2), so the results are
+ * exactly those of the transform done one row or column at a time.
+ */
+public final class HaarWavelet {
+
+  private static final double SQRT2 = Math.sqrt(2);
+
+  /**
+   * The number of columns transformed together.
+   */
+  private static final int COLUMN_BLOCK = 128;
+
+  private HaarWavelet() {
+    // static utility.
+  }
+
+  /**
+   * Transforms a rectangle of samples in place.
+   *
+   * @param data   the samples, row after row.
+   * @param width  the width of the rectangle, a power of two.
+   * @param height the height of the rectangle, a power of two.
+   * @throws IllegalArgumentException if a side is not a power of two or the buffer is too small.
+   */
+  public static void forward(double[] data, int width, int height) {
+    check(data, width, height);
+    for (int w = width, h = height; w > 1 || h > 1; w = Math.max(w / 2, 1),
+            h = Math.max(h / 2, 1)) {
+      rows(data, width, w, h, true);
+      columns(data, width, w, h, true);
+    }
+  }
+
+  /**
+   * Reverts {@link #forward} in place.
+   *
+   * @param data   the transformed samples, row after row.
+   * @param width  the width of the rectangle, a power of two.
+   * @param height the height of the rectangle, a power of two.
+   * @throws IllegalArgumentException if a side is not a power of two or the buffer is too small.
+   */
+  public static void inverse(double[] data, int width, int height) {
+    check(data, width, height);
+    int levels = Integer.numberOfTrailingZeros(Math.max(width, height));
+    for (int level = levels - 1; level >= 0; level--) {
+      int w = Math.max(width >> level, 1);
+      int h = Math.max(height >> level, 1);
+      columns(data, width, w, h, false);
+      rows(data, width, w, h, false);
+    }
+  }
+
+  /* Transforms the first w samples of the first h rows, nothing once the rows are one wide */
+  private static void rows(double[] data, int stride, int w, int h, boolean forward) {
+    if (w < 2) {
+      return;
+    }
+    ParallelRows.forEach(h, w, (startRow, endRow) -> {
+      double[] scratch = new double[w / 2];
+      for (int i = startRow; i < endRow; i++) {
+        transform(data, i * stride, w, scratch, forward);
+      }
+    });
+  }
+
+  /*
+   * Transforms the first h samples of the first w columns, a block of columns at a time. The
+   * pairs of rows are combined like the pairs of samples of a row, a block wide, so the inner
+   * loop runs over contiguous samples. Nothing is done once the columns are one high.
+   */
+  private static void columns(double[] data, int stride, int w, int h, boolean forward) {
+    if (h < 2) {
+      return;
+    }
+    int blocks = (w + COLUMN_BLOCK - 1) / COLUMN_BLOCK;
+    int mid = h / 2;
+    ParallelRows.forEach(blocks, COLUMN_BLOCK * h, (startBlock, endBlock) -> {
+      double[] scratch = new double[mid * COLUMN_BLOCK];
+      for (int b = startBlock; b < endBlock; b++) {
+        int first = b * COLUMN_BLOCK;
+        int width = Math.min(COLUMN_BLOCK, w - first);
+        if (forward) {
+          for (int k = 0; k < mid; k++) {
+            int even = 2 * k * stride + first;
+            int odd = even + stride;
+            int avg = k * stride + first;
+            int diff = k * width;
+            for (int j = 0; j < width; j++) {
+              double x = data[even + j];
+              double y = data[odd + j];
+              data[avg + j] = (x + y) / SQRT2;
+              scratch[diff + j] = (x - y) / SQRT2;
+            }
+          }
+          for (int k = 0; k < mid; k++) {
+            System.arraycopy(scratch, k * width, data, (mid + k) * stride + first, width);
+          }
+        } else {
+          for (int k = 0; k < mid; k++) {
+            System.arraycopy(data, (mid + k) * stride + first, scratch, k * width, width);
+          }
+          for (int k = mid - 1; k >= 0; k--) {
+            int even = 2 * k * stride + first;
+            int odd = even + stride;
+            int avg = k * stride + first;
+            int diff = k * width;
+            for (int j = 0; j < width; j++) {
+              double x = data[avg + j];
+              double y = scratch[diff + j];
+              data[even + j] = (x + y) / SQRT2;
+              data[odd + j] = (x - y) / SQRT2;
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /*
+   * Transforms n samples from an offset in place. Forward, the averages of the pairs go to the
+   * first half, each written over samples already read, and the differences to the second half
+   * through the scratch row. Inverse, the pairs are rebuilt from the last one, which again only
+   * overwrites averages already read.
+   */
+  private static void transform(double[] v, int offset, int n, double[] scratch, boolean forward) {
+    int mid = n / 2;
+    if (forward) {
+      for (int k = 0; k < mid; k++) {
+        double a = v[offset + 2 * k];
+        double b = v[offset + 2 * k + 1];
+        v[offset + k] = (a + b) / SQRT2;
+        scratch[k] = (a - b) / SQRT2;
+      }
+      System.arraycopy(scratch, 0, v, offset + mid, mid);
+    } else {
+      System.arraycopy(v, offset + mid, scratch, 0, mid);
+      for (int k = mid - 1; k >= 0; k--) {
+        double avg = v[offset + k];
+        double diff = scratch[k];
+        v[offset + 2 * k] = (avg + diff) / SQRT2;
+        v[offset + 2 * k + 1] = (avg - diff) / SQRT2;
+      }
+    }
+  }
+
+  private static void check(double[] data, int width, int height) {
+    if (width <= 0 || height <= 0 || Integer.bitCount(width) != 1
+            || Integer.bitCount(height) != 1 || (long) width * height > data.length) {
+      throw new IllegalArgumentException("The wavelet needs power of two sides of samples");
+    }
+  }
+}
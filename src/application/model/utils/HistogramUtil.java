@@ -10,10 +10,13 @@ import application.model.ExtendedRGB;
 
 /**
  * A util class which contains all the methods helpful for histograms.
+ * The histograms are counted from an image, or given already counted by images which count
+ * their values a part at a time.
  */
 public class HistogramUtil {
 
   private ExtendedRGB image;
+  private long[][] histograms;
 
   /**
    * Creates an instance of histogram util with given image.
@@ -24,6 +27,16 @@ public class HistogramUtil {
     this.image = image;
   }
 
+  /**
+   * Creates an instance of histogram util with the histograms of an image.
+   *
+   * @param histograms the number of samples of each value from 0 to 255, for the red, green and
+   *                   blue channel.
+   */
+  public HistogramUtil(long[][] histograms) {
+    this.histograms = histograms;
+  }
+
   /**
    * Plot a histogram .
    *
@@ -37,20 +50,12 @@ public class HistogramUtil {
     g.setColor(Color.WHITE);
     g.fillRect(0, 0, 256, 256);
 
-    int[] redHistogram = new int[256];
-    int[] greenHistogram = new int[256];
-    int[] blueHistogram = new int[256];
-
-    // Calculate the histograms
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        redHistogram[image.getPixelValue(0, y, x)]++;
-        greenHistogram[image.getPixelValue(1, y, x)]++;
-        blueHistogram[image.getPixelValue(2, y, x)]++;
-      }
-    }
+    long[][] histograms = histograms();
+    long[] redHistogram = histograms[0];
+    long[] greenHistogram = histograms[1];
+    long[] blueHistogram = histograms[2];
 
-    int maxValue = Math.max(Math.max(getMax(redHistogram), getMax(greenHistogram)),
+    long maxValue = Math.max(Math.max(getMax(redHistogram), getMax(greenHistogram)),
             getMax(blueHistogram));
 
     // Draw the grid
@@ -82,7 +87,7 @@ public class HistogramUtil {
 
 
   /* Method for drawing histogram lines */
-  private void drawHistogramLines(Graphics g, int[] histogram, int maxValue, Color color) {
+  private void drawHistogramLines(Graphics g, long[] histogram, long maxValue, Color color) {
     g.setColor(color);
     double scale = (double) 256 / maxValue;
 
@@ -98,9 +103,9 @@ public class HistogramUtil {
   }
 
   /* Method for getting max value in a histogram chanel */
-  private int getMax(int[] histogram) {
-    int max = 0;
-    for (int value : histogram) {
+  private long getMax(long[] histogram) {
+    long max = 0;
+    for (long value : histogram) {
       if (value > max) {
         max = value;
       }
@@ -114,12 +119,11 @@ public class HistogramUtil {
    * @return an array of offsets used for color correct and level adjust.
    */
   public int[] computeOffsets() {
-    int[][] histograms = new int[3][256];
+    long[][] histograms = histograms();
     int[] peaks = new int[3];
     int sumPeaks = 0;
 
     for (int channel = 0; channel < 3; channel++) {
-      histograms[channel] = computeHistogram(channel);
       peaks[channel] = findPeak(histograms[channel]);
       sumPeaks += peaks[channel];
     }
@@ -128,21 +132,25 @@ public class HistogramUtil {
     return new int[]{averagePeak - peaks[0], averagePeak - peaks[1], averagePeak - peaks[2]};
   }
 
-  /* Method to compute histogram for a single channel */
-  private int[] computeHistogram(int channel) {
-    int[] histogram = new int[256];
-    for (int y = 0; y < image.getHeight(); y++) {
-      for (int x = 0; x < image.getWidth(); x++) {
-        histogram[image.getPixelValue(channel, y, x)]++;
+  /* Method to get the histograms of the channels, counting them from the image the first time */
+  private long[][] histograms() {
+    if (histograms == null) {
+      histograms = new long[3][256];
+      for (int channel = 0; channel < 3; channel++) {
+        for (int y = 0; y < image.getHeight(); y++) {
+          for (int x = 0; x < image.getWidth(); x++) {
+            histograms[channel][image.getPixelValue(channel, y, x)]++;
+          }
+        }
       }
     }
-    return histogram;
+    return histograms;
   }
 
   /* Method to find peak in a histogram channel */
-  private int findPeak(int[] histogram) {
+  private int findPeak(long[] histogram) {
     int peak = 0;
-    int maxCount = 0;
+    long maxCount = 0;
     // Exclude the extreme values (0-10 and 245-255)
     for (int i = 10; i < 245; i++) {
       if (histogram[i] > maxCount) {
@@ -0,0 +1,256 @@
+package application.model.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable convolution kernel with an odd width and height.
+ * A kernel remembers whether it is separable, i.e. whether it can be written as the outer product
+ * of a column vector and a row vector, so that it can be applied in two one dimensional passes.
+ */
+public final class Kernel {
+
+  private static final double EPSILON = 1e-9;
+
+  private final int width;
+  private final int height;
+  private final double[] weights;
+  private final double[] column;
+  private final double[] row;
+
+  private Kernel(int width, int height, double[] weights, double[] column, double[] row) {
+    this.width = width;
+    this.height = height;
+    this.weights = weights;
+    this.column = column;
+    this.row = row;
+  }
+
+  /**
+   * Creates a kernel from a 2D array of weights indexed by row then column.
+   *
+   * @param values the weights of the kernel.
+   * @return the kernel.
+   * @throws IllegalArgumentException if the array is empty, ragged or has an even size.
+   */
+  public static Kernel of(double[][] values) {
+    if (values.length == 0 || values[0].length == 0) {
+      throw new IllegalArgumentException("Kernel must not be empty");
+    }
+    int height = values.length;
+    int width = values[0].length;
+    if (height % 2 == 0 || width % 2 == 0) {
+      throw new IllegalArgumentException("Kernel width and height must be odd");
+    }
+    double[] weights = new double[width * height];
+    for (int y = 0; y < height; y++) {
+      if (values[y].length != width) {
+        throw new IllegalArgumentException("Every kernel row must have the same length");
+      }
+      System.arraycopy(values[y], 0, weights, y * width, width);
+    }
+
+    double[][] factors = separate(weights, width, height);
+    if (factors == null) {
+      return new Kernel(width, height, weights, null, null);
+    }
+    return new Kernel(width, height, weights, factors[0], factors[1]);
+  }
+
+  /**
+   * Creates the separable kernel which is the outer product of a column and a row vector.
+   *
+   * @param column the vertical weights.
+   * @param row    the horizontal weights.
+   * @return the kernel.
+   */
+  public static Kernel separable(double[] column, double[] row) {
+    if (column.length % 2 == 0 || row.length % 2 == 0) {
+      throw new IllegalArgumentException("Kernel width and height must be odd");
+    }
+    double[] weights = new double[column.length * row.length];
+    for (int y = 0; y < column.length; y++) {
+      for (int x = 0; x < row.length; x++) {
+        weights[y * row.length + x] = column[y] * row[x];
+      }
+    }
+    return new Kernel(row.length, column.length, weights, column.clone(), row.clone());
+  }
+
+  /**
+   * Creates a normalized gaussian kernel. When sigma is not positive the binomial approximation
+   * of a gaussian is used, so a radius of 1 gives the classic [1, 2, 1] / 4 kernel. When the radius
+   * is not positive it is derived from sigma.
+   *
+   * @param radius the number of pixels on each side of the center that contribute.
+   * @param sigma  the standard deviation of the gaussian.
+   * @return a separable gaussian kernel.
+   * @throws IllegalArgumentException if neither a radius nor a sigma is given.
+   */
+  public static Kernel gaussian(int radius, double sigma) {
+    if (radius <= 0 && sigma <= 0) {
+      throw new IllegalArgumentException("Blur needs a positive radius or sigma");
+    }
+    int size = radius > 0 ? radius : (int) Math.ceil(3 * sigma);
+    double[] weights = sigma > 0 ? sampledGaussian(size, sigma) : binomial(size);
+    return separable(weights, weights);
+  }
+
+  /**
+   * Parses a kernel from text. Every non empty line which does not start with '#' is a row of
+   * whitespace separated weights, a weight may be written as a fraction such as 1/16.
+   *
+   * @param text the text of the kernel.
+   * @return the kernel.
+   * @throws IllegalArgumentException if the text is not a valid kernel.
+   */
+  public static Kernel parse(String text) {
+    List<double[]> rows = new ArrayList<>();
+    for (String line : text.split("\\R")) {
+      String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.charAt(0) == '#') {
+        continue;
+      }
+      String[] tokens = trimmed.split("[\\s,]+");
+      double[] values = new double[tokens.length];
+      for (int i = 0; i < tokens.length; i++) {
+        values[i] = parseWeight(tokens[i]);
+      }
+      rows.add(values);
+    }
+    return of(rows.toArray(new double[0][]));
+  }
+
+  /**
+   * Returns the width of the kernel.
+   *
+   * @return the width.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the kernel.
+   *
+   * @return the height.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the weight at the given row and column of the kernel.
+   *
+   * @param y the row.
+   * @param x the column.
+   * @return the weight.
+   */
+  public double getWeight(int y, int x) {
+    return weights[y * width + x];
+  }
+
+  /**
+   * Returns true if the kernel is the outer product of a column and a row vector.
+   *
+   * @return whether the kernel is separable.
+   */
+  public boolean isSeparable() {
+    return row != null;
+  }
+
+  /**
+   * Returns the vertical factor of a separable kernel.
+   *
+   * @return a copy of the column vector, or null if the kernel is not separable.
+   */
+  public double[] getColumnFactor() {
+    return column == null ? null : column.clone();
+  }
+
+  /**
+   * Returns the horizontal factor of a separable kernel.
+   *
+   * @return a copy of the row vector, or null if the kernel is not separable.
+   */
+  public double[] getRowFactor() {
+    return row == null ? null : row.clone();
+  }
+
+  /* Splits a rank one kernel into a column and a row vector, or returns null */
+  private static double[][] separate(double[] weights, int width, int height) {
+    int pivot = 0;
+    for (int i = 1; i < weights.length; i++) {
+      if (Math.abs(weights[i]) > Math.abs(weights[pivot])) {
+        pivot = i;
+      }
+    }
+    double scale = weights[pivot];
+    if (scale == 0) {
+      return null;
+    }
+    int pivotRow = pivot / width;
+    int pivotColumn = pivot % width;
+
+    double[] column = new double[height];
+    double[] row = new double[width];
+    for (int y = 0; y < height; y++) {
+      column[y] = weights[y * width + pivotColumn];
+    }
+    for (int x = 0; x < width; x++) {
+      row[x] = weights[pivotRow * width + x] / scale;
+    }
+
+    double tolerance = EPSILON * Math.abs(scale);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        if (Math.abs(column[y] * row[x] - weights[y * width + x]) > tolerance) {
+          return null;
+        }
+      }
+    }
+    return new double[][]{column, row};
+  }
+
+  /* The row of pascal's triangle of order 2 * radius, normalized to sum to one */
+  private static double[] binomial(int radius) {
+    double[] kernel = new double[2 * radius + 1];
+    kernel[0] = 1;
+    for (int n = 1; n < kernel.length; n++) {
+      for (int k = n; k > 0; k--) {
+        kernel[k] = (kernel[k] + kernel[k - 1]) / 2;
+      }
+      kernel[0] = kernel[0] / 2;
+    }
+    return kernel;
+  }
+
+  /* A sampled gaussian of the given radius and sigma, normalized to sum to one */
+  private static double[] sampledGaussian(int radius, double sigma) {
+    double[] kernel = new double[2 * radius + 1];
+    double total = 0;
+    for (int k = -radius; k <= radius; k++) {
+      kernel[k + radius] = Math.exp(-(k * k) / (2 * sigma * sigma));
+      total += kernel[k + radius];
+    }
+    for (int k = 0; k < kernel.length; k++) {
+      kernel[k] /= total;
+    }
+    return kernel;
+  }
+
+  /* Parses a decimal or a fraction such as 1/16 */
+  private static double parseWeight(String token) {
+    try {
+      int slash = token.indexOf('/');
+      if (slash < 0) {
+        return Double.parseDouble(token);
+      }
+      return Double.parseDouble(token.substring(0, slash))
+              / Double.parseDouble(token.substring(slash + 1));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid kernel weight: " + token);
+    }
+  }
+
+}
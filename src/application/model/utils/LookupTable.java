@@ -0,0 +1,167 @@
+package application.model.utils;
+
+import application.model.PixelBuffer;
+
+/**
+ * An immutable point operation stored as one 256 entry lookup table per channel.
+ * Any operation whose output sample only depends on the input sample of the same channel, such
+ * as brighten, levels adjust or color correct, can be expressed as a lookup table. Tables compose
+ * with {@link #then(LookupTable)}, so a chain of point operations is applied in a single pass.
+ */
+public final class LookupTable implements PixelProcessor.SpanOp {
+
+  private static final int CHANNELS = 3;
+
+  private final byte[][] tables;
+
+  private LookupTable(byte[][] tables) {
+    this.tables = tables;
+  }
+
+  /**
+   * Returns the table which leaves every sample unchanged.
+   *
+   * @return the identity table.
+   */
+  public static LookupTable identity() {
+    return offsets(new int[CHANNELS]);
+  }
+
+  /**
+   * Returns the table which adds the increment to every sample, clamped between 0 and 255.
+   *
+   * @param increment the value to add, may be negative.
+   * @return the brighten table.
+   */
+  public static LookupTable brighten(int increment) {
+    return offsets(new int[]{increment, increment, increment});
+  }
+
+  /**
+   * Returns the table which adds a separate offset to each channel, clamped between 0 and 255.
+   *
+   * @param offsets the offset of the red, green and blue channel.
+   * @return the offset table.
+   */
+  public static LookupTable offsets(int[] offsets) {
+    byte[][] tables = new byte[CHANNELS][256];
+    for (int channel = 0; channel < CHANNELS; channel++) {
+      for (int value = 0; value < 256; value++) {
+        tables[channel][value] = (byte) clamp(value + offsets[channel]);
+      }
+    }
+    return new LookupTable(tables);
+  }
+
+  /**
+   * Returns the levels adjust table which maps black to 0, mid to 128 and white to 255 along a
+   * quadratic curve. Values below black become 0 and values above white become 255.
+   *
+   * @param black the shadow threshold.
+   * @param mid   the mid tone reference point.
+   * @param white the highlight threshold.
+   * @return the levels adjust table.
+   */
+  public static LookupTable levels(int black, int mid, int white) {
+    double normalizationFactor = Math.pow(black, 2) * (mid - white) - black *
+            (Math.pow(mid, 2) - Math.pow(white, 2))
+            + white * Math.pow(mid, 2) - mid * Math.pow(white, 2);
+
+    double coefficientX = -black * (128 - 255) + 128 * white - 255 * mid;
+    double coefficientY = Math.pow(black, 2) * (128 - 255) + 255 * Math.pow(mid, 2) - 128 *
+            Math.pow(white, 2);
+    double coefficientZ = Math.pow(black, 2) * (255 * mid - 128 * white) - black
+            * (255 * Math.pow(mid, 2) - 128 * Math.pow(white, 2));
+
+    double coeffA = coefficientX / normalizationFactor;
+    double coeffB = coefficientY / normalizationFactor;
+    double coeffC = coefficientZ / normalizationFactor;
+
+    byte[] table = new byte[256];
+    for (int value = 0; value < 256; value++) {
+      double result;
+      if (value <= black) {
+        result = 0;
+      } else if (value >= white) {
+        result = 255;
+      } else {
+        result = coeffA * Math.pow(value, 2) + coeffB * value + coeffC;
+        result = Math.max(0, Math.min(255, result));
+      }
+      table[value] = (byte) Math.round(result);
+    }
+    return new LookupTable(new byte[][]{table, table.clone(), table.clone()});
+  }
+
+  /**
+   * Returns the table which applies this table and then the next table.
+   *
+   * @param next the table to apply to the output of this table.
+   * @return the composed table.
+   */
+  public LookupTable then(LookupTable next) {
+    byte[][] composed = new byte[CHANNELS][256];
+    for (int channel = 0; channel < CHANNELS; channel++) {
+      for (int value = 0; value < 256; value++) {
+        composed[channel][value] = next.tables[channel][tables[channel][value] & 0xff];
+      }
+    }
+    return new LookupTable(composed);
+  }
+
+  /**
+   * Returns the output of the table for one sample.
+   *
+   * @param channel the channel of the sample.
+   * @param value   the input value between 0 and 255.
+   * @return the output value between 0 and 255.
+   */
+  public int lookup(int channel, int value) {
+    return tables[channel][value] & 0xff;
+  }
+
+  /**
+   * Applies the table to every sample of the source buffer and writes the destination buffer.
+   * The buffers must have the same shape and three channels, they may be the same buffer.
+   *
+   * @param src the buffer to read.
+   * @param dst the buffer to write.
+   */
+  public void apply(PixelBuffer src, PixelBuffer dst) {
+    if (src.getNumberOfChannels() != CHANNELS || dst.getNumberOfChannels() != CHANNELS) {
+      throw new IllegalArgumentException("Lookup tables apply to RGB buffers only");
+    }
+    byte[] in = src.getData();
+    byte[] out = dst.getData();
+    byte[] red = tables[0];
+    byte[] green = tables[1];
+    byte[] blue = tables[2];
+    int rowLength = src.getWidth() * CHANNELS;
+
+    ParallelRows.forEach(src.getHeight(), src.getWidth(), (startRow, endRow) -> {
+      for (int i = startRow * rowLength, end = endRow * rowLength; i < end; i += CHANNELS) {
+        out[i] = red[in[i] & 0xff];
+        out[i + 1] = green[in[i + 1] & 0xff];
+        out[i + 2] = blue[in[i + 2] & 0xff];
+      }
+    });
+  }
+
+  @Override
+  public void apply(byte[] src, byte[] dst, int from, int to) {
+    byte[] red = tables[0];
+    byte[] green = tables[1];
+    byte[] blue = tables[2];
+    for (int i = from; i < to; i += CHANNELS) {
+      dst[i] = red[src[i] & 0xff];
+      dst[i + 1] = green[src[i + 1] & 0xff];
+      dst[i + 2] = blue[src[i + 2] & 0xff];
+    }
+  }
+
+  /* Clamp the values between 0 and 255 */
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+
+}
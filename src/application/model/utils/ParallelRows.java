@@ -0,0 +1,132 @@
+package application.model.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A util class which runs per-row image work in parallel on a fork join pool.
+ * The rows of an image are split into bands which are processed independently, every row is
+ * written by exactly one band so the output is the same as running the rows in order. Images
+ * smaller than the serial threshold are processed on the calling thread.
+ */
+public final class ParallelRows {
+
+  /**
+   * The default number of pixels below which work is not split.
+   */
+  public static final int DEFAULT_SERIAL_THRESHOLD = 1 << 16;
+
+  private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+  private static volatile int serialThreshold = DEFAULT_SERIAL_THRESHOLD;
+
+  /**
+   * Work done on a contiguous band of rows.
+   */
+  public interface Band {
+
+    /**
+     * Processes the rows from startRow (inclusive) to endRow (exclusive).
+     *
+     * @param startRow the first row of the band.
+     * @param endRow   the row after the last row of the band.
+     */
+    void apply(int startRow, int endRow);
+  }
+
+  private ParallelRows() {
+    // static utility.
+  }
+
+  /**
+   * Sets the number of threads used for image operations. A value of 1 runs every operation on
+   * the calling thread.
+   *
+   * @param threads the number of worker threads.
+   * @throws IllegalArgumentException if the number of threads is less than 1.
+   */
+  public static synchronized void setParallelism(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("The number of threads must be at least 1");
+    }
+    ForkJoinPool previous = pool;
+    if (threads == 1) {
+      pool = null;
+    } else if (threads == ForkJoinPool.getCommonPoolParallelism()) {
+      pool = ForkJoinPool.commonPool();
+    } else {
+      pool = new ForkJoinPool(threads);
+    }
+    if (previous != null && previous != ForkJoinPool.commonPool()) {
+      previous.shutdown();
+    }
+  }
+
+  /**
+   * Returns the number of threads used for image operations.
+   *
+   * @return the parallelism, 1 when operations run serially.
+   */
+  public static int getParallelism() {
+    ForkJoinPool current = pool;
+    return current == null ? 1 : current.getParallelism();
+  }
+
+  /**
+   * Sets the number of pixels below which an operation is not split across threads.
+   *
+   * @param pixels the threshold in pixels.
+   */
+  public static void setSerialThreshold(int pixels) {
+    serialThreshold = Math.max(1, pixels);
+  }
+
+  /**
+   * Runs the band over every row of an image of the given size, splitting the rows across the
+   * pool when the image is large enough. Returns when every row has been processed.
+   *
+   * @param height the number of rows.
+   * @param width  the number of pixels in each row.
+   * @param band   the work to run on each band of rows.
+   */
+  public static void forEach(int height, int width, Band band) {
+    ForkJoinPool current = pool;
+    long pixels = (long) height * width;
+    if (current == null || height < 2 || pixels < serialThreshold) {
+      band.apply(0, height);
+      return;
+    }
+    long perTask = Math.max(serialThreshold, pixels / (4L * current.getParallelism()));
+    int grain = (int) Math.max(1, Math.min(height, perTask / Math.max(1, width)));
+    current.invoke(new BandTask(band, 0, height, grain));
+  }
+
+  /* Splits a range of rows in halves until it is at most grain rows */
+  private static final class BandTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Band band;
+    private final int startRow;
+    private final int endRow;
+    private final int grain;
+
+    BandTask(Band band, int startRow, int endRow, int grain) {
+      this.band = band;
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (endRow - startRow <= grain) {
+        band.apply(startRow, endRow);
+        return;
+      }
+      int middle = (startRow + endRow) >>> 1;
+      invokeAll(new BandTask(band, startRow, middle, grain),
+              new BandTask(band, middle, endRow, grain));
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+package application.model.utils;
+
+import application.model.Mask;
+import application.model.PixelBuffer;
+
+/**
+ * A util class which runs per-pixel operations over RGB pixel buffers without boxing.
+ * Operations are given as primitive functional interfaces working on a single packed pixel or on
+ * a span of interleaved samples. Masked operations walk the selected spans of each row, and rows
+ * without any selected pixel are handed to the outside operation as one span, so the inner loops
+ * of the operations never test the mask.
+ */
+public final class PixelProcessor {
+
+  private static final int CHANNELS = 3;
+
+  /**
+   * Leaves the pixels of a span unchanged.
+   */
+  public static final SpanOp COPY = (src, dst, from, to) ->
+          System.arraycopy(src, from, dst, from, to - from);
+
+  /**
+   * Sets all three channels of every pixel to the largest channel of the pixel.
+   */
+  public static final SpanOp VALUE = span(rgb -> {
+    int max = Math.max(rgb >> 16, Math.max(rgb >> 8 & 0xff, rgb & 0xff));
+    return max << 16 | max << 8 | max;
+  });
+
+  /**
+   * An operation on a single pixel.
+   */
+  public interface PixelOp {
+
+    /**
+     * Maps one pixel to a new pixel. Pixels are packed as {@code 0xRRGGBB}.
+     *
+     * @param rgb the packed input pixel.
+     * @return the packed output pixel, each channel between 0 and 255.
+     */
+    int apply(int rgb);
+  }
+
+  /**
+   * An operation on a span of pixels within one row.
+   */
+  public interface SpanOp {
+
+    /**
+     * Processes the interleaved RGB samples from offset from (inclusive) to offset to
+     * (exclusive), reading src and writing dst at the same offsets.
+     *
+     * @param src  the samples to read.
+     * @param dst  the samples to write.
+     * @param from the offset of the first sample of the span.
+     * @param to   the offset after the last sample of the span.
+     */
+    void apply(byte[] src, byte[] dst, int from, int to);
+  }
+
+  private PixelProcessor() {
+    // static utility.
+  }
+
+  /**
+   * Adapts a single pixel operation to a span operation.
+   *
+   * @param op the pixel operation.
+   * @return a span operation applying op to every pixel of the span.
+   */
+  public static SpanOp span(PixelOp op) {
+    return (src, dst, from, to) -> {
+      for (int i = from; i < to; i += CHANNELS) {
+        int rgb = op.apply((src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff));
+        dst[i] = (byte) (rgb >> 16);
+        dst[i + 1] = (byte) (rgb >> 8);
+        dst[i + 2] = (byte) rgb;
+      }
+    };
+  }
+
+  /**
+   * Applies the inside operation to the pixels selected by the mask and the outside operation to
+   * the other pixels. Without a mask the inside operation gets every row of a band as one span.
+   *
+   * @param src     the RGB buffer to read.
+   * @param dst     an RGB buffer of the same size to write.
+   * @param mask    an optional mask of the same size, may be null.
+   * @param inside  the operation for the selected pixels.
+   * @param outside the operation for the pixels which are not selected.
+   */
+  public static void process(PixelBuffer src, PixelBuffer dst, Mask mask,
+                             SpanOp inside, SpanOp outside) {
+    if (src.getNumberOfChannels() != CHANNELS || dst.getNumberOfChannels() != CHANNELS) {
+      throw new IllegalArgumentException("Pixel operations apply to RGB buffers only");
+    }
+    if (dst.getWidth() != src.getWidth() || dst.getHeight() != src.getHeight()) {
+      throw new IllegalArgumentException("Pixel buffers must have the same dimensions");
+    }
+    byte[] in = src.getData();
+    byte[] out = dst.getData();
+    int width = src.getWidth();
+    int rowLength = width * CHANNELS;
+
+    if (mask != null) {
+      mask.checkSize(width, src.getHeight());
+    }
+
+    ParallelRows.forEach(src.getHeight(), width, (startRow, endRow) -> {
+      if (mask == null) {
+        inside.apply(in, out, startRow * rowLength, endRow * rowLength);
+        return;
+      }
+      int y = startRow;
+      while (y < endRow) {
+        int[] runs = mask.getRuns(y);
+        if (runs.length == 0) {
+          int end = y + 1;
+          while (end < endRow && mask.getRuns(end).length == 0) {
+            end++;
+          }
+          outside.apply(in, out, y * rowLength, end * rowLength);
+          y = end;
+          continue;
+        }
+        int rowStart = y * rowLength;
+        int x = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+          if (x < runs[i]) {
+            outside.apply(in, out, rowStart + x * CHANNELS, rowStart + runs[i] * CHANNELS);
+          }
+          inside.apply(in, out, rowStart + runs[i] * CHANNELS, rowStart + runs[i + 1] * CHANNELS);
+          x = runs[i + 1];
+        }
+        if (x < width) {
+          outside.apply(in, out, rowStart + x * CHANNELS, rowStart + rowLength);
+        }
+        y++;
+      }
+    });
+  }
+
+}
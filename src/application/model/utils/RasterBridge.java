@@ -0,0 +1,146 @@
+package application.model.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+import application.model.AbstractImage;
+import application.model.Image;
+import application.model.PixelBuffer;
+
+/**
+ * A util class which moves pixels between buffered images and pixel buffers in bulk.
+ * The common packed int and interleaved byte image types are read and written through their
+ * data buffers directly. Every other type, such as indexed, gray or premultiplied images, goes
+ * through {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)} one row at a time,
+ * so that its color model converts the pixels exactly as a per-pixel getRGB would.
+ */
+public final class RasterBridge {
+
+  private RasterBridge() {
+    // static utility.
+  }
+
+  /**
+   * Copies the red, green and blue samples of a buffered image into an RGB pixel buffer of the
+   * same size. Alpha is ignored.
+   *
+   * @param source the image to read.
+   * @param target the RGB buffer to write.
+   */
+  public static void read(BufferedImage source, PixelBuffer target) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    if (target.getNumberOfChannels() != 3 || target.getWidth() != width
+            || target.getHeight() != height) {
+      throw new IllegalArgumentException("Pixel buffer does not match the image");
+    }
+    byte[] out = target.getData();
+    Raster raster = source.getRaster();
+
+    switch (isPlain(raster) ? source.getType() : BufferedImage.TYPE_CUSTOM) {
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB:
+        readPacked(((DataBufferInt) raster.getDataBuffer()).getData(), out, 16, 8, 0);
+        break;
+      case BufferedImage.TYPE_INT_BGR:
+        readPacked(((DataBufferInt) raster.getDataBuffer()).getData(), out, 0, 8, 16);
+        break;
+      case BufferedImage.TYPE_3BYTE_BGR:
+        readInterleaved(((DataBufferByte) raster.getDataBuffer()).getData(), out, 3);
+        break;
+      case BufferedImage.TYPE_4BYTE_ABGR:
+        readInterleaved(((DataBufferByte) raster.getDataBuffer()).getData(), out, 4);
+        break;
+      default:
+        int[] row = new int[width];
+        for (int y = 0, i = 0; y < height; y++) {
+          source.getRGB(0, y, width, 1, row, 0, width);
+          for (int x = 0; x < width; x++, i += 3) {
+            out[i] = (byte) (row[x] >> 16);
+            out[i + 1] = (byte) (row[x] >> 8);
+            out[i + 2] = (byte) row[x];
+          }
+        }
+    }
+  }
+
+  /**
+   * Creates an RGB buffered image with the pixels of an image.
+   *
+   * @param image the image to copy.
+   * @return a buffered image of type {@link BufferedImage#TYPE_INT_RGB}.
+   */
+  public static BufferedImage toBufferedImage(Image image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] out = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+
+    if (image instanceof AbstractImage) {
+      byte[] in = ((AbstractImage) image).getPixelBuffer().getData();
+      for (int p = 0, i = 0; p < out.length; p++, i += 3) {
+        out[p] = (in[i] & 0xff) << 16 | (in[i + 1] & 0xff) << 8 | (in[i + 2] & 0xff);
+      }
+      return result;
+    }
+
+    int[] red = new int[width];
+    int[] green = new int[width];
+    int[] blue = new int[width];
+    for (int y = 0, p = 0; y < height; y++) {
+      image.getRow(0, y, red);
+      image.getRow(1, y, green);
+      image.getRow(2, y, blue);
+      for (int x = 0; x < width; x++, p++) {
+        out[p] = red[x] << 16 | green[x] << 8 | blue[x];
+      }
+    }
+    return result;
+  }
+
+  /* Unpacks int pixels using the bit positions of red, green and blue */
+  private static void readPacked(int[] in, byte[] out, int red, int green, int blue) {
+    for (int p = 0, i = 0; i < out.length; p++, i += 3) {
+      int pixel = in[p];
+      out[i] = (byte) (pixel >> red);
+      out[i + 1] = (byte) (pixel >> green);
+      out[i + 2] = (byte) (pixel >> blue);
+    }
+  }
+
+  /* Reorders interleaved bytes whose last three samples of a pixel are blue, green and red */
+  private static void readInterleaved(byte[] in, byte[] out, int pixelStride) {
+    for (int p = pixelStride - 3, i = 0; i < out.length; p += pixelStride, i += 3) {
+      out[i] = in[p + 2];
+      out[i + 1] = in[p + 1];
+      out[i + 2] = in[p];
+    }
+  }
+
+  /*
+   * Returns true if the raster holds exactly its own pixels from the start of a single bank with
+   * no padding, which is the layout the direct paths assume. Sub images and custom layouts fall
+   * back to getRGB.
+   */
+  private static boolean isPlain(Raster raster) {
+    if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+            || raster.getDataBuffer().getNumBanks() != 1
+            || raster.getDataBuffer().getOffset() != 0) {
+      return false;
+    }
+    if (raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+      SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+      return model.getScanlineStride() == raster.getWidth();
+    }
+    if (raster.getSampleModel() instanceof ComponentSampleModel) {
+      ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+      return model.getScanlineStride() == raster.getWidth() * model.getPixelStride();
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,42 @@
+import application.model.ExtendedRGB;
+import application.model.PixelBuffer;
+
+/**
+ * A benchmark for the wavelet compression.
+ * It compresses a 4096 x 4096 image a few times and prints the time of each run, the first runs
+ * include the compilation of the transform. Run it with
+ * {@code java CompressBenchmark [width height]}.
+ */
+public class CompressBenchmark {
+
+  private static final int ROUNDS = 3;
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args optional width and height of the test image.
+   */
+  public static void main(String[] args) {
+    int width = args.length == 2 ? Integer.parseInt(args[0]) : 4096;
+    int height = args.length == 2 ? Integer.parseInt(args[1]) : 4096;
+
+    ExtendedRGB image = new ExtendedRGB(width, height);
+    PixelBuffer pixels = image.getPixelBuffer();
+    byte[] data = pixels.getData();
+    for (int y = 0; y < height; y++) {
+      for (int x = 0, i = pixels.offset(y, 0); x < width; x++) {
+        for (int c = 0; c < 3; c++) {
+          data[i++] = (byte) (x * 7 + y * 13 + c * 61);
+        }
+      }
+    }
+
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      image.compress(50);
+      long nanos = System.nanoTime() - start;
+      System.out.printf("compress %10.1f ms %8.1f MP/s%n", nanos / 1e6,
+              (double) width * height / (nanos / 1e3));
+    }
+  }
+}
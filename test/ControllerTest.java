@@ -1,12 +1,35 @@
 import org.junit.Test;
 
+import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Future;
 
+import application.controller.BatchRunner;
+import application.controller.CodecRegistry;
+import application.controller.IOImage;
+import application.controller.ImageCodec;
 import application.controller.ImageController;
+import application.controller.JobRunner;
+import application.controller.PPMImage;
+import application.controller.ScriptServer;
+import application.model.Image;
+import application.model.ImageMap;
+import application.model.RGBImage;
 
 import static org.junit.Assert.assertEquals;
 
@@ -51,4 +74,489 @@ public class ControllerTest {
   }
 
 
+  /* The PPM reader skips comments and arbitrary whitespace, and the writer round trips */
+  @Test
+  public void testPPMComments() throws IOException {
+
+    File file = File.createTempFile("comments", ".ppm");
+    try (FileWriter ppm = new FileWriter(file)) {
+      ppm.write("P3 # a comment after the magic\n# a full line comment\n2\t1\n255\n"
+              + "0 10 20   255\n\n  128 #trailing\n 7\n");
+    }
+
+    Image image = new PPMImage().load(file.getPath());
+    assertEquals(2, image.getWidth());
+    assertEquals(1, image.getHeight());
+    assertEquals(20, image.getPixelValue(2, 0, 0));
+    assertEquals(255, image.getPixelValue(0, 0, 1));
+    assertEquals(7, image.getPixelValue(2, 0, 1));
+
+    new PPMImage().save(file.getPath(), image);
+    Image saved = new PPMImage().load(file.getPath());
+    for (int c = 0; c < 3; c++) {
+      assertEquals(image.getPixelValue(c, 0, 1), saved.getPixelValue(c, 0, 1));
+    }
+    file.delete();
+  }
+
+  /* A dimension which does not fit in an int is rejected rather than wrapped to a small one */
+  @Test(expected = IllegalArgumentException.class)
+  public void testPPMOversizedDimension() throws IOException {
+
+    File file = File.createTempFile("oversized", ".ppm");
+    try (FileWriter ppm = new FileWriter(file)) {
+      ppm.write("P3\n4294967300 1\n255\n0 0 0 0 0 0 0 0 0 0 0 0\n");
+    }
+    try {
+      new PPMImage().load(file.getPath());
+    } finally {
+      file.delete();
+    }
+  }
+
+  /* Binary and 16-bit files load by their magic number, large ones through a mapping */
+  @Test
+  public void testBinaryPPM() throws IOException {
+
+    RGBImage image = new RGBImage(700, 600);
+    for (int i = 0; i < 600; i++) {
+      for (int j = 0; j < 700; j++) {
+        for (int c = 0; c < 3; c++) {
+          image.setPixelValue(c, i, j, (i * 3 + j * 7 + c * 50) % 256);
+        }
+      }
+    }
+    File file = File.createTempFile("binary", ".img");
+    new PPMImage("P6").save(file.getPath(), image);
+    assertEquals(true, CodecRegistry.getDefault().forLoading(file.getPath()) instanceof PPMImage);
+    Image loaded = new PPMImage().load(file.getPath());
+    for (int c = 0; c < 3; c++) {
+      assertEquals(image.getPixelValue(c, 599, 699), loaded.getPixelValue(c, 599, 699));
+      assertEquals(image.getPixelValue(c, 123, 45), loaded.getPixelValue(c, 123, 45));
+    }
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write("P5\n2 1\n65535\n".getBytes(StandardCharsets.US_ASCII));
+      out.write(new byte[]{(byte) 0xff, (byte) 0xff, (byte) 0x80, 0x00});
+    }
+    Image gray = new PPMImage().load(file.getPath());
+    assertEquals(255, gray.getPixelValue(0, 0, 0));
+    assertEquals(128, gray.getPixelValue(1, 0, 1));
+    assertEquals(128, gray.getPixelValue(2, 0, 1));
+    file.delete();
+  }
+
+  /* Codecs are picked by header bytes for loading, so misnamed files still load */
+  @Test
+  public void testCodecRegistry() throws IOException {
+
+    RGBImage image = new RGBImage(3, 2);
+    image.setPixelValue(0, 1, 2, 200);
+    File png = File.createTempFile("misnamed", ".png");
+    new IOImage().save(png.getPath(), image);
+    File misnamed = new File(png.getPath().replace(".png", ".ppm"));
+    png.renameTo(misnamed);
+
+    CodecRegistry registry = CodecRegistry.getDefault();
+    ImageCodec codec = registry.forLoading(misnamed.getPath());
+    assertEquals("ImageIO", codec.getName());
+    assertEquals(200, codec.load(misnamed.getPath()).getPixelValue(0, 1, 2));
+    assertEquals("PPM", registry.forSaving(misnamed.getPath()).getName());
+    assertEquals(true, registry.forSaving("out.pgm").getCapabilities()
+            .contains(ImageCodec.Capability.STREAMING));
+    misnamed.delete();
+  }
+
+  /* Region and size loads decode only part of the image, for both decoding paths */
+  @Test
+  public void testRegionLoad() throws IOException {
+
+    RGBImage image = new RGBImage(40, 30);
+    for (int i = 0; i < 30; i++) {
+      for (int j = 0; j < 40; j++) {
+        image.setPixelValue(0, i, j, i * 8);
+        image.setPixelValue(1, i, j, j * 6);
+      }
+    }
+    File png = File.createTempFile("region", ".png");
+    File ppm = File.createTempFile("region", ".ppm");
+    new IOImage().save(png.getPath(), image);
+    new PPMImage().save(ppm.getPath(), image);
+
+    Rectangle region = new Rectangle(5, 10, 20, 12);
+    for (File file : new File[]{png, ppm}) {
+      Image crop = CodecRegistry.getDefault().forLoading(file.getPath())
+              .load(file.getPath(), region, 0, 0);
+      assertEquals(20, crop.getWidth());
+      assertEquals(12, crop.getHeight());
+      assertEquals(image.getPixelValue(0, 21, 24), crop.getPixelValue(0, 11, 19));
+      assertEquals(image.getPixelValue(1, 10, 5), crop.getPixelValue(1, 0, 0));
+    }
+
+    ImageMap model = new ImageMap();
+    new ImageController(new StringReader("load -size 10 6 " + png.getPath() + " thumb"),
+            new StringWriter()).runApplication(model);
+    assertEquals(10, model.getImage("thumb").getWidth());
+    assertEquals(6, model.getImage("thumb").getHeight());
+    png.delete();
+    ppm.delete();
+  }
+
+  @Test
+  public void testScriptLiveness() throws IOException {
+
+    RGBImage image = new RGBImage(4, 4);
+    File ppm = File.createTempFile("liveness", ".ppm");
+    File saved = File.createTempFile("liveness", ".ppm");
+    new PPMImage().save(ppm.getPath(), image);
+
+    String script = "load " + ppm.getPath() + " a\n"
+            + "brighten 10 a b\n"
+            + "blur a unused\n"
+            + "sepia b c\n"
+            + "save " + saved.getPath() + " c\n";
+    StringWriter output = new StringWriter();
+    ImageMap model = new ImageMap();
+    new ImageController(new StringReader(script), output).runScript(model);
+
+    assertEquals(true, output.toString().contains("Command skipped, result never used: blur"));
+    assertEquals(true, output.toString().contains("Command performed: save"));
+    assertEquals(4, new PPMImage().load(saved.getPath()).getWidth());
+    for (String name : new String[]{"a", "b", "c", "unused"}) {
+      try {
+        model.getImage(name);
+        throw new AssertionError(name + " should have been released");
+      } catch (IllegalArgumentException e) {
+        assertEquals("Image Not Found: " + name, e.getMessage());
+      }
+    }
+    ppm.delete();
+    saved.delete();
+  }
+
+  @Test
+  public void testParallelScript() throws IOException {
+
+    RGBImage image = new RGBImage(8, 6);
+    for (int i = 0; i < 6; i++) {
+      for (int j = 0; j < 8; j++) {
+        image.setPixelValue(0, i, j, i * 40);
+        image.setPixelValue(2, i, j, j * 30);
+      }
+    }
+    File ppm = File.createTempFile("parallel", ".ppm");
+    new PPMImage().save(ppm.getPath(), image);
+
+    String[] saved = new String[2];
+    String[] outputs = new String[2];
+    for (int run = 0; run < 2; run++) {
+      File result = File.createTempFile("parallel", ".ppm");
+      String script = "load " + ppm.getPath() + " a\n"
+              + "sepia a s\n"
+              + "blur a b\n"
+              + "brighten 10 missing s\n"
+              + "rgb-split b r g bl\n"
+              + "rgb-combine c bl g s\n"
+              + "vertical-flip c c\n"
+              + "save " + result.getPath() + " c\n";
+      StringWriter output = new StringWriter();
+      new ImageController(new StringReader(script), output).runScript(new ImageMap(),
+              run == 0 ? 1 : 4);
+      outputs[run] = output.toString().replace(result.getPath(), "result");
+      saved[run] = new String(java.nio.file.Files.readAllBytes(result.toPath()),
+              StandardCharsets.US_ASCII);
+      result.delete();
+    }
+
+    assertEquals(outputs[0], outputs[1]);
+    assertEquals(saved[0], saved[1]);
+    assertEquals(true, outputs[1].contains("Image Not Found: missing"));
+    ppm.delete();
+  }
+
+
+  /* Every file of a directory runs the template, a broken file fails alone */
+  /* A failure while freeing images stops a parallel script instead of leaving it waiting */
+  @Test(expected = IllegalStateException.class)
+  public void testParallelScriptFailure() throws IOException {
+
+    File ppm = File.createTempFile("parallel", ".ppm");
+    new PPMImage().save(ppm.getPath(), new RGBImage(4, 3));
+    ImageMap model = new ImageMap() {
+      @Override
+      public void removeImage(String imageName) {
+        throw new IllegalStateException("Cannot remove " + imageName);
+      }
+    };
+    String script = "load " + ppm.getPath() + " a\nsepia a s\nbrighten 10 s b\nsave "
+            + ppm.getPath() + " b\n";
+    try {
+      new ImageController(new StringReader(script), new StringWriter()).runScript(model, 4);
+    } finally {
+      ppm.delete();
+    }
+  }
+
+  @Test
+  public void testBatchRunner() throws IOException {
+
+    File input = java.nio.file.Files.createTempDirectory("batch-in").toFile();
+    File output = new File(input.getParentFile(), input.getName() + "-out");
+    for (int n = 0; n < 5; n++) {
+      RGBImage image = new RGBImage(4, 3);
+      image.setPixelValue(0, 1, 2, n * 40);
+      new PPMImage().save(new File(input, "image" + n + ".ppm").getPath(), image);
+    }
+    try (FileWriter broken = new FileWriter(new File(input, "broken.ppm"))) {
+      broken.write("P3\n2 2\n0\n");
+    }
+    try (FileWriter notes = new FileWriter(new File(input, "notes.txt"))) {
+      notes.write("not an image");
+    }
+
+    String template = "load {in} img\n"
+            + "brighten 10 img bright\n"
+            + "save {out} bright\n"
+            + "horizontal-flip img flipped\n"
+            + "save " + output.getPath() + "/{name}-flipped.ppm flipped\n";
+    StringWriter log = new StringWriter();
+    int failed;
+    try (JobRunner jobs = new JobRunner(2, 1, 1 << 20)) {
+      failed = new BatchRunner(template, ImageMap::new, jobs, 3).run(input, output, log);
+    }
+
+    assertEquals(1, failed);
+    assertEquals(true, log.toString().contains("Failed: broken.ppm"));
+    assertEquals(true, log.toString().contains("Batch done: 6 files, 1 failed"));
+    for (int n = 0; n < 5; n++) {
+      Image bright = new PPMImage().load(new File(output, "image" + n + ".ppm").getPath());
+      assertEquals(n * 40 + 10, bright.getPixelValue(0, 1, 2));
+      Image flipped = new PPMImage().load(new File(output, "image" + n + "-flipped.ppm")
+              .getPath());
+      assertEquals(n * 40, flipped.getPixelValue(0, 1, 1));
+    }
+
+    for (File directory : new File[]{input, output}) {
+      for (File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  /* Sessions of the server keep their images apart and every command gets a status line */
+  @Test
+  public void testScriptServer() throws IOException, InterruptedException {
+
+    File[] files = new File[2];
+    for (int n = 0; n < 2; n++) {
+      RGBImage image = new RGBImage(2, 2);
+      image.setPixelValue(0, 0, 0, 100 * n);
+      files[n] = File.createTempFile("server", ".ppm");
+      new PPMImage().save(files[n].getPath(), image);
+    }
+
+    JobRunner jobs = new JobRunner(2, 2, 1 << 20);
+    ScriptServer server = new ScriptServer(0, ImageMap::new, jobs);
+    Thread serving = new Thread(() -> {
+      try {
+        server.serve();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    serving.start();
+
+    int port = ((InetSocketAddress) server.getAddress()).getPort();
+    try (Socket first = new Socket("localhost", port);
+         Socket second = new Socket("localhost", port)) {
+      BufferedReader[] in = new BufferedReader[2];
+      Writer[] out = new Writer[2];
+      Socket[] sockets = {first, second};
+      for (int n = 0; n < 2; n++) {
+        in[n] = new BufferedReader(new InputStreamReader(
+                sockets[n].getInputStream(), StandardCharsets.UTF_8));
+        out[n] = new OutputStreamWriter(sockets[n].getOutputStream(),
+                StandardCharsets.UTF_8);
+      }
+
+      for (int n = 0; n < 2; n++) {
+        out[n].write("load " + files[n].getPath() + " a\n");
+        out[n].flush();
+        assertEquals("Command performed: load " + files[n].getPath() + " a", in[n].readLine());
+        assertEquals(true, in[n].readLine().matches("OK [0-9.,]+ ms"));
+      }
+      out[1].write("save " + files[1].getPath() + " a\n");
+      out[1].flush();
+      in[1].readLine();
+      assertEquals(true, in[1].readLine().startsWith("OK "));
+      out[0].write("brighten 10 a b\n# a comment\nbrighten 10 missing c\n"
+              + "save " + files[0].getPath() + " b\nquit\n");
+      out[0].flush();
+      assertEquals("Command performed: brighten 10 a b", in[0].readLine());
+      assertEquals(true, in[0].readLine().startsWith("OK "));
+      assertEquals(true, in[0].readLine().startsWith("OK "));
+      assertEquals("Image Not Found: missing", in[0].readLine());
+      assertEquals(true, in[0].readLine().startsWith("FAILED "));
+      in[0].readLine();
+      assertEquals(true, in[0].readLine().startsWith("OK "));
+      assertEquals("Exiting application", in[0].readLine());
+      assertEquals(null, in[0].readLine());
+    } finally {
+      server.close();
+      serving.join();
+      jobs.close();
+    }
+
+    // Both sessions named their image a, each saw its own
+    assertEquals(10, new PPMImage().load(files[0].getPath()).getPixelValue(0, 0, 0));
+    assertEquals(100, new PPMImage().load(files[1].getPath()).getPixelValue(0, 0, 0));
+    files[0].delete();
+    files[1].delete();
+  }
+
+  /* A server does not replace a file at its socket path which is not a socket */
+  @Test(expected = BindException.class)
+  public void testScriptServerKeepsFiles() throws IOException {
+
+    File file = File.createTempFile("server", ".sock");
+    try (FileWriter writer = new FileWriter(file)) {
+      writer.write("not a socket");
+    }
+    try (JobRunner jobs = new JobRunner(1, 1, 1)) {
+      new ScriptServer(file.getPath(), ImageMap::new, jobs).close();
+    } finally {
+      assertEquals(12, file.length());
+      file.delete();
+    }
+  }
+
+  /* Jobs hold the pixels of their images, new jobs wait until running ones give them back */
+  @Test
+  public void testJobRunner() throws Exception {
+
+    File ppm = File.createTempFile("job", ".ppm");
+    new PPMImage().save(ppm.getPath(), new RGBImage(4, 3));
+
+    try (JobRunner jobs = new JobRunner(1, 1, 36)) {
+      JobRunner.Session first = jobs.open();
+      StringWriter output = new StringWriter();
+      ImageController controller = new ImageController(new StringReader("load " + ppm.getPath()
+              + " a\nbrighten 10 a b\nbrighten 10 missing c\n"), output);
+      controller.setSession(first);
+      controller.runApplication(new ImageMap());
+      // The loaded image and the brightened one
+      assertEquals(72, jobs.getPixelBytes());
+      assertEquals(1, controller.getFailedCommands());
+      assertEquals(true, output.toString().endsWith("Image Not Found: missing"));
+
+      Future<JobRunner.Session> second = jobs.submit(jobs::open);
+      Thread.sleep(100);
+      assertEquals(false, second.isDone());
+      first.close();
+      second.get().close();
+      assertEquals(0, jobs.getPixelBytes());
+    }
+    ppm.delete();
+  }
+
+  /* Loading a file which is missing fails the command and stores no image */
+  @Test
+  public void testLoadMissingFile() {
+
+    File missing = new File(System.getProperty("java.io.tmpdir"), "missing-image.ppm");
+    missing.delete();
+    ImageController controller = new ImageController(new StringReader(""), new StringBuilder());
+    ImageMap model = new ImageMap();
+    assertEquals("Cannot load " + missing.getPath(),
+            controller.runCommand(model, "load " + missing.getPath() + " a"));
+    assertEquals(1, controller.getFailedCommands());
+    assertEquals("Image Not Found: a", controller.runCommand(model, "brighten 10 a b"));
+  }
+
+  /* A job which writes over its images holds only the pixels of the images it still has */
+  @Test
+  public void testJobRunnerReplacedImages() throws Exception {
+
+    File ppm = File.createTempFile("job", ".ppm");
+    new PPMImage().save(ppm.getPath(), new RGBImage(4, 3));
+
+    try (JobRunner jobs = new JobRunner(1, 1, 36);
+         JobRunner.Session session = jobs.open()) {
+      ImageController controller = new ImageController(new StringReader(""),
+              new StringBuilder());
+      controller.setSession(session);
+      ImageMap model = new ImageMap();
+      for (int n = 0; n < 3; n++) {
+        controller.runCommand(model, "load " + ppm.getPath() + " a");
+        assertEquals(36, jobs.getPixelBytes());
+      }
+      // A filter writing over an image holds the pixels of its result instead
+      controller.runCommand(model, "brighten 10 a a");
+      assertEquals(36, jobs.getPixelBytes());
+      controller.runCommand(model, "brighten 10 a b");
+      assertEquals(72, jobs.getPixelBytes());
+
+      Future<JobRunner.Session> second = jobs.submit(jobs::open);
+      Thread.sleep(100);
+      assertEquals(false, second.isDone());
+      session.close();
+      second.get().close();
+      assertEquals(0, jobs.getPixelBytes());
+    }
+    ppm.delete();
+  }
+
+  /* A streamed script saves the same files as the usual path, other scripts fall back to it */
+  @Test
+  public void testStreamingScript() throws IOException {
+
+    RGBImage image = new RGBImage(37, 150);
+    for (int i = 0; i < 150; i++) {
+      for (int j = 0; j < 37; j++) {
+        image.setPixelValue(0, i, j, i);
+        image.setPixelValue(1, i, j, j * 6);
+        image.setPixelValue(2, i, j, (i * j) % 256);
+      }
+    }
+    File ppm = File.createTempFile("stream", ".ppm");
+    new PPMImage().save(ppm.getPath(), image);
+
+    String[] scripts = {"brighten 20 a b\n"
+            + "sepia b s split 40\n"
+            + "levels-adjust 10 100 240 s s\n"
+            + "blue-component a unused\n"
+            + "save {out}.ppm s\n"
+            + "luma-component b l\n"
+            + "save {out}.pgm l\n",
+        "histogram a h\n"
+            + "save {out}.ppm h\n"
+            + "intensity-component a i\n"
+            + "save {out}.pgm i\n"};
+    for (String script : scripts) {
+      String[] outputs = new String[2];
+      String[][] saved = new String[2][2];
+      for (int run = 0; run < 2; run++) {
+        File result = File.createTempFile("stream", "");
+        StringWriter output = new StringWriter();
+        ImageController controller = new ImageController(new StringReader("load " + ppm.getPath()
+                + " a\n" + script.replace("{out}", result.getPath())), output);
+        controller.setStreaming(run == 1);
+        controller.runScript(new ImageMap());
+        outputs[run] = output.toString().replace(result.getPath(), "result");
+        for (int n = 0; n < 2; n++) {
+          File file = new File(result.getPath() + (n == 0 ? ".ppm" : ".pgm"));
+          saved[run][n] = new String(java.nio.file.Files.readAllBytes(file.toPath()),
+                  StandardCharsets.US_ASCII);
+          file.delete();
+        }
+        result.delete();
+      }
+
+      assertEquals(outputs[0], outputs[1]);
+      assertEquals(saved[0][0], saved[1][0]);
+      assertEquals(saved[0][1], saved[1][1]);
+    }
+    ppm.delete();
+  }
 }
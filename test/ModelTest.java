@@ -1,10 +1,29 @@
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 
 import org.junit.Test;
 
+import application.model.CachedImageProcessor;
+import application.model.DeferredImage;
 import application.model.ExtendedRGB;
 import application.model.Image;
+import application.model.ImageMap;
+import application.model.Mask;
+import application.model.ResultCache;
+import application.model.StoreStatistics;
+import application.model.TiledImage;
+import application.model.utils.ColorMatrix;
+import application.model.utils.CompressUtil;
+import application.model.utils.HaarWavelet;
+import application.model.utils.Kernel;
+import application.model.utils.LookupTable;
+import application.model.utils.ParallelRows;
+import application.model.utils.RasterBridge;
 
 /**
  * A Junit test for testing model.
@@ -301,6 +320,473 @@ public class ModelTest {
     }
   }
 
+  @Test
+  public void testPixelBufferRows() {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+
+    for (int i = 0; i < 4; i++) {
+      for (int c = 0; c < 3; c++) {
+        model.setRow(c, i, image[c][i]);
+      }
+    }
+
+    int[] row = new int[4];
+    for (int i = 0; i < 4; i++) {
+      for (int c = 0; c < 3; c++) {
+        model.getRow(c, i, row);
+        for (int j = 0; j < 4; j++) {
+          assertEquals(image[c][i][j], row[j]);
+          assertEquals(image[c][i][j], model.getPixelValue(c, i, j));
+        }
+      }
+    }
+
+    // the channels array is a copy and does not write through to the image
+    int[][][] channels = model.getChannels();
+    channels[0][0][0] = 100;
+    assertEquals(0, model.getPixelValue(0, 0, 0));
+    assertEquals(4 * 4 * 3, model.getPixelBuffer().getData().length);
+  }
+
+  @Test
+  public void testBlurBorder() {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, 100);
+        }
+      }
+    }
+
+    Image blurred = model.blur(null);
+    Image wideBlur = model.blur(null, 3, 1.5);
+
+    // a flat image stays flat, including the border pixels
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          assertEquals(100, blurred.getPixelValue(c, i, j));
+          assertEquals(100, wideBlur.getPixelValue(c, i, j));
+        }
+      }
+    }
+  }
+
+  /* Options without images are reported like any wrong number of arguments */
+  @Test(expected = IllegalArgumentException.class)
+  public void testBlurOptionsOnly() {
+    new ImageMap().blur(new String[]{"-radius", "3"});
+  }
+
+  @Test
+  public void testConvolveKernel() {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, image[c][i][j]);
+        }
+      }
+    }
+
+    Kernel identity = Kernel.parse("# identity\n0 0 0\n0 1 0\n0 0 0\n");
+    Kernel shiftLeft = Kernel.parse("0 0 1");
+
+    Image same = model.convolve(null, identity);
+    Image shifted = model.convolve(null, shiftLeft);
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int k = 0; k < 3; k++) {
+          assertEquals(image[k][i][j], same.getPixelValue(k, i, j));
+          assertEquals(image[k][i][Math.min(j + 1, 3)], shifted.getPixelValue(k, i, j));
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoThreads() {
+    ParallelRows.setParallelism(0);
+  }
+
+  @Test
+  public void testParallelMatchesSerial() {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, image[c][i][j]);
+        }
+      }
+    }
+
+    int parallelism = ParallelRows.getParallelism();
+    Image[] serial;
+    Image[] parallel;
+    try {
+      ParallelRows.setParallelism(1);
+      serial = new Image[]{model.blur(null), model.sepia(null), model.levelsAdjust(20, 120, 255)};
+
+      ParallelRows.setParallelism(4);
+      ParallelRows.setSerialThreshold(1);
+      parallel = new Image[]{model.blur(null), model.sepia(null),
+          model.levelsAdjust(20, 120, 255)};
+    } finally {
+      ParallelRows.setSerialThreshold(ParallelRows.DEFAULT_SERIAL_THRESHOLD);
+      ParallelRows.setParallelism(parallelism);
+    }
+
+    for (int n = 0; n < serial.length; n++) {
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 4; j++) {
+          for (int k = 0; k < 3; k++) {
+            assertEquals(serial[n].getPixelValue(k, i, j), parallel[n].getPixelValue(k, i, j));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testComposedLookup() {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, image[c][i][j]);
+        }
+      }
+    }
+
+    Image brightened = model.brighten(30);
+    ExtendedRGB copy = new ExtendedRGB(4, 4);
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          copy.setPixelValue(c, i, j, brightened.getPixelValue(c, i, j));
+        }
+      }
+    }
+    Image stepByStep = copy.levelsAdjust(20, 120, 255);
+    Image fused = model.lookup(LookupTable.brighten(30).then(LookupTable.levels(20, 120, 255)));
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int k = 0; k < 3; k++) {
+          assertEquals(stepByStep.getPixelValue(k, i, j), fused.getPixelValue(k, i, j));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFusedColorMatrix() {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, image[c][i][j]);
+        }
+      }
+    }
+
+    Image stepByStep = model.lumaComponent(null).sepia(null);
+    Image fused = model.colorMatrix(null, ColorMatrix.luma().then(ColorMatrix.sepia()));
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int k = 0; k < 3; k++) {
+          assertEquals(stepByStep.getPixelValue(k, i, j), fused.getPixelValue(k, i, j), 1);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMaskSpans() {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+    ExtendedRGB maskImage = new ExtendedRGB(4, 4);
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        boolean selected = i == 1 && j != 2 || i == 2 && j == 3;
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, image[c][i][j]);
+          maskImage.setPixelValue(c, i, j, selected ? 0 : 255);
+        }
+      }
+    }
+
+    Mask mask = Mask.of(maskImage);
+    assertArrayEquals(new int[]{0, 2, 3, 4}, mask.getRuns(1));
+    assertArrayEquals(new int[]{3, 4}, mask.getRuns(2));
+    assertEquals(0, mask.getRuns(0).length);
+    assertEquals(1, mask.getTop());
+    assertEquals(3, mask.getBottom());
+    assertEquals(0, mask.getLeft());
+    assertEquals(4, mask.getRight());
+
+    Image sepia = model.sepia(null);
+    Image masked = model.sepia(mask);
+    Image blurred = model.blur(null);
+    Image maskedBlur = model.blur(mask);
+
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int k = 0; k < 3; k++) {
+          if (mask.isSelected(i, j)) {
+            assertEquals(sepia.getPixelValue(k, i, j), masked.getPixelValue(k, i, j));
+            assertEquals(blurred.getPixelValue(k, i, j), maskedBlur.getPixelValue(k, i, j));
+          } else {
+            assertEquals(image[k][i][j], masked.getPixelValue(k, i, j));
+            assertEquals(image[k][i][j], maskedBlur.getPixelValue(k, i, j));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRasterBridge() {
+
+    int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+        BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED};
+
+    for (int type : types) {
+      BufferedImage buffered = new BufferedImage(4, 4, type);
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 4; j++) {
+          buffered.setRGB(j, i, image[0][i][j] << 16 | image[1][i][j] << 8 | image[2][i][j]);
+        }
+      }
+
+      ExtendedRGB model = new ExtendedRGB(4, 4);
+      RasterBridge.read(buffered, model.getPixelBuffer());
+      BufferedImage back = RasterBridge.toBufferedImage(model);
+
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 4; j++) {
+          int rgb = buffered.getRGB(j, i);
+          assertEquals((rgb >> 16) & 0xff, model.getPixelValue(0, i, j));
+          assertEquals((rgb >> 8) & 0xff, model.getPixelValue(1, i, j));
+          assertEquals(rgb & 0xff, model.getPixelValue(2, i, j));
+          assertEquals(rgb & 0xffffff, back.getRGB(j, i) & 0xffffff);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTiledImage() {
+
+    int width = 37;
+    int height = 29;
+    ExtendedRGB model = new ExtendedRGB(width, height);
+    ExtendedRGB maskImage = new ExtendedRGB(width, height);
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, (i * 31 + j * 17 + c * 71) % 256);
+          maskImage.setPixelValue(c, i, j, (i + j) % 3 == 0 ? 0 : 255);
+        }
+      }
+    }
+
+    // Tiles of 8 pixels, so that kernels and flips cross tile edges and the last tiles are partial
+    TiledImage tiled = new TiledImage(width, height, 8, 9);
+    tiled.writeRegion(0, 0, model.getPixelBuffer());
+    Mask mask = Mask.of(maskImage);
+
+    Image[] expected = {model.sepia(mask), model.lumaComponent(mask), model.brighten(40),
+        model.blur(null, 3, 0), model.sharpen(mask), model.flip("horizontal"),
+        model.flip("vertical"), model.downScaling(13, 17), model.histogram(),
+        model.colorCorrect()};
+    Image[] actual = {tiled.sepia(mask), tiled.lumaComponent(mask), tiled.brighten(40),
+        tiled.blur(null, 3, 0), tiled.sharpen(mask), tiled.flip("horizontal"),
+        tiled.flip("vertical"), tiled.downScaling(13, 17), tiled.histogram(),
+        tiled.colorCorrect()};
+
+    for (int k = 0; k < expected.length; k++) {
+      assertEquals(expected[k].getWidth(), actual[k].getWidth());
+      assertEquals(expected[k].getHeight(), actual[k].getHeight());
+      for (int c = 0; c < 3; c++) {
+        for (int i = 0; i < expected[k].getHeight(); i++) {
+          for (int j = 0; j < expected[k].getWidth(); j++) {
+            assertEquals(expected[k].getPixelValue(c, i, j), actual[k].getPixelValue(c, i, j));
+          }
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTiledCompress() {
+
+    ImageMap map = new ImageMap();
+    map.load("tiled", new TiledImage(20, 20, 8, 9));
+    map.compress(50, "tiled", "compressed");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTiledDither() {
+
+    ImageMap map = new ImageMap();
+    map.load("tiled", new TiledImage(20, 20, 8, 9));
+    map.dither(new String[]{"tiled", "dithered"});
+  }
+
+  @Test
+  public void testImageMapSpill() {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, image[c][i][j]);
+        }
+      }
+    }
+
+    // Room for two 4 x 4 images, so each further image spills the least recently used one
+    ImageMap map = new ImageMap(700);
+    map.load("model", model);
+    map.sepia(new String[]{"model", "sepia"});
+    map.brighten(new String[]{"20", "model", "bright"});
+    StoreStatistics statistics = map.getStatistics();
+    assertEquals(1, statistics.getSpills());
+    assertEquals(0, statistics.getReloads());
+
+    // Reading back the spilled sepia image spills the model, which is then read back too
+    Image sepia = map.getImage("sepia");
+    Image reloaded = map.getImage("model");
+    statistics = map.getStatistics();
+    assertEquals(3, statistics.getSpills());
+    assertEquals(2, statistics.getReloads());
+    assertEquals(true, reloaded instanceof ExtendedRGB);
+    assertEquals(true, statistics.getMemoryBytes() <= statistics.getBudget());
+
+    Image expected = model.sepia(null);
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 4; j++) {
+          assertEquals(image[c][i][j], reloaded.getPixelValue(c, i, j));
+          assertEquals(expected.getPixelValue(c, i, j), sepia.getPixelValue(c, i, j));
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testImageMapClear() {
+
+    ImageMap map = new ImageMap(700);
+    map.load("first", new ExtendedRGB(4, 4));
+    map.load("second", new ExtendedRGB(4, 4));
+    map.load("third", new ExtendedRGB(4, 4));
+    assertEquals(1, map.getStatistics().getSpills());
+
+    map.clear();
+    assertEquals(0, map.getStatistics().getMemoryBytes());
+    map.getImage("first");
+  }
+
+  @Test
+  public void testLazyImageMap() {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, image[c][i][j]);
+        }
+      }
+    }
+
+    // The point operations run in one stage and flipping twice cancels out
+    DeferredImage deferred = new DeferredImage(model);
+    Image chain = deferred.brighten(30).brighten(-10).sepia(null)
+            .flip("vertical").flip("vertical");
+    assertEquals(1, ((DeferredImage) chain).getPendingStages());
+
+    Image[] results = new Image[2];
+    for (int run = 0; run < 2; run++) {
+      ImageMap map = new ImageMap();
+      map.setLazy(run == 1);
+      map.load("model", model);
+      map.brighten(new String[]{"30", "model", "bright"});
+      map.levelsAdjust(new String[]{"10", "100", "200", "bright", "levels"});
+      map.sepia(new String[]{"levels", "sepia"});
+      map.horizontalFlip("sepia", "flip");
+      map.downScaling(3, 3, "flip", "small");
+      results[run] = map.getImage("small");
+    }
+
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < 3; i++) {
+        for (int j = 0; j < 3; j++) {
+          assertEquals(results[0].getPixelValue(c, i, j), results[1].getPixelValue(c, i, j));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testLazyImageMapSpill() {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, image[c][i][j]);
+        }
+      }
+    }
+
+    // Deferred images count against the budget, the pending brighten is computed when it spills
+    ImageMap map = new ImageMap(700);
+    map.setLazy(true);
+    map.load("model", model);
+    map.brighten(new String[]{"20", "model", "bright"});
+    map.sepia(new String[]{"model", "sepia"});
+    assertEquals(1, map.getStatistics().getSpills());
+
+    // Reading back the brightened image spills the model, which is then read back too
+    Image bright = map.getImage("bright");
+    Image reloaded = map.getImage("model");
+    StoreStatistics statistics = map.getStatistics();
+    assertEquals(3, statistics.getSpills());
+    assertEquals(2, statistics.getReloads());
+    assertEquals(true, statistics.getMemoryBytes() <= statistics.getBudget());
+
+    Image expectedBright = model.brighten(20);
+    Image expectedSepia = model.sepia(null);
+    Image sepia = map.getImage("sepia");
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 4; j++) {
+          assertEquals(image[c][i][j], reloaded.getPixelValue(c, i, j));
+          assertEquals(expectedBright.getPixelValue(c, i, j), bright.getPixelValue(c, i, j));
+          assertEquals(expectedSepia.getPixelValue(c, i, j), sepia.getPixelValue(c, i, j));
+        }
+      }
+    }
+  }
+
   @Test
   public void downScale() {
 
@@ -388,7 +874,138 @@ public class ModelTest {
   }
 
 
-}
 
+  @Test
+  public void testResultCache() throws IOException {
+
+    ExtendedRGB model = new ExtendedRGB(4, 4);
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 4; j++) {
+        for (int c = 0; c < 3; c++) {
+          model.setPixelValue(c, i, j, image[c][i][j]);
+        }
+      }
+    }
+    ExtendedRGB copy = new ExtendedRGB(4, 4);
+    copy.getPixelBuffer().copyFrom(model.getPixelBuffer());
+
+    File directory = Files.createTempDirectory("results").toFile();
+    ResultCache cache = new ResultCache(1 << 20, directory);
+    ImageMap map = new ImageMap();
+    CachedImageProcessor processor = new CachedImageProcessor(map, cache);
+    processor.load("model", model);
+    processor.brighten(new String[]{"30", "model", "bright"});
+    processor.sepia(new String[]{"bright", "sepia"});
+    assertEquals(2, cache.getMisses());
+
+    // Images with the same content share results, whatever their name
+    processor.load("copy", copy);
+    processor.brighten(new String[]{"30", "copy", "bright"});
+    processor.sepia(new String[]{"bright", "sepia"});
+    processor.brighten(new String[]{"40", "copy", "bright"});
+    assertEquals(2, cache.getHits());
+    assertEquals(3, cache.getMisses());
+
+    ImageMap plain = new ImageMap();
+    plain.load("model", model);
+    plain.brighten(new String[]{"40", "model", "bright"});
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 4; j++) {
+          assertEquals(plain.getImage("bright").getPixelValue(c, i, j),
+                  processor.getImage("bright").getPixelValue(c, i, j));
+        }
+      }
+    }
+
+    // A new cache finds the results of the earlier one in the directory
+    ResultCache later = new ResultCache(1 << 20, directory);
+    CachedImageProcessor next = new CachedImageProcessor(new ImageMap(), later);
+    next.load("model", model);
+    next.brighten(new String[]{"30", "model", "bright"});
+    next.sepia(new String[]{"bright", "sepia"});
+    assertEquals(2, later.getDiskHits());
+    assertEquals(0, later.getMisses());
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < 4; i++) {
+        for (int j = 0; j < 4; j++) {
+          assertEquals(map.getImage("sepia").getPixelValue(c, i, j),
+                  next.getImage("sepia").getPixelValue(c, i, j));
+        }
+      }
+    }
+
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  /* The wavelet works on rectangles, so wide images compress without a square padding */
+  @Test
+  public void testRectangularWavelet() {
+
+    double[] flat = new double[16];
+    java.util.Arrays.fill(flat, 3);
+    HaarWavelet.forward(flat, 8, 2);
+    assertEquals(12, flat[0], 1e-9);
+    for (int i = 1; i < flat.length; i++) {
+      assertEquals(0, flat[i], 1e-9);
+    }
 
+    double[] data = new double[32];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (i * 37) % 11;
+    }
+    double[] samples = data.clone();
+    HaarWavelet.forward(data, 16, 2);
+    HaarWavelet.inverse(data, 16, 2);
+    for (int i = 0; i < data.length; i++) {
+      assertEquals(samples[i], data[i], 1e-9);
+    }
 
+    ExtendedRGB wide = new ExtendedRGB(9, 3);
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 9; j++) {
+        for (int c = 0; c < 3; c++) {
+          wide.setPixelValue(c, i, j, (i * 90 + j * 25 + c * 40) % 256);
+        }
+      }
+    }
+    Image compressed = wide.compress(0);
+    assertEquals(9, compressed.getWidth());
+    assertEquals(3, compressed.getHeight());
+    for (int c = 0; c < 3; c++) {
+      for (int i = 0; i < 3; i++) {
+        for (int j = 0; j < 9; j++) {
+          assertEquals(wide.getPixelValue(c, i, j), compressed.getPixelValue(c, i, j));
+        }
+      }
+    }
+  }
+
+  /* A non-square image is padded to 16 x 4, not to a 16 x 16 square, which changes the result */
+  @Test
+  public void testRectangularCompress() {
+
+    double[][] channel = new double[3][9];
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 9; j++) {
+        channel[i][j] = (i * 90 + j * 25) % 256;
+      }
+    }
+
+    int[][] compressed = new CompressUtil().compress(channel, 9, 3, 50);
+
+    int[][] expected = {
+        {93, 93, 93, 93, 163, 163, 214, 111, 186},
+        {93, 93, 93, 93, 163, 163, 176, 73, 20},
+        {189, 189, 214, 214, 23, 23, 86, 86, 138}
+    };
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 9; j++) {
+        assertEquals(expected[i][j], compressed[i][j]);
+      }
+    }
+  }
+}
@@ -0,0 +1,96 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Scanner;
+
+import application.controller.PPMImage;
+import application.model.Image;
+import application.model.RGBImage;
+
+/**
+ * A benchmark comparing the buffered PPM reader and writer with the previous Scanner and
+ * FileWriter implementation on images of 1, 12 and 48 megapixels.
+ * Run with {@code java PPMBenchmark [megapixels...]}, the files are written to the temporary
+ * directory and deleted afterwards.
+ */
+public class PPMBenchmark {
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args optional sizes in megapixels.
+   * @throws IOException if the temporary files cannot be written.
+   */
+  public static void main(String[] args) throws IOException {
+    String[] sizes = args.length > 0 ? args : new String[]{"1", "12", "48"};
+    PPMImage ppm = new PPMImage();
+
+    for (String size : sizes) {
+      int megapixels = Integer.parseInt(size);
+      int width = 4000;
+      int height = megapixels * 1000000 / width;
+      RGBImage image = new RGBImage(width, height);
+      byte[] data = image.getPixelBuffer().getData();
+      for (int i = 0; i < data.length; i++) {
+        data[i] = (byte) (i * 31 + i / 7);
+      }
+      File file = File.createTempFile("benchmark", ".ppm");
+
+      long start = System.nanoTime();
+      legacySave(file.getPath(), image);
+      long legacySave = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      legacyLoad(file.getPath());
+      long legacyLoad = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      ppm.save(file.getPath(), image);
+      long save = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      ppm.load(file.getPath());
+      long load = System.nanoTime() - start;
+
+      System.out.printf("%2d MP  save %8.0f ms -> %6.0f ms   load %8.0f ms -> %6.0f ms%n",
+              megapixels, legacySave / 1e6, save / 1e6, legacyLoad / 1e6, load / 1e6);
+      file.delete();
+    }
+  }
+
+  /* The previous loader, one Scanner.nextInt per sample */
+  private static Image legacyLoad(String path) throws IOException {
+    try (Scanner scanner = new Scanner(new File(path))) {
+      scanner.nextLine();
+      int width = scanner.nextInt();
+      int height = scanner.nextInt();
+      scanner.nextInt();
+      RGBImage image = new RGBImage(width, height);
+      for (int i = 0; i < height; i++) {
+        for (int j = 0; j < width; j++) {
+          image.setPixelValue(0, i, j, scanner.nextInt());
+          image.setPixelValue(1, i, j, scanner.nextInt());
+          image.setPixelValue(2, i, j, scanner.nextInt());
+        }
+      }
+      return image;
+    }
+  }
+
+  /* The previous writer, one unbuffered FileWriter.write per pixel */
+  private static void legacySave(String path, Image image) throws IOException {
+    try (FileWriter writer = new FileWriter(path)) {
+      writer.write("P3\n");
+      writer.write(image.getWidth() + " " + image.getHeight() + "\n");
+      writer.write("255\n");
+      for (int i = 0; i < image.getHeight(); i++) {
+        for (int j = 0; j < image.getWidth(); j++) {
+          writer.write(image.getPixelValue(0, i, j) + " "
+                  + image.getPixelValue(1, i, j) + " "
+                  + image.getPixelValue(2, i, j) + "\n");
+        }
+      }
+    }
+  }
+
+}
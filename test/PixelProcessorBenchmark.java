@@ -0,0 +1,90 @@
+import java.lang.management.ManagementFactory;
+import java.util.function.BiFunction;
+
+import application.model.Image;
+import application.model.Mask;
+import application.model.RGBImage;
+import application.model.utils.ParallelRows;
+
+/**
+ * A benchmark for the per-pixel operations of an RGB image.
+ * It reports the time and the bytes allocated by each operation beyond its output image, next to
+ * a boxed per-channel traversal of the same sepia transform for comparison. Operations run on the
+ * calling thread so that every allocation is counted.
+ * Run with {@code java PixelProcessorBenchmark [width height]}.
+ */
+public class PixelProcessorBenchmark {
+
+  private static final int ROUNDS = 5;
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args optional width and height of the test image.
+   */
+  public static void main(String[] args) {
+    int width = args.length == 2 ? Integer.parseInt(args[0]) : 2000;
+    int height = args.length == 2 ? Integer.parseInt(args[1]) : 2000;
+    ParallelRows.setParallelism(1);
+
+    RGBImage image = new RGBImage(width, height);
+    RGBImage mask = new RGBImage(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        for (int c = 0; c < 3; c++) {
+          image.setPixelValue(c, y, x, (x * 7 + y * 13 + c * 61) & 0xff);
+          mask.setPixelValue(c, y, x, x < width / 2 ? 0 : 255);
+        }
+      }
+    }
+    long output = 3L * width * height;
+
+    run("boxed sepia", output, () -> boxedSepia(image));
+    run("sepia", output, () -> image.sepia(null));
+    Mask selection = Mask.of(mask);
+    run("sepia masked", output, () -> image.sepia(selection));
+    run("luma", output, () -> image.lumaComponent(null));
+    run("intensity", output, () -> image.intensityComponent(null));
+    run("value", output, () -> image.valueComponent(null));
+    run("red component", output, () -> image.channelComponent(null, 0));
+  }
+
+  /* Times the operation and prints the bytes it allocated besides its output */
+  private static void run(String name, long output, Runnable operation) {
+    com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    operation.run();
+
+    long best = Long.MAX_VALUE;
+    long allocated = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      long bytes = threads.getThreadAllocatedBytes(thread);
+      long start = System.nanoTime();
+      operation.run();
+      best = Math.min(best, System.nanoTime() - start);
+      allocated = threads.getThreadAllocatedBytes(thread) - bytes;
+    }
+    System.out.printf("%-14s %8.1f ms %14d bytes allocated beyond output%n",
+            name, best / 1e6, Math.max(0, allocated - output));
+  }
+
+  /* The sepia transform as one boxed traversal per output channel */
+  private static Image boxedSepia(RGBImage image) {
+    double[][] weights = {{0.393, 0.769, 0.189}, {0.349, 0.686, 0.168}, {0.272, 0.534, 0.131}};
+    RGBImage sepia = new RGBImage(image.getWidth(), image.getHeight());
+    for (int c = 0; c < 3; c++) {
+      double[] w = weights[c];
+      BiFunction<Integer, Integer, Integer> pixel = (x, y) -> Math.min(255, (int) (
+              w[0] * image.getPixelValue(0, y, x) + w[1] * image.getPixelValue(1, y, x)
+                      + w[2] * image.getPixelValue(2, y, x)));
+      for (int y = 0; y < image.getHeight(); y++) {
+        for (int x = 0; x < image.getWidth(); x++) {
+          sepia.setPixelValue(c, y, x, pixel.apply(x, y));
+        }
+      }
+    }
+    return sepia;
+  }
+
+}
@@ -0,0 +1,62 @@
+import java.util.function.Supplier;
+
+import application.model.Image;
+import application.model.PixelBuffer;
+import application.model.TiledImage;
+
+/**
+ * A benchmark for images larger than the heap.
+ * It fills a tiled image of about two gigapixels, which takes 6 GB of pixels, and times point,
+ * convolution and geometric operations over it one tile at a time. Run it with a heap far below
+ * the image size to check that the image stays out of core, for example
+ * {@code java -Xmx1g TiledImageBenchmark [width height]}.
+ */
+public class TiledImageBenchmark {
+
+  /**
+   * Runs the benchmark.
+   *
+   * @param args optional width and height of the test image.
+   */
+  public static void main(String[] args) {
+    int width = args.length == 2 ? Integer.parseInt(args[0]) : 50000;
+    int height = args.length == 2 ? Integer.parseInt(args[1]) : 40000;
+
+    TiledImage image = new TiledImage(width, height);
+    long start = System.nanoTime();
+    for (int y = 0; y < height; y += image.getTileSize()) {
+      PixelBuffer band = new PixelBuffer(3, width, Math.min(image.getTileSize(), height - y));
+      byte[] data = band.getData();
+      for (int row = 0; row < band.getHeight(); row++) {
+        for (int x = 0, i = band.offset(row, 0); x < width; x++) {
+          for (int c = 0; c < 3; c++) {
+            data[i++] = (byte) (x * 7 + (y + row) * 13 + c * 61);
+          }
+        }
+      }
+      image.writeRegion(0, y, band);
+    }
+    report("fill", width, height, System.nanoTime() - start);
+
+    run("brighten", width, height, () -> image.brighten(20));
+    run("sepia", width, height, () -> image.sepia(null));
+    run("blur", width, height, () -> image.blur(null));
+    run("flip", width, height, () -> image.flip("vertical"));
+    run("downscale", width, height, () -> image.downScaling(height / 4, width / 4));
+  }
+
+  /* Times one run of the operation, then drops the result so its scratch file can be freed */
+  private static void run(String name, int width, int height, Supplier<Image> operation) {
+    long start = System.nanoTime();
+    operation.get();
+    report(name, width, height, System.nanoTime() - start);
+    System.gc();
+  }
+
+  private static void report(String name, int width, int height, long nanos) {
+    Runtime runtime = Runtime.getRuntime();
+    System.out.printf("%-10s %10.1f ms %8.1f MP/s %6d MB heap used%n", name, nanos / 1e6,
+            (double) width * height / (nanos / 1e3), (runtime.totalMemory() - runtime.freeMemory())
+                    >> 20);
+  }
+}
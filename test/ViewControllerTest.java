@@ -9,6 +9,7 @@ import application.controller.Features;
 import application.controller.ViewController;
 import application.model.Image;
 import application.model.ImageProcessor;
+import application.model.utils.Kernel;
 import application.view.IView;
 
 import static org.junit.Assert.assertEquals;
@@ -42,7 +43,7 @@ public class ViewControllerTest {
 
   @Test
   public void testPPMLoad() throws IOException {
-    viewController.load("./res/image.ppm");
+    viewController.load("./res/test.ppm");
     assertEquals("Load: current-image\n" +
             "Histogram: current-imagehistogram\n" +
             "Features: class application.controller.ViewController\n" +
@@ -304,6 +305,23 @@ public class ViewControllerTest {
       return imagesMap.get(imageName);
     }
 
+    @Override
+    public void removeImage(String imageName) {
+      imagesMap.remove(imageName);
+      logger.append("Remove image: ").append(imageName).append("\n");
+    }
+
+    @Override
+    public long getPixelBytes(String imageName) {
+      return 0;
+    }
+
+    @Override
+    public void clear() {
+      imagesMap.clear();
+      logger.append("Clear\n");
+    }
+
     @Override
     public void sepia(String[] args) {
       logger.append("Sepia: ").append(String.join(" ", args)).append("\n");
@@ -345,6 +363,11 @@ public class ViewControllerTest {
       logger.append("Sharpen: ").append(String.join(" ", args)).append("\n");
     }
 
+    @Override
+    public void convolve(Kernel kernel, String[] args) {
+      logger.append("Convolve: ").append(String.join(" ", args)).append("\n");
+    }
+
     @Override
     public void horizontalFlip(String imgName, String destImgName) {
       logger.append("Horizontal flip: ").append(imgName).append(" ").append(destImgName).
@@ -400,6 +423,11 @@ public class ViewControllerTest {
                             String destinationImageName) {
       logger.append("Downscaling: ").append(newHeight).append(newWidth).append("\n");
     }
+
+    @Override
+    public void dither(String[] args) {
+      logger.append("Dither: ").append(String.join(" ", args)).append("\n");
+    }
   }
 
 }